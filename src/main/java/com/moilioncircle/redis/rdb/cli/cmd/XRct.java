@@ -17,19 +17,37 @@
 package com.moilioncircle.redis.rdb.cli.cmd;
 
 import static com.moilioncircle.redis.rdb.cli.util.XUris.normalize;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 import com.moilioncircle.redis.rdb.cli.cmd.support.XVersionProvider;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.AbstractRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.CliRedisReplicator;
+import com.moilioncircle.redis.rdb.cli.ext.ParallelRdbExporter;
+import com.moilioncircle.redis.rdb.cli.ext.RdbIndex;
+import com.moilioncircle.redis.rdb.cli.ext.RdbPartitioner;
+import com.moilioncircle.redis.rdb.cli.ext.RdbPartitioner.Partition;
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
 import com.moilioncircle.redis.rdb.cli.glossary.Format;
+import com.moilioncircle.redis.rdb.cli.util.KeySet;
 import com.moilioncircle.redis.rdb.cli.util.ProgressBar;
+import com.moilioncircle.redis.rdb.cli.util.XSlots;
 import com.moilioncircle.redis.replicator.FileType;
+import com.moilioncircle.redis.replicator.RedisURI;
 import com.moilioncircle.redis.replicator.Replicator;
 import com.moilioncircle.redis.replicator.Replicators;
 import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
@@ -39,6 +57,7 @@ import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Spec;
 
 /**
@@ -53,20 +72,27 @@ import picocli.CommandLine.Spec;
 		versionProvider = XVersionProvider.class,
 		customSynopsis = {
 				"Usage: rct [-hV] -f <format> -s <source> -o <file> [-e <escape>]",
-				"       [-d <db>...] [-k <regex>...>] [-t <type>...] [-b <bytes>]",
-				"       [-l <n>] [-r]"
+				"       [-d <db>...] [-k <regex>...>] [--key-file <file>]",
+				"       [--slots <range>...] [-t <type>...] [-i <file>] [-b <bytes>]",
+				"       [-l <n>] [--prefix <n>] [--sort <field>] [-r]",
+				"       [--merge <file>...] [--compress <codec>]"
 		},
 		footer = {"%nExamples:",
 				"  rct -f dump -s ./dump.rdb -o ./appendonly.aof -r",
 				"  rct -f resp -s redis://127.0.0.1:6379 -o ./target.aof -d 0 1",
 				"  rct -f json -s ./dump.rdb -o ./target.json -k user.* product.*",
-				"  rct -f mem -s ./dump.rdb -o ./target.aof -e redis -t list -l 10 -b 1024"})
+				"  rct -f json -s ./dump.rdb -o ./target.json -i ./dump.rdb.rdbidx -k user:1",
+				"  rct -f mem -s ./dump.rdb -o ./target.aof -e redis -t list -l 10 -b 1024",
+				"  rct -f mem -s ./dump.rdb -o ./target.csv --prefix 2",
+				"  rct -f mem -s ./dump.rdb -o ./target.csv --sort size",
+				"  rct -f hll -s ./dump.rdb -o ./target.csv --prefix 2 --merge ./other.csv.hll",
+				"  rct -f jsonl -s ./dump.rdb -o ./target.jsonl.zst --compress zstd"})
 public class XRct implements Callable<Integer> {
 	
 	@Spec
 	private CommandSpec spec;
 	
-	@Option(names = {"-f", "--format"}, required = true, description = {"Format to export. valid formats are json,", "jsonl, dump, diff, key, keyval, count, mem", "and resp"})
+	@Option(names = {"-f", "--format"}, required = true, description = {"Format to export. valid formats are json,", "jsonl, dump, diff, key, keyval, count, mem,", "hll and resp"})
 	private String format;
 	
 	@Option(names = {"-s", "--source"}, required = true, description = {"Source file or uri. eg:", "/path/to/dump.rdb", "redis://host:port?authPassword=foobar", "redis:///path/to/dump.rdb."})
@@ -78,9 +104,18 @@ public class XRct implements Callable<Integer> {
 	@Option(names = {"-d", "--db"}, arity = "1..*", description = {"Database number. multiple databases can be", "provided. if not specified, all databases", "will be included."}, type = Long.class)
 	private List<Long> db = new ArrayList<>();
 	
-	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex. if not", "specified, all keys will be returned."})
+	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex or a redis", "glob with prefix glob: like glob:user:*. if not", "specified, all keys will be returned."})
 	private List<String> regexs = new ArrayList<>();
 	
+	@Option(names = {"--key-file"}, paramLabel = "<file>", description = {"File of keys to export, one key per line. the", "keys are kept off heap, so the file can list", "millions of keys. can be used with --key."}, type = File.class)
+	private File keyFile;
+	
+	@Option(names = {"-i", "--index"}, paramLabel = "<file>", description = {"Sidecar index built by rdt --index. if", "specified, the keys of --key are looked up in", "the index as plain keys, only their values are", "read from the local rdb file."}, type = File.class)
+	private File index;
+	
+	@Option(names = {"--slots"}, arity = "1..*", paramLabel = "<range>", description = {"Slots to export. eg: 0-5460,10923. keys out", "of the slots are skipped without decoding. if", "not specified, all slots will be included."})
+	private List<String> slots = new ArrayList<>();
+	
 	@Option(names = {"-t", "--type"}, arity = "1..*", description = {"Data type to export. possible values are", "string, hash, set, sortedset, list, module, ", "stream. multiple types can be provided. if not", "specified, all data types will be returned."})
 	private List<String> type = new ArrayList<>();
 	
@@ -93,20 +128,73 @@ public class XRct implements Callable<Integer> {
 	@Option(names = {"-l", "--largest"}, paramLabel = "<n>", description = {"Limit memory output(--format mem) to only the", "top n keys (by size)."})
 	private Long largest;
 	
+	@Option(names = {"--prefix"}, paramLabel = "<n>", description = {"Roll up memory output(--format mem) and", "distinct counts(--format hll) by key prefixes", "of up to n segments. see", "export_prefix_delimiter."})
+	private Integer prefix;
+	
+	@Option(names = {"--sort"}, paramLabel = "<field>", description = {"Sort memory output(--format mem) by size,", "elements or key. the rows are sorted by an", "external merge sort under temp_file_path."})
+	private String sort;
+	
+	@Option(names = {"--merge"}, arity = "1..*", paramLabel = "<file>", description = {"Sketches(<file>.hll) written by --format hll", "of other rdb files, eg: the other masters of", "a cluster. they are merged into the output."}, type = File.class)
+	private List<File> merge = new ArrayList<>();
+	
+	@Option(names = {"--compress"}, paramLabel = "<codec>", description = {"Compress the output by gzip, zstd or lz4.", "the blocks of the output are compressed in", "parallel, see compress_threads."})
+	private String compress;
+	
 	@Option(names = {"-r", "--replace"}, description = {"Whether the generated aof with <replace>", "parameter(--format dump). if not specified,", "default value is false."})
 	private boolean replace;
 	
 	@Override
 	public Integer call() throws Exception {
 		source = normalize(source, FileType.RDB, spec, "Invalid options: '--source=<source>'");
+		if (keyFile != null && !Files.isRegularFile(keyFile.toPath())) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--key-file=<file>'");
+		}
+		BitSet slots = XSlots.parse(this.slots, spec, "Invalid options: '--slots=<range>'");
+		if (index != null && (!index.isFile() || local(source) == null || regexs.isEmpty())) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--index=<file>'");
+		}
+		if (prefix != null && (prefix < 0 || !Arrays.asList("mem", "hll").contains(this.format) || largest != null || bytes != null)) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--prefix=<n>'");
+		}
+		if (sort != null && (!this.format.equals("mem") || largest != null || prefix != null || !Arrays.asList("size", "elements", "key").contains(sort))) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--sort=<field>'");
+		}
+		if (!merge.isEmpty() && (!this.format.equals("hll") || merge.stream().anyMatch(e -> !e.isFile()))) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--merge=<file>'");
+		}
 		Configure configure = Configure.bind();
+		if (compress != null) {
+			try {
+				configure.setCompress(Compression.parse(compress));
+			} catch (UnsupportedOperationException e) {
+				throw new ParameterException(spec.commandLine(), "Invalid options: '--compress=<codec>'");
+			}
+		}
+		Format format = new Format(this.format, configure);
+		KeySet keys = keyFile == null ? null : KeySet.valueOf(keyFile, configure);
 		try (ProgressBar bar = new ProgressBar(-1)) {
+			File file = local(source);
+			if (index != null) {
+				lookup(file, format, configure, keys, slots, bar);
+				return 0;
+			}
+			// the shards are merged by byte ranges, a compressed output is compressed in parallel anyway.
+			boolean parallel = configure.getCompress() == Compression.NONE && format.isMergeable(largest, prefix, sort);
+			if (file != null && configure.getExportThreads() > 1 && parallel) {
+				List<Partition> partitions = new RdbPartitioner(file, configure.getInputBufferSize()).split(configure.getExportThreads() * 4);
+				if (partitions.size() > 1) {
+					ParallelRdbExporter exporter = new ParallelRdbExporter(file, output, this.format, configure);
+					exporter.export(partitions, (r, shard) -> dress(r, format, shard, keys, slots), b -> bar.react(b.length));
+					return 0;
+				}
+			}
+			
 			Replicator r = new CliRedisReplicator(source, configure);
 			r.addExceptionListener((rep, tx, e) -> {
 				throw new RuntimeException(tx.getMessage(), tx);
 			});
 			
-			new Format(format, configure).dress(r, output, db, regexs, largest, bytes, DataType.parse(type), escape, replace);
+			dress(r, format, output, keys, slots);
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 				Replicators.closeQuietly(r);
 			}));
@@ -120,4 +208,53 @@ public class XRct implements Callable<Integer> {
 		}
 		return 0;
 	}
+	
+	private void lookup(File file, Format format, Configure configure, KeySet keys, BitSet slots, ProgressBar bar) throws IOException {
+		RdbIndex idx = RdbIndex.open(index, file);
+		List<byte[]> list = new ArrayList<>(regexs.size());
+		for (String key : regexs) list.add(key.getBytes(UTF_8));
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			Replicator r = new CliRedisReplicator(idx.lookup(channel, list, configure.getInputBufferSize()), configure);
+			r.addExceptionListener((rep, tx, e) -> {
+				throw new RuntimeException(tx.getMessage(), tx);
+			});
+			// the keys are plain keys here, a key like 'user:{1}' or 'a[' must not be read as a regex.
+			List<String> quoted = new ArrayList<>(regexs.size());
+			for (String key : regexs) quoted.add(Pattern.quote(key));
+			dress(r, format, output, quoted, keys, slots);
+			r.addEventListener((rep, event) -> {
+				if (event instanceof PreRdbSyncEvent)
+					rep.addRawByteListener(b -> bar.react(b.length));
+				if (event instanceof PostRdbSyncEvent)
+					Replicators.closeQuietly(rep);
+			});
+			r.open();
+		}
+	}
+	
+	private void dress(Replicator r, Format format, File output, KeySet keys, BitSet slots) {
+		dress(r, format, output, regexs, keys, slots);
+	}
+	
+	private void dress(Replicator r, Format format, File output, List<String> regexs, KeySet keys, BitSet slots) {
+		format.dress(r, output, db, regexs, largest, bytes, prefix, sort, merge, DataType.parse(type), escape, replace);
+		AbstractRdbVisitor visitor = (AbstractRdbVisitor) r.getRdbVisitor();
+		visitor.setKeySet(keys);
+		visitor.setSlots(slots);
+	}
+	
+	/**
+	 * @return null if the source is not a local uncompressed rdb file.
+	 */
+	private static File local(String source) {
+		if (!Compression.suffix(source).isEmpty()) return null;
+		try {
+			RedisURI uri = new RedisURI(source);
+			if (uri.getFileType() != FileType.RDB) return null;
+			File file = new File(uri.getPath());
+			return file.isFile() ? file : null;
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
 }
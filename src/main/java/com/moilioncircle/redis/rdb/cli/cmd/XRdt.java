@@ -23,14 +23,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import com.moilioncircle.redis.rdb.cli.cmd.support.XVersionProvider;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.RdbIndex;
 import com.moilioncircle.redis.rdb.cli.glossary.Action;
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
+import com.moilioncircle.redis.rdb.cli.util.KeySet;
 import com.moilioncircle.redis.rdb.cli.util.ProgressBar;
+import com.moilioncircle.redis.rdb.cli.util.XSlots;
 import com.moilioncircle.redis.replicator.FileType;
 import com.moilioncircle.redis.replicator.Replicator;
 import com.moilioncircle.redis.replicator.Replicators;
@@ -58,14 +63,17 @@ import picocli.CommandLine.Spec;
 		versionProvider = XVersionProvider.class,
 		customSynopsis = {
 				"Usage: rdt [-hV] (-b <source> [-g <db>] | -s <source> -c <conf>",
-				"       | -m <file>...) -o <file> [-d <db>...] [-k <regex>...]",
-				"       [-t <type>...]"
+				"       | -m <file>... | -i <file>) -o <file> [-d <db>...] [-k <regex>...]",
+				"       [--key-file <file>] [--slots <range>...] [-t <type>...]",
+				"       [--compress <codec>]"
 		},
 		footer = {"%nExamples:",
 				"  rdt -b ./dump.rdb -o ./dump.rdb1 -d 0 1",
 				"  rdt -b ./dump.rdb -o ./dump.rdb1 -d 0 1 -g 3",
 				"  rdt -b redis://127.0.0.1:6379 -o ./dump.rdb -k user.*",
+				"  rdt -b redis://127.0.0.1:6379 -o ./dump.rdb.zst --compress zstd",
 				"  rdt -m ./dump1.rdb ./dump2.rdb -o ./dump.rdb -t hash",
+				"  rdt -i ./dump.rdb -o ./dump.rdb.rdbidx",
 				"  rdt -s ./dump.rdb -c ./nodes.conf -o /path/to/folder -t hash -d 0",
 				"  rdt -s redis://127.0.0.1:6379 -c ./nodes.conf -o /path/to/folder -d 0"})
 public class XRdt implements Callable<Integer> {
@@ -85,6 +93,9 @@ public class XRdt implements Callable<Integer> {
 		
 		@Option(names = {"-m", "--merge"}, arity = "1..*", required = true, paramLabel = "<file>", description = "Merge multi rdb files to one rdb file.", type = File.class)
 		public List<File> merge;
+		
+		@Option(names = {"-i", "--index"}, required = true, paramLabel = "<file>", description = {"Build the sidecar index of a local rdb file", "for rct --index. the <file> is the rdb file,", "the index is written to --out."}, type = File.class)
+		public File index;
 	}
 	
 	public static class Backup {
@@ -109,14 +120,31 @@ public class XRdt implements Callable<Integer> {
 	@Option(names = {"-d", "--db"}, arity = "1..*", description = {"Database number. multiple databases can be", "provided. if not specified, all databases", "will be included."}, type = Long.class)
 	private List<Long> db = new ArrayList<>();
 	
-	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex. if not", "specified, all keys will be returned."})
+	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex or a redis", "glob with prefix glob: like glob:user:*. if not", "specified, all keys will be returned."})
 	private List<String> regexs = new ArrayList<>();
 	
+	@Option(names = {"--key-file"}, paramLabel = "<file>", description = {"File of keys to export, one key per line. the", "keys are kept off heap, so the file can list", "millions of keys. can be used with --key."}, type = File.class)
+	private File keyFile;
+	
+	@Option(names = {"--slots"}, arity = "1..*", paramLabel = "<range>", description = {"Slots to export. eg: 0-5460,10923. keys out", "of the slots are skipped without decoding. if", "not specified, all slots will be included."})
+	private List<String> slots = new ArrayList<>();
+	
+	@Option(names = {"--compress"}, paramLabel = "<codec>", description = {"Compress the --backup output by gzip, zstd", "or lz4."})
+	private String compress;
+	
 	@Option(names = {"-t", "--type"}, arity = "1..*", description = {"Data type to export. possible values are", "string, hash, set, sortedset, list, module, ", "stream. multiple types can be provided. if not", "specified, all data types will be returned."})
 	private List<String> type = new ArrayList<>();
 	
 	@Override
 	public Integer call() throws Exception {
+		if (exclusive.index != null) {
+			if (!exclusive.index.isFile()) {
+				throw new ParameterException(spec.commandLine(), "Invalid options: '--index=<file>'");
+			}
+			RdbIndex.build(exclusive.index, new File(output), Configure.bind().getInputBufferSize());
+			return 0;
+		}
+		
 		Action action = Action.NONE;
 		// split
 		File config = null;
@@ -150,7 +178,19 @@ public class XRdt implements Callable<Integer> {
 			action = Action.MERGE;
 		}
 		
+		if (keyFile != null && !Files.isRegularFile(keyFile.toPath())) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--key-file=<file>'");
+		}
+		BitSet slots = XSlots.parse(this.slots, spec, "Invalid options: '--slots=<range>'");
+		
 		Configure configure = Configure.bind();
+		if (compress != null) {
+			try {
+				configure.setCompress(Compression.parse(compress));
+			} catch (UnsupportedOperationException e) {
+				throw new ParameterException(spec.commandLine(), "Invalid options: '--compress=<codec>'");
+			}
+		}
 		try (ProgressBar bar = new ProgressBar(-1)) {
 			Action.Arg arg = new Action.Arg();
 			arg.split = split;
@@ -161,6 +201,8 @@ public class XRdt implements Callable<Integer> {
 			arg.output = output;
 			arg.db = db;
 			arg.regexs = regexs;
+			arg.keys = keyFile == null ? null : KeySet.valueOf(keyFile, configure);
+			arg.slots = slots;
 			arg.types = DataType.parse(type);
 			
 			List<Tuple2<Replicator, String>> list = action.dress(configure, arg);
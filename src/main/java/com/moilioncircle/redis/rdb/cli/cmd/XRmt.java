@@ -22,18 +22,23 @@ import static com.moilioncircle.redis.rdb.cli.util.XUris.normalize;
 import java.io.File;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import com.moilioncircle.redis.rdb.cli.cmd.support.XVersionProvider;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.AbstractMigrateRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.Checkpoint;
 import com.moilioncircle.redis.rdb.cli.ext.CliRedisReplicator;
 import com.moilioncircle.redis.rdb.cli.ext.rmt.ClusterRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rmt.SingleRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.net.impl.XEndpoint;
 import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
+import com.moilioncircle.redis.rdb.cli.util.KeySet;
 import com.moilioncircle.redis.rdb.cli.util.ProgressBar;
+import com.moilioncircle.redis.rdb.cli.util.XSlots;
 import com.moilioncircle.redis.replicator.FileType;
 import com.moilioncircle.redis.replicator.RedisURI;
 import com.moilioncircle.redis.replicator.Replicator;
@@ -41,7 +46,6 @@ import com.moilioncircle.redis.replicator.Replicators;
 import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreCommandSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
-import com.moilioncircle.redis.replicator.rdb.RdbVisitor;
 
 import picocli.CommandLine.ArgGroup;
 import picocli.CommandLine.Command;
@@ -62,7 +66,8 @@ import picocli.CommandLine.Spec;
 		versionProvider = XVersionProvider.class,
 		customSynopsis = {
 				"Usage: rmt [-hV] -s <source> (-m <uri> | -c <conf>) [-d <db>...]",
-				"       [-k <regex>...] [-t <type>...] [-rl]"
+				"       [-k <regex>...] [--key-file <file>] [--slots <range>...]",
+				"       [-t <type>...] [-rl]"
 		},
 		footer = {"%nExamples:",
 				"  rmt -s ./dump.rdb -c ./nodes.conf -t string -r",
@@ -90,9 +95,15 @@ public class XRmt implements Callable<Integer> {
 	@Option(names = {"-d", "--db"}, arity = "1..*", description = {"Database number. multiple databases can be", "provided. if not specified, all databases", "will be included."}, type = Long.class)
 	private List<Long> db = new ArrayList<>();
 	
-	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex. if not", "specified, all keys will be returned."})
+	@Option(names = {"-k", "--key"}, arity = "1..*", paramLabel = "<regex>", description = {"Keys to export. this can be a regex or a redis", "glob with prefix glob: like glob:user:*. if not", "specified, all keys will be returned."})
 	private List<String> regexs = new ArrayList<>();
 	
+	@Option(names = {"--key-file"}, paramLabel = "<file>", description = {"File of keys to export, one key per line. the", "keys are kept off heap, so the file can list", "millions of keys. can be used with --key."}, type = File.class)
+	private File keyFile;
+	
+	@Option(names = {"--slots"}, arity = "1..*", paramLabel = "<range>", description = {"Slots to export. eg: 0-5460,10923. keys out", "of the slots are skipped without decoding. if", "not specified, all slots will be included."})
+	private List<String> slots = new ArrayList<>();
+	
 	@Option(names = {"-t", "--type"}, arity = "1..*", description = {"Data type to export. possible values are", "string, hash, set, sortedset, list, module, ", "stream. multiple types can be provided. if not", "specified, all data types will be returned."})
 	private List<String> type = new ArrayList<>();
 	
@@ -105,7 +116,12 @@ public class XRmt implements Callable<Integer> {
 	@Override
 	public Integer call() throws Exception {
 		source = normalize(source, FileType.RDB, spec, "Invalid options: '--source=<source>'");
+		if (keyFile != null && !Files.isRegularFile(keyFile.toPath())) {
+			throw new ParameterException(spec.commandLine(), "Invalid options: '--key-file=<file>'");
+		}
+		BitSet slots = XSlots.parse(this.slots, spec, "Invalid options: '--slots=<range>'");
 		Configure configure = Configure.bind();
+		KeySet keys = keyFile == null ? null : KeySet.valueOf(keyFile, configure);
 		if (exclusive.migrate != null) {
 			RedisURI uri = new RedisURI(exclusive.migrate);
 			if (uri.getFileType() != null) {
@@ -113,7 +129,11 @@ public class XRmt implements Callable<Integer> {
 			}
 			try (ProgressBar bar = new ProgressBar(-1)) {
 				Replicator r = new CliRedisReplicator(source, configure);
-				r.setRdbVisitor(getRdbVisitor(r, configure, uri));
+				AbstractMigrateRdbVisitor visitor = getRdbVisitor(r, configure, uri);
+				visitor.setKeySet(keys);
+				visitor.setSlots(slots);
+				visitor.setCheckpoint(Checkpoint.valueOf(source, configure));
+				r.setRdbVisitor(visitor);
 				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 					Replicators.closeQuietly(r);
 				}));
@@ -135,7 +155,11 @@ public class XRmt implements Callable<Integer> {
 			try (ProgressBar bar = new ProgressBar(-1)) {
 				Replicator r = new CliRedisReplicator(source, configure);
 				List<String> lines = Files.readAllLines(exclusive.config.toPath());
-				r.setRdbVisitor(new ClusterRdbVisitor(r, configure, lines, regexs, parse(type), replace));
+				ClusterRdbVisitor visitor = new ClusterRdbVisitor(r, configure, lines, regexs, parse(type), replace);
+				visitor.setKeySet(keys);
+				visitor.setSlots(slots);
+				visitor.setCheckpoint(Checkpoint.valueOf(source, configure));
+				r.setRdbVisitor(visitor);
 				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 					Replicators.closeQuietly(r);
 				}));
@@ -154,7 +178,7 @@ public class XRmt implements Callable<Integer> {
 		return 0;
 	}
 	
-	private RdbVisitor getRdbVisitor(Replicator replicator, Configure configure, RedisURI uri) throws Exception {
+	private AbstractMigrateRdbVisitor getRdbVisitor(Replicator replicator, Configure configure, RedisURI uri) throws Exception {
 		try (XEndpoint endpoint = new XEndpoint(uri.getHost(), uri.getPort(), configure.merge(uri, false), configure)) {
 			RedisObject r = endpoint.send("cluster".getBytes(), "nodes".getBytes());
 			if (r.type.isError()) {
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.stream.Collectors;
 
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
 import com.moilioncircle.redis.rdb.cli.glossary.Gateway;
 import com.moilioncircle.redis.rdb.cli.sentinel.RedisSentinelURI;
 import com.moilioncircle.redis.rdb.cli.util.Strings;
@@ -95,6 +96,71 @@ public class Configure {
      */
     private boolean exportUnit = true;
     
+    /**
+     * rct -f mem sizes values from their length headers
+     */
+    private boolean exportMemMetadata = true;
+    
+    /**
+     * rct -f mem histogram summary section
+     */
+    private boolean exportMemSummary = false;
+    
+    /**
+     * rct -f mem --sort in memory run size
+     */
+    private int exportSortBufferSize = 67108864;
+    
+    /**
+     * HyperLogLog precision of rct -f hll, 2^p registers per sketch
+     */
+    private int exportHllPrecision = 12;
+    
+    /**
+     * max prefixes tracked by rct -f hll
+     */
+    private int exportHllCapacity = 4096;
+    
+    /**
+     * rct -f mem --prefix key segments delimiter
+     */
+    private byte exportPrefixDelimiter = ':';
+    
+    /**
+     * rct -f mem --prefix max number of prefixes
+     */
+    private int exportPrefixCapacity = 100000;
+    
+    /**
+     * rct -f mem --prefix output format
+     */
+    private String exportPrefixFormat = "csv";
+    
+    /**
+     * rct parallel decoding
+     */
+    private int exportThreads = 1;
+    
+    /**
+     * rct and rdt --compress
+     */
+    private Compression compress = Compression.NONE;
+    
+    /**
+     * rct and rdt --compress level, -1 is the default level of the codec
+     */
+    private int compressLevel = -1;
+    
+    /**
+     * rct and rdt --compress threads
+     */
+    private int compressThreads = 4;
+    
+    /**
+     * rct and rdt --compress block size
+     */
+    private int compressBlockSize = 1024 * 1024;
+    
     /**
      * rmt --migrate
      */
@@ -114,6 +180,96 @@ public class Configure {
      * rmt --migrate
      */
     private boolean migrateFlush = true;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateWindowBytes = 64 * 1024 * 1024;
+    
+    /**
+     * rmt --migrate
+     */
+    private boolean migrateNio = true;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateNioThreads = 0;
+    
+    /**
+     * rmt --migrate
+     */
+    private boolean migrateAdaptive = false;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateBatchSizeMin = 16;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateBatchSizeMax = 65536;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateLatencyTarget = 50;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateRateOps = 0;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateRateBytes = 0;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateNodeRateOps = 0;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateNodeRateBytes = 0;
+    
+    /**
+     * rmt --migrate
+     */
+    private String migrateRateFile = null;
+    
+    /**
+     * rmt --migrate
+     */
+    private String migrateCheckpointFile = null;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateCheckpointInterval = 30;
+    
+    /**
+     * rmt --migrate
+     */
+    private boolean migrateAbsttl = false;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateBigKeySize = 64 * 1024 * 1024;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateBigKeyElements = 1024 * 1024;
+    
+    /**
+     * rmt --migrate
+     */
+    private int migrateBigKeyBatchSize = 1024 * 1024;
 
     /**
      * timeout
@@ -145,6 +301,16 @@ public class Configure {
      */
     private int inputBufferSize = 8 * 1024;
     
+    /**
+     * local rdb and aof file mapped window size, 0 disables the memory mapped input
+     */
+    private int inputMmapSize = 256 * 1024 * 1024;
+    
+    /**
+     * zstd source decompress threads
+     */
+    private int decompressThreads = 4;
+    
     /**
      * redis output stream buffer size
      */
@@ -299,6 +465,110 @@ public class Configure {
     public void setExportUnit(boolean exportUnit) {
         this.exportUnit = exportUnit;
     }
+    
+    public boolean isExportMemMetadata() {
+        return exportMemMetadata;
+    }
+    
+    public void setExportMemMetadata(boolean exportMemMetadata) {
+        this.exportMemMetadata = exportMemMetadata;
+    }
+    
+    public boolean isExportMemSummary() {
+        return exportMemSummary;
+    }
+    
+    public void setExportMemSummary(boolean exportMemSummary) {
+        this.exportMemSummary = exportMemSummary;
+    }
+    
+    public int getExportSortBufferSize() {
+        return exportSortBufferSize;
+    }
+    
+    public void setExportSortBufferSize(int exportSortBufferSize) {
+        this.exportSortBufferSize = exportSortBufferSize;
+    }
+    
+    public int getExportHllPrecision() {
+        return exportHllPrecision;
+    }
+    
+    public void setExportHllPrecision(int exportHllPrecision) {
+        this.exportHllPrecision = exportHllPrecision;
+    }
+    
+    public int getExportHllCapacity() {
+        return exportHllCapacity;
+    }
+    
+    public void setExportHllCapacity(int exportHllCapacity) {
+        this.exportHllCapacity = exportHllCapacity;
+    }
+    
+    public byte getExportPrefixDelimiter() {
+        return exportPrefixDelimiter;
+    }
+    
+    public void setExportPrefixDelimiter(byte exportPrefixDelimiter) {
+        this.exportPrefixDelimiter = exportPrefixDelimiter;
+    }
+    
+    public int getExportPrefixCapacity() {
+        return exportPrefixCapacity;
+    }
+    
+    public void setExportPrefixCapacity(int exportPrefixCapacity) {
+        this.exportPrefixCapacity = exportPrefixCapacity;
+    }
+    
+    public String getExportPrefixFormat() {
+        return exportPrefixFormat;
+    }
+    
+    public void setExportPrefixFormat(String exportPrefixFormat) {
+        this.exportPrefixFormat = exportPrefixFormat;
+    }
+    
+    public int getExportThreads() {
+        return exportThreads;
+    }
+    
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = exportThreads;
+    }
+    
+    public Compression getCompress() {
+        return compress;
+    }
+    
+    public void setCompress(Compression compress) {
+        this.compress = compress;
+    }
+    
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+    
+    public void setCompressLevel(int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+    
+    public int getCompressThreads() {
+        return compressThreads;
+    }
+    
+    public void setCompressThreads(int compressThreads) {
+        this.compressThreads = compressThreads;
+    }
+    
+    public int getCompressBlockSize() {
+        return compressBlockSize;
+    }
+    
+    public void setCompressBlockSize(int compressBlockSize) {
+        this.compressBlockSize = compressBlockSize;
+    }
 
     public int getTimeout() {
         return timeout;
@@ -363,6 +633,150 @@ public class Configure {
     public void setMigrateFlush(boolean migrateFlush) {
         this.migrateFlush = migrateFlush;
     }
+    
+    public int getMigrateWindowBytes() {
+        return migrateWindowBytes;
+    }
+    
+    public void setMigrateWindowBytes(int migrateWindowBytes) {
+        this.migrateWindowBytes = migrateWindowBytes;
+    }
+    
+    public boolean isMigrateNio() {
+        return migrateNio;
+    }
+    
+    public void setMigrateNio(boolean migrateNio) {
+        this.migrateNio = migrateNio;
+    }
+    
+    public int getMigrateNioThreads() {
+        return migrateNioThreads;
+    }
+    
+    public void setMigrateNioThreads(int migrateNioThreads) {
+        this.migrateNioThreads = migrateNioThreads;
+    }
+    
+    public boolean isMigrateAdaptive() {
+        return migrateAdaptive;
+    }
+    
+    public void setMigrateAdaptive(boolean migrateAdaptive) {
+        this.migrateAdaptive = migrateAdaptive;
+    }
+    
+    public int getMigrateBatchSizeMin() {
+        return migrateBatchSizeMin;
+    }
+    
+    public void setMigrateBatchSizeMin(int migrateBatchSizeMin) {
+        this.migrateBatchSizeMin = migrateBatchSizeMin;
+    }
+    
+    public int getMigrateBatchSizeMax() {
+        return migrateBatchSizeMax;
+    }
+    
+    public void setMigrateBatchSizeMax(int migrateBatchSizeMax) {
+        this.migrateBatchSizeMax = migrateBatchSizeMax;
+    }
+    
+    public int getMigrateLatencyTarget() {
+        return migrateLatencyTarget;
+    }
+    
+    public void setMigrateLatencyTarget(int migrateLatencyTarget) {
+        this.migrateLatencyTarget = migrateLatencyTarget;
+    }
+    
+    public int getMigrateRateOps() {
+        return migrateRateOps;
+    }
+    
+    public void setMigrateRateOps(int migrateRateOps) {
+        this.migrateRateOps = migrateRateOps;
+    }
+    
+    public int getMigrateRateBytes() {
+        return migrateRateBytes;
+    }
+    
+    public void setMigrateRateBytes(int migrateRateBytes) {
+        this.migrateRateBytes = migrateRateBytes;
+    }
+    
+    public int getMigrateNodeRateOps() {
+        return migrateNodeRateOps;
+    }
+    
+    public void setMigrateNodeRateOps(int migrateNodeRateOps) {
+        this.migrateNodeRateOps = migrateNodeRateOps;
+    }
+    
+    public int getMigrateNodeRateBytes() {
+        return migrateNodeRateBytes;
+    }
+    
+    public void setMigrateNodeRateBytes(int migrateNodeRateBytes) {
+        this.migrateNodeRateBytes = migrateNodeRateBytes;
+    }
+    
+    public String getMigrateRateFile() {
+        return migrateRateFile;
+    }
+    
+    public void setMigrateRateFile(String migrateRateFile) {
+        this.migrateRateFile = migrateRateFile;
+    }
+    
+    public String getMigrateCheckpointFile() {
+        return migrateCheckpointFile;
+    }
+    
+    public void setMigrateCheckpointFile(String migrateCheckpointFile) {
+        this.migrateCheckpointFile = migrateCheckpointFile;
+    }
+    
+    public int getMigrateCheckpointInterval() {
+        return migrateCheckpointInterval;
+    }
+    
+    public void setMigrateCheckpointInterval(int migrateCheckpointInterval) {
+        this.migrateCheckpointInterval = migrateCheckpointInterval;
+    }
+    
+    public boolean isMigrateAbsttl() {
+        return migrateAbsttl;
+    }
+    
+    public void setMigrateAbsttl(boolean migrateAbsttl) {
+        this.migrateAbsttl = migrateAbsttl;
+    }
+    
+    public int getMigrateBigKeySize() {
+        return migrateBigKeySize;
+    }
+    
+    public void setMigrateBigKeySize(int migrateBigKeySize) {
+        this.migrateBigKeySize = migrateBigKeySize;
+    }
+    
+    public int getMigrateBigKeyElements() {
+        return migrateBigKeyElements;
+    }
+    
+    public void setMigrateBigKeyElements(int migrateBigKeyElements) {
+        this.migrateBigKeyElements = migrateBigKeyElements;
+    }
+    
+    public int getMigrateBigKeyBatchSize() {
+        return migrateBigKeyBatchSize;
+    }
+    
+    public void setMigrateBigKeyBatchSize(int migrateBigKeyBatchSize) {
+        this.migrateBigKeyBatchSize = migrateBigKeyBatchSize;
+    }
 
     public int getRetryInterval() {
         return retryInterval;
@@ -380,6 +794,22 @@ public class Configure {
         this.inputBufferSize = inputBufferSize;
     }
     
+    public int getInputMmapSize() {
+        return inputMmapSize;
+    }
+    
+    public void setInputMmapSize(int inputMmapSize) {
+        this.inputMmapSize = inputMmapSize;
+    }
+    
+    public int getDecompressThreads() {
+        return decompressThreads;
+    }
+    
+    public void setDecompressThreads(int decompressThreads) {
+        this.decompressThreads = decompressThreads;
+    }
+    
     public int getOutputBufferSize() {
         return outputBufferSize;
     }
@@ -627,17 +1057,50 @@ public class Configure {
         conf.migrateThreads = getInt(conf, "migrate_threads", 4, true);
         conf.migrateRetries = getInt(conf, "migrate_retries", 1, true);
         conf.migrateFlush = getBool(conf, "migrate_flush", true, true);
+        conf.migrateWindowBytes = getInt(conf, "migrate_window_bytes", 64 * 1024 * 1024, true);
+        conf.migrateNio = getBool(conf, "migrate_nio", true, true);
+        conf.migrateNioThreads = getInt(conf, "migrate_nio_threads", 0, true);
+        conf.migrateAdaptive = getBool(conf, "migrate_adaptive", false, true);
+        conf.migrateBatchSizeMin = getInt(conf, "migrate_batch_size_min", 16, true);
+        conf.migrateBatchSizeMax = getInt(conf, "migrate_batch_size_max", 65536, true);
+        conf.migrateLatencyTarget = getInt(conf, "migrate_latency_target", 50, true);
+        conf.migrateRateOps = getInt(conf, "migrate_rate_ops", 0, true);
+        conf.migrateRateBytes = getInt(conf, "migrate_rate_bytes", 0, true);
+        conf.migrateNodeRateOps = getInt(conf, "migrate_node_rate_ops", 0, true);
+        conf.migrateNodeRateBytes = getInt(conf, "migrate_node_rate_bytes", 0, true);
+        conf.migrateRateFile = getString(conf, "migrate_rate_file", null, true);
+        conf.migrateCheckpointFile = getString(conf, "migrate_checkpoint_file", null, true);
+        conf.migrateCheckpointInterval = getInt(conf, "migrate_checkpoint_interval", 30, true);
+        conf.migrateAbsttl = getBool(conf, "migrate_absttl", false, true);
+        conf.migrateBigKeySize = getInt(conf, "migrate_big_key_size", 64 * 1024 * 1024, true);
+        conf.migrateBigKeyElements = getInt(conf, "migrate_big_key_elements", 1024 * 1024, true);
+        conf.migrateBigKeyBatchSize = getInt(conf, "migrate_big_key_batch_size", 1024 * 1024, true);
         conf.dumpRdbVersion = getInt(conf, "dump_rdb_version", -1, true);
         conf.quote = (byte) getString(conf, "quote", "\"", true).charAt(0);
         conf.delimiter = (byte) getString(conf, "delimiter", ",", true).charAt(0);
         conf.exportMeta = getBool(conf, "export_meta", true, true);
         conf.exportUnit = getBool(conf, "export_unit", true, true);
+        conf.exportMemMetadata = getBool(conf, "export_mem_metadata", true, true);
+        conf.exportMemSummary = getBool(conf, "export_mem_summary", false, true);
+        conf.exportSortBufferSize = getInt(conf, "export_sort_buffer_size", 67108864, true);
+        conf.exportHllPrecision = getInt(conf, "export_hll_precision", 12, true);
+        conf.exportHllCapacity = getInt(conf, "export_hll_capacity", 4096, true);
+        conf.exportPrefixDelimiter = (byte) getString(conf, "export_prefix_delimiter", ":", true).charAt(0);
+        conf.exportPrefixCapacity = getInt(conf, "export_prefix_capacity", 100000, true);
+        conf.exportPrefixFormat = getString(conf, "export_prefix_format", "csv", true);
+        conf.exportThreads = getInt(conf, "export_threads", 1, true);
+        conf.compress = Compression.parse(getString(conf, "compress", "none", true));
+        conf.compressLevel = getInt(conf, "compress_level", -1, true);
+        conf.compressThreads = getInt(conf, "compress_threads", 4, true);
+        conf.compressBlockSize = getInt(conf, "compress_block_size", 1024 * 1024, true);
         conf.retries = getInt(conf, "retries", 5, true);
         conf.retryInterval = getInt(conf, "retry_interval", 1000, true);
         conf.timeout = getInt(conf, "timeout", 60000, true);
         conf.sndBuf = getInt(conf, "snd_buf", 0, true);
         conf.rcvBuf = getInt(conf, "rcv_buf", 0, true);
         conf.inputBufferSize = getInt(conf, "input_buffer_size", 8 * 1024, true);
+        conf.inputMmapSize = getInt(conf, "input_mmap_size", 256 * 1024 * 1024, true);
+        conf.decompressThreads = getInt(conf, "decompress_threads", 4, true);
         conf.outputBufferSize = getInt(conf, "output_buffer_size", 8 * 1024, true);
         conf.maxOutputBufferSize = getInt(conf, "max_output_buffer_size", 512 * 1024 * 1024, true);
         conf.tempFilePath = getString(conf, "temp_file_path", null, true);
@@ -843,16 +1306,49 @@ public class Configure {
                 ", delimiter=" + delimiter +
                 ", exportMeta=" + exportMeta +
                 ", exportUnit=" + exportUnit +
+                ", exportMemMetadata=" + exportMemMetadata +
+                ", exportMemSummary=" + exportMemSummary +
+                ", exportSortBufferSize=" + exportSortBufferSize +
+                ", exportHllPrecision=" + exportHllPrecision +
+                ", exportHllCapacity=" + exportHllCapacity +
+                ", exportPrefixDelimiter=" + exportPrefixDelimiter +
+                ", exportPrefixCapacity=" + exportPrefixCapacity +
+                ", exportPrefixFormat='" + exportPrefixFormat + '\'' +
+                ", exportThreads=" + exportThreads +
+                ", compress=" + compress +
+                ", compressLevel=" + compressLevel +
+                ", compressThreads=" + compressThreads +
+                ", compressBlockSize=" + compressBlockSize +
                 ", migrateBatchSize=" + migrateBatchSize +
                 ", migrateThreads=" + migrateThreads +
                 ", migrateRetries=" + migrateRetries +
                 ", migrateFlush=" + migrateFlush +
+                ", migrateWindowBytes=" + migrateWindowBytes +
+                ", migrateNio=" + migrateNio +
+                ", migrateNioThreads=" + migrateNioThreads +
+                ", migrateAdaptive=" + migrateAdaptive +
+                ", migrateBatchSizeMin=" + migrateBatchSizeMin +
+                ", migrateBatchSizeMax=" + migrateBatchSizeMax +
+                ", migrateLatencyTarget=" + migrateLatencyTarget +
+                ", migrateRateOps=" + migrateRateOps +
+                ", migrateRateBytes=" + migrateRateBytes +
+                ", migrateNodeRateOps=" + migrateNodeRateOps +
+                ", migrateNodeRateBytes=" + migrateNodeRateBytes +
+                ", migrateRateFile='" + migrateRateFile + '\'' +
+                ", migrateCheckpointFile='" + migrateCheckpointFile + '\'' +
+                ", migrateCheckpointInterval=" + migrateCheckpointInterval +
+                ", migrateAbsttl=" + migrateAbsttl +
+                ", migrateBigKeySize=" + migrateBigKeySize +
+                ", migrateBigKeyElements=" + migrateBigKeyElements +
+                ", migrateBigKeyBatchSize=" + migrateBigKeyBatchSize +
                 ", timeout=" + timeout +
                 ", rcvBuf=" + rcvBuf +
                 ", sndBuf=" + sndBuf +
                 ", retries=" + retries +
                 ", retryInterval=" + retryInterval +
                 ", inputBufferSize=" + inputBufferSize +
+                ", inputMmapSize=" + inputMmapSize +
+                ", decompressThreads=" + decompressThreads +
                 ", outputBufferSize=" + outputBufferSize +
                 ", maxOutputBufferSize=" + maxOutputBufferSize +
                 ", tempFilePath='" + tempFilePath + '\'' +
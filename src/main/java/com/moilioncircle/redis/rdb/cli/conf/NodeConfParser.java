@@ -112,10 +112,9 @@ public class NodeConfParser<T> {
                     int st, ed;
                     String arg = args.get(i);
                     if (arg.startsWith("[")) {
-                        int idx = arg.indexOf("-");
-                        arg.substring(1, idx); // slot
-                        arg.substring(idx + 3, idx + 3 + 40); // migrate
-                        throw new UnsupportedOperationException("must not contains migrating slot.");
+                        // [slot->-id] migrating or [slot-<-id] importing, the slot still belongs
+                        // to its owner listed in the slot ranges, keys already moved reply ASK.
+                        continue;
                     } else if (arg.contains("-")) {
                         int idx = arg.indexOf("-");
                         st = parseInt(arg.substring(0, idx));
@@ -16,108 +16,202 @@
 
 package com.moilioncircle.redis.rdb.cli.ext;
 
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ABSTTL;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.REPLACE;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ZERO;
+import static com.moilioncircle.redis.rdb.cli.util.ByteBuffers.wrap;
 import static com.moilioncircle.redis.replicator.Constants.RDB_LOAD_NONE;
 import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST;
 import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.moilioncircle.redis.rdb.cli.api.format.escape.Escaper;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DumpKeyValuePairEx;
 import com.moilioncircle.redis.rdb.cli.ext.escape.RawEscaper;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
+import com.moilioncircle.redis.rdb.cli.io.LayeredOutputStream;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorManager;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
 import com.moilioncircle.redis.replicator.Replicator;
 import com.moilioncircle.redis.replicator.event.Event;
+import com.moilioncircle.redis.replicator.event.EventListener;
 import com.moilioncircle.redis.replicator.io.RedisInputStream;
 import com.moilioncircle.redis.replicator.rdb.BaseRdbEncoder;
 import com.moilioncircle.redis.replicator.rdb.BaseRdbParser;
 import com.moilioncircle.redis.replicator.rdb.datatype.ContextKeyValuePair;
-import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
+import com.moilioncircle.redis.replicator.rdb.datatype.ExpiredType;
 import com.moilioncircle.redis.replicator.util.ByteArray;
+import com.moilioncircle.redis.replicator.util.Strings;
 
 /**
  * @author Baoyi Chen
  */
 public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
 
+    private static final Logger logger = LoggerFactory.getLogger(AbstractMigrateRdbVisitor.class);
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+
     protected final boolean flush;
+    protected boolean absttl;
     protected final boolean replace;
     protected MonitorManager manager;
     protected Escaper raw = new RawEscaper();
+    protected final BigKeySplitter splitter;
+    
+    // checkpoint, only in rmt
+    private long offset;
+    private long sequence;
+    private byte[] last;
+    protected Checkpoint checkpoint;
+    protected EventListener dispatcher;
 
     public AbstractMigrateRdbVisitor(Replicator replicator, Configure configure, List<Long> db, List<String> regexs, List<DataType> types, boolean replace) {
         super(replicator, configure, db, regexs, types);
         this.replace = replace;
         this.flush = configure.isMigrateFlush();
+        this.absttl = configure.isMigrateAbsttl();
+        this.splitter = new BigKeySplitter(configure);
         this.manager = new MonitorManager(configure);
         this.manager.open("endpoint_statistics");
     }
     
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        if (checkpoint != null) replicator.addRawByteListener(bytes -> offset += bytes.length);
+    }
+    
+    @Override
+    protected boolean contains(long db, int type, byte[] key) {
+        if (checkpoint == null) return super.contains(db, type, key);
+        sequence++;
+        CheckpointEvent event = checkpoint.next(sequence - 1, offset, last);
+        if (event != null) dispatcher.onEvent(replicator, event);
+        last = key;
+        if (sequence <= checkpoint.getSkip()) {
+            // already migrated by previous run
+            monitor.add("checkpoint_skipped_keys", 1);
+            return false;
+        }
+        return super.contains(db, type, key);
+    }
+    
+    @Override
+    protected boolean contains(ContextKeyValuePair context, int type, byte[] key) {
+        if (!super.contains(context, type, key)) return false;
+        ExpiredType expiry = context.getExpiredType();
+        if (expiry == null || expiry == ExpiredType.NONE) return true;
+        long ms = expiry == ExpiredType.SECOND ? context.getExpiredValue() * 1000 : context.getExpiredValue();
+        if (ms > System.currentTimeMillis()) return true;
+        // already expired, skip the value without decoding and dumping it.
+        monitor.add("failure_expired", 1);
+        if (logger.isDebugEnabled()) logger.debug("failure[expired] [{}]", Strings.toString(key));
+        return false;
+    }
+    
+    /**
+     * @return the ttl argument of RESTORE, null if the key is already expired.
+     */
+    protected byte[] ttl(DumpKeyValuePairEx dkv) {
+        Long expired = dkv.getExpiredMs();
+        if (absttl) {
+            // expired keys are filtered before decoding, no need to check the clock again.
+            return expired != null ? String.valueOf(expired).getBytes() : ZERO;
+        }
+        if (expired == null) return ZERO;
+        long ms = expired - System.currentTimeMillis();
+        if (ms <= 0) return null;
+        return String.valueOf(ms).getBytes();
+    }
+    
+    /**
+     * @return the arguments of RESTORE key ttl payload [REPLACE] [ABSTTL]
+     */
+    protected ByteBuffers[] restore(DumpKeyValuePairEx dkv, byte[] ttl, boolean replace) {
+        int n = 3;
+        if (replace) n++;
+        if (absttl) n++;
+        ByteBuffers[] args = new ByteBuffers[n];
+        args[0] = wrap(dkv.getKey());
+        args[1] = wrap(ttl);
+        args[2] = dkv.getBuffers();
+        if (replace) args[3] = wrap(REPLACE);
+        if (absttl) args[n - 1] = wrap(ABSTTL);
+        return args;
+    }
+    
+    protected DumpKeyValuePairEx dump(byte[] key, int type, LayeredOutputStream out) {
+        DumpKeyValuePairEx dump = new DumpKeyValuePairEx();
+        dump.setValueRdbType(type);
+        dump.setKey(key);
+        dump.setBuffers(out.toByteBuffers());
+        // payload is copied once into pooled chunks and never flattened to byte[]
+        monitor.add("dump_keys", 1);
+        monitor.add("dump_copied_bytes", out.size());
+        monitor.add("dump_copied_bytes_before", copied(out.size(), configure.getOutputBufferSize()));
+        return dump;
+    }
+    
+    /**
+     * the bytes the former ByteArrayOutputStream + toByteArray path copied for the same payload.
+     * the payload is written once, the buffer doubles from output_buffer_size and copies its content
+     * on every growth, and toByteArray copies the payload again.
+     */
+    static long copied(long size, int init) {
+        long r = size * 2;
+        for (long capacity = Math.max(1, init); capacity < size; capacity <<= 1) r += capacity;
+        return r;
+    }
+    
     @Override
     protected Event doApplyString(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyString(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyString(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyList(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyList(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplySet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplySet(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplySet(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyZSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyZSet(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyZSet(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
@@ -128,7 +222,7 @@ public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
             BaseRdbParser parser = new BaseRdbParser(in);
             BaseRdbEncoder encoder = new BaseRdbEncoder();
     
-            try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
+            try (LayeredOutputStream o = new LayeredOutputStream(configure)) {
                 long len = parser.rdbLoadLen().len;
                 long temp = len;
                 while (len > 0) {
@@ -138,31 +232,21 @@ public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
                     encoder.rdbSaveDoubleValue(score, o);
                     len--;
                 }
-                ByteArrayOutputStream o1 = new ByteArrayOutputStream(configure.getOutputBufferSize());
+                LayeredOutputStream o1 = new LayeredOutputStream(configure);
                 try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o1, raw, false)) {
                     listener.write((byte) RDB_TYPE_ZSET);
                     listener.handle(encoder.rdbSaveLen(temp));
-                    listener.handle(o.toByteArray());
+                    listener.handle(o.toByteBuffers());
                 }
-        
-                DumpKeyValuePair dump = new DumpKeyValuePair();
-                dump.setValueRdbType(RDB_TYPE_ZSET);
-                dump.setKey(key);
-                dump.setValue(o1.toByteArray());
-                return context.valueOf(dump);
+                return context.valueOf(dump(key, RDB_TYPE_ZSET, o1));
             }
         } else {
-            try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-                try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                    listener.write((byte) type);
-                    super.doApplyZSet2(in, version, key, contains, type, context);
-                }
-                DumpKeyValuePair dump = new DumpKeyValuePair();
-                dump.setValueRdbType(type);
-                dump.setKey(key);
-                dump.setValue(o.toByteArray());
-                return context.valueOf(dump);
+            LayeredOutputStream o = new LayeredOutputStream(configure);
+            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+                listener.write((byte) type);
+                super.doApplyZSet2(in, version, key, contains, type, context);
             }
+            return context.valueOf(dump(key, type, o));
         }
         
     }
@@ -170,97 +254,67 @@ public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
     @Override
     protected Event doApplyHash(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyHash(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyHash(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyHashZipMap(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyHashZipMap(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyHashZipMap(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyListZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyListZipList(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyListZipList(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplySetIntSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplySetIntSet(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplySetIntSet(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyZSetZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyZSetZipList(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyZSetZipList(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyHashZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyHashZipList(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyHashZipList(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
@@ -271,7 +325,7 @@ public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
             BaseRdbParser parser = new BaseRdbParser(in);
             BaseRdbEncoder encoder = new BaseRdbEncoder();
             
-            try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
+            try (LayeredOutputStream o = new LayeredOutputStream(configure)) {
                 int total = 0;
                 long len = parser.rdbLoadLen().len;
                 for (long i = 0; i < len; i++) {
@@ -290,78 +344,54 @@ public abstract class AbstractMigrateRdbVisitor extends AbstractRdbVisitor {
                         throw new AssertionError("zlend expect 255 but " + zlend);
                     }
                 }
-                ByteArrayOutputStream o1 = new ByteArrayOutputStream(configure.getOutputBufferSize());
+                LayeredOutputStream o1 = new LayeredOutputStream(configure);
                 try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o1, raw, false)) {
                     listener.write((byte) RDB_TYPE_LIST);
                     listener.handle(encoder.rdbSaveLen(total));
-                    listener.handle(o.toByteArray());
+                    listener.handle(o.toByteBuffers());
                 }
-                DumpKeyValuePair dump = new DumpKeyValuePair();
-                dump.setValueRdbType(RDB_TYPE_LIST);
-                dump.setKey(key);
-                dump.setValue(o1.toByteArray());
-                return context.valueOf(dump);
+                return context.valueOf(dump(key, RDB_TYPE_LIST, o1));
             }
         } else {
-            try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-                try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                    listener.write((byte) type);
-                    super.doApplyListQuickList(in, version, key, contains, type, context);
-                }
-                DumpKeyValuePair dump = new DumpKeyValuePair();
-                dump.setValueRdbType(type);
-                dump.setKey(key);
-                dump.setValue(o.toByteArray());
-                return context.valueOf(dump);
+            LayeredOutputStream o = new LayeredOutputStream(configure);
+            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+                listener.write((byte) type);
+                super.doApplyListQuickList(in, version, key, contains, type, context);
             }
+            return context.valueOf(dump(key, type, o));
         }
     }
 
     @Override
     protected Event doApplyModule(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyModule(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyModule(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyModule2(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyModule2(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyModule2(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 
     @Override
     protected Event doApplyStreamListPacks(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         int ver = configure.getDumpRdbVersion() == -1 ? version : configure.getDumpRdbVersion();
-        try (ByteArrayOutputStream o = new ByteArrayOutputStream(configure.getOutputBufferSize())) {
-            try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
-                listener.write((byte) type);
-                super.doApplyStreamListPacks(in, version, key, contains, type, context);
-            }
-            DumpKeyValuePair dump = new DumpKeyValuePair();
-            dump.setValueRdbType(type);
-            dump.setKey(key);
-            dump.setValue(o.toByteArray());
-            return context.valueOf(dump);
+        LayeredOutputStream o = new LayeredOutputStream(configure);
+        try (DumpRawByteListener listener = new DumpRawByteListener(replicator, ver, o, raw)) {
+            listener.write((byte) type);
+            super.doApplyStreamListPacks(in, version, key, contains, type, context);
         }
+        return context.valueOf(dump(key, type, o));
     }
 }
@@ -16,6 +16,7 @@
 
 package com.moilioncircle.redis.rdb.cli.ext;
 
+import static com.moilioncircle.redis.rdb.cli.conf.NodeConfParser.slot;
 import static com.moilioncircle.redis.rdb.cli.glossary.Guard.DRAIN;
 import static com.moilioncircle.redis.rdb.cli.glossary.Guard.PASS;
 import static com.moilioncircle.redis.rdb.cli.glossary.Guard.SAVE;
@@ -37,23 +38,24 @@ import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET;
 import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_2;
 import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_ZIPLIST;
 import static com.moilioncircle.redis.replicator.Constants.STAR;
-import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
 
 import com.moilioncircle.redis.rdb.cli.api.format.escape.Escaper;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.ext.datatype.DummyKeyValuePair;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
+import com.moilioncircle.redis.rdb.cli.util.KeyMatcher;
+import com.moilioncircle.redis.rdb.cli.util.KeySet;
 import com.moilioncircle.redis.rdb.cli.util.OutputStreams;
 import com.moilioncircle.redis.replicator.Replicator;
 import com.moilioncircle.redis.replicator.event.Event;
@@ -65,7 +67,6 @@ import com.moilioncircle.redis.replicator.rdb.datatype.ContextKeyValuePair;
 import com.moilioncircle.redis.replicator.rdb.datatype.Module;
 import com.moilioncircle.redis.replicator.rdb.module.ModuleParser;
 import com.moilioncircle.redis.replicator.rdb.skip.SkipRdbParser;
-import com.moilioncircle.redis.replicator.util.Strings;
 
 /**
  * @author Baoyi Chen
@@ -74,10 +75,11 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
     
     // common
     protected Set<Long> db;
-    protected Set<String> keys;
+    protected BitSet slots;
     protected Configure configure;
     protected List<DataType> types;
-    protected List<Pattern> regexs;
+    protected KeySet keyset;
+    protected KeyMatcher matcher;
     //rct
     protected Escaper escaper;
     protected OutputStream out;
@@ -92,8 +94,7 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         this.types = types;
         this.configure = configure;
         this.db = new HashSet<>(db);
-        this.keys = new HashSet<>(regexs);
-        this.regexs = regexs.stream().map(Pattern::compile).collect(toList());
+        this.matcher = KeyMatcher.compile(regexs);
     }
 
     /**
@@ -105,7 +106,7 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         replicator.addEventListener((rep, event) -> {
             if (event instanceof PreRdbSyncEvent) {
                 OutputStreams.closeQuietly(this.out);
-                this.out = OutputStreams.newBufferedOutputStream(output, configure.getOutputBufferSize());
+                this.out = OutputStreams.newBufferedOutputStream(output, configure);
             }
         });
         replicator.addCloseListener(rep -> OutputStreams.closeQuietly(out));
@@ -120,6 +121,20 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         this.replicator.addRawByteListener(listener);
     }
 
+    /**
+     * keys listed in --key-file, a key is contained if it is in the set or matches --key.
+     */
+    public void setKeySet(KeySet keyset) {
+        this.keyset = keyset;
+    }
+
+    /**
+     * slots of --slots, null if all slots are contained.
+     */
+    public void setSlots(BitSet slots) {
+        this.slots = slots;
+    }
+
     protected boolean containsType(int type) {
         return DataType.contains(types, type);
     }
@@ -128,16 +143,24 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         return this.db.isEmpty() || this.db.contains(db);
     }
 
-    protected boolean containsKey(String key) {
-        if (keys.isEmpty() || keys.contains(key)) return true;
-        for (Pattern pattern : regexs) {
-            if (pattern.matcher(key).matches()) return true;
-        }
-        return false;
+    protected boolean containsKey(byte[] key) {
+        if (keyset == null) return matcher.matches(key);
+        return keyset.contains(key) || (!matcher.isEmpty() && matcher.matches(key));
+    }
+
+    protected boolean containsSlot(byte[] key) {
+        return slots == null || slots.get(slot(key));
     }
 
-    protected boolean contains(long db, int type, String key) {
-        return containsDB(db) && containsType(type) && containsKey(key);
+    protected boolean contains(long db, int type, byte[] key) {
+        return containsDB(db) && containsType(type) && containsSlot(key) && containsKey(key);
+    }
+
+    /**
+     * called before the value is decoded, a key that is not contained is skipped at the byte level.
+     */
+    protected boolean contains(ContextKeyValuePair context, int type, byte[] key) {
+        return contains(context.getDb().getDbNumber(), type, key);
     }
 
     protected void delimiter(OutputStream out) {
@@ -239,14 +262,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_STRING, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_STRING, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyString(in, version, key, contains, RDB_TYPE_STRING, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadEncodedStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_STRING);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -259,18 +281,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_LIST, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_LIST, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyList(in, version, key, contains, RDB_TYPE_LIST, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                while (len > 0) {
-                    skip.rdbLoadEncodedStringObject();
-                    len--;
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_LIST);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -283,18 +300,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_SET, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_SET, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplySet(in, version, key, contains, RDB_TYPE_SET, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                while (len > 0) {
-                    skip.rdbLoadEncodedStringObject();
-                    len--;
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_SET);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -307,19 +319,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_ZSET, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_ZSET, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyZSet(in, version, key, contains, RDB_TYPE_ZSET, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                while (len > 0) {
-                    skip.rdbLoadEncodedStringObject();
-                    skip.rdbLoadDoubleValue();
-                    len--;
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_ZSET);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -332,19 +338,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_ZSET_2, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_ZSET_2, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyZSet2(in, version, key, contains, RDB_TYPE_ZSET_2, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                while (len > 0) {
-                    skip.rdbLoadEncodedStringObject();
-                    skip.rdbLoadBinaryDoubleValue();
-                    len--;
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_ZSET_2);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -357,19 +357,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_HASH, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_HASH, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyHash(in, version, key, contains, RDB_TYPE_HASH, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                while (len > 0) {
-                    skip.rdbLoadEncodedStringObject();
-                    skip.rdbLoadEncodedStringObject();
-                    len--;
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_HASH);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -382,14 +376,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_HASH_ZIPMAP, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_HASH_ZIPMAP, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyHashZipMap(in, version, key, contains, RDB_TYPE_HASH_ZIPMAP, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadPlainStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_HASH_ZIPMAP);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -402,14 +395,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_LIST_ZIPLIST, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_LIST_ZIPLIST, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyListZipList(in, version, key, contains, RDB_TYPE_LIST_ZIPLIST, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadPlainStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_LIST_ZIPLIST);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -422,14 +414,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_SET_INTSET, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_SET_INTSET, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplySetIntSet(in, version, key, contains, RDB_TYPE_SET_INTSET, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadPlainStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_SET_INTSET);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -442,14 +433,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_ZSET_ZIPLIST, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_ZSET_ZIPLIST, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyZSetZipList(in, version, key, contains, RDB_TYPE_ZSET_ZIPLIST, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadPlainStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_ZSET_ZIPLIST);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -462,14 +452,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_HASH_ZIPLIST, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_HASH_ZIPLIST, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyHashZipList(in, version, key, contains, RDB_TYPE_HASH_ZIPLIST, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                skip.rdbLoadPlainStringObject();
+                new ValueSkipper(in).skip(RDB_TYPE_HASH_ZIPLIST);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -482,17 +471,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_LIST_QUICKLIST, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_LIST_QUICKLIST, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyListQuickList(in, version, key, contains, RDB_TYPE_LIST_QUICKLIST, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long len = skip.rdbLoadLen().len;
-                for (long i = 0; i < len; i++) {
-                    skip.rdbGenericLoadStringObject();
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_LIST_QUICKLIST);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -505,7 +490,7 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_MODULE, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_MODULE, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyModule(in, version, key, contains, RDB_TYPE_MODULE, context);
@@ -536,7 +521,7 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_MODULE_2, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_MODULE_2, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyModule2(in, version, key, contains, RDB_TYPE_MODULE_2, context);
@@ -558,42 +543,13 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
         try {
             BaseRdbParser parser = new BaseRdbParser(in);
             byte[] key = parser.rdbLoadEncodedStringObject().first();
-            boolean contains = contains(context.getDb().getDbNumber(), RDB_TYPE_STREAM_LISTPACKS, Strings.toString(key));
+            boolean contains = contains(context, RDB_TYPE_STREAM_LISTPACKS, key);
             if (contains) {
                 if (listener != null) listener.setGuard(DRAIN);
                 return doApplyStreamListPacks(in, version, key, contains, RDB_TYPE_STREAM_LISTPACKS, context);
             } else {
                 if (listener != null) listener.setGuard(PASS);
-                SkipRdbParser skip = new SkipRdbParser(in);
-                long listPacks = skip.rdbLoadLen().len;
-                while (listPacks-- > 0) {
-                    skip.rdbLoadPlainStringObject();
-                    skip.rdbLoadPlainStringObject();
-                }
-                skip.rdbLoadLen();
-                skip.rdbLoadLen();
-                skip.rdbLoadLen();
-                long groupCount = skip.rdbLoadLen().len;
-                while (groupCount-- > 0) {
-                    skip.rdbLoadPlainStringObject();
-                    skip.rdbLoadLen();
-                    skip.rdbLoadLen();
-                    long groupPel = skip.rdbLoadLen().len;
-                    while (groupPel-- > 0) {
-                        in.skip(16);
-                        skip.rdbLoadMillisecondTime();
-                        skip.rdbLoadLen();
-                    }
-                    long consumerCount = skip.rdbLoadLen().len;
-                    while (consumerCount-- > 0) {
-                        skip.rdbLoadPlainStringObject();
-                        skip.rdbLoadMillisecondTime();
-                        long consumerPel = skip.rdbLoadLen().len;
-                        while (consumerPel-- > 0) {
-                            in.skip(16);
-                        }
-                    }
-                }
+                new ValueSkipper(in).skip(RDB_TYPE_STREAM_LISTPACKS);
                 return context.valueOf(new DummyKeyValuePair());
             }
         } finally {
@@ -602,94 +558,62 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
     }
 
     protected Event doApplyString(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadEncodedStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_STRING);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        while (len > 0) {
-            skipParser.rdbLoadEncodedStringObject();
-            len--;
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_LIST);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplySet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        while (len > 0) {
-            skipParser.rdbLoadEncodedStringObject();
-            len--;
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_SET);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyZSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        while (len > 0) {
-            skipParser.rdbLoadEncodedStringObject();
-            skipParser.rdbLoadDoubleValue();
-            len--;
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_ZSET);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyZSet2(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        while (len > 0) {
-            skipParser.rdbLoadEncodedStringObject();
-            skipParser.rdbLoadBinaryDoubleValue();
-            len--;
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_ZSET_2);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyHash(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        while (len > 0) {
-            skipParser.rdbLoadEncodedStringObject();
-            skipParser.rdbLoadEncodedStringObject();
-            len--;
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_HASH);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyHashZipMap(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadPlainStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_HASH_ZIPMAP);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyListZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadPlainStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_LIST_ZIPLIST);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplySetIntSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadPlainStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_SET_INTSET);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyZSetZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadPlainStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_ZSET_ZIPLIST);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyHashZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        new SkipRdbParser(in).rdbLoadPlainStringObject();
+        new ValueSkipper(in).skip(RDB_TYPE_HASH_ZIPLIST);
         return context.valueOf(new DummyKeyValuePair());
     }
 
     protected Event doApplyListQuickList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long len = skipParser.rdbLoadLen().len;
-        for (long i = 0; i < len; i++) {
-            skipParser.rdbGenericLoadStringObject();
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_LIST_QUICKLIST);
         return context.valueOf(new DummyKeyValuePair());
     }
 
@@ -717,36 +641,7 @@ public abstract class AbstractRdbVisitor extends DefaultRdbVisitor {
     }
 
     protected Event doApplyStreamListPacks(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
-        SkipRdbParser skipParser = new SkipRdbParser(in);
-        long listPacks = skipParser.rdbLoadLen().len;
-        while (listPacks-- > 0) {
-            skipParser.rdbLoadPlainStringObject();
-            skipParser.rdbLoadPlainStringObject();
-        }
-        skipParser.rdbLoadLen();
-        skipParser.rdbLoadLen();
-        skipParser.rdbLoadLen();
-        long groupCount = skipParser.rdbLoadLen().len;
-        while (groupCount-- > 0) {
-            skipParser.rdbLoadPlainStringObject();
-            skipParser.rdbLoadLen();
-            skipParser.rdbLoadLen();
-            long groupPel = skipParser.rdbLoadLen().len;
-            while (groupPel-- > 0) {
-                in.skip(16);
-                skipParser.rdbLoadMillisecondTime();
-                skipParser.rdbLoadLen();
-            }
-            long consumerCount = skipParser.rdbLoadLen().len;
-            while (consumerCount-- > 0) {
-                skipParser.rdbLoadPlainStringObject();
-                skipParser.rdbLoadMillisecondTime();
-                long consumerPel = skipParser.rdbLoadLen().len;
-                while (consumerPel-- > 0) {
-                    in.skip(16);
-                }
-            }
-        }
+        new ValueSkipper(in).skip(RDB_TYPE_STREAM_LISTPACKS);
         return context.valueOf(new DummyKeyValuePair());
     }
 }
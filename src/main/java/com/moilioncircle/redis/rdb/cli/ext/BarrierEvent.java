@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import com.moilioncircle.redis.replicator.event.Event;
+
+/**
+ * Broadcast to all sync workers, the worker flushes its endpoints before it is acknowledged,
+ * so the commands dispatched before the barrier are replied by the target.
+ *
+ * @author Baoyi Chen
+ */
+public class BarrierEvent implements Event {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public static final BarrierEvent INSTANCE = new BarrierEvent();
+    
+    private BarrierEvent() {
+    }
+}
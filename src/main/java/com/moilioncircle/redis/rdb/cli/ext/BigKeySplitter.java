@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.DEL;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.EVAL;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.HMSET;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ONE;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.PEXPIREAT;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.RPUSH;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.SADD;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ZADD;
+import static com.moilioncircle.redis.replicator.Constants.RDB_LOAD_NONE;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPMAP;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_QUICKLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET_INTSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_2;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_ZIPLIST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DumpKeyValuePairEx;
+import com.moilioncircle.redis.rdb.cli.io.ByteBuffersInputStream;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.replicator.io.RedisInputStream;
+import com.moilioncircle.redis.replicator.rdb.BaseRdbParser;
+
+/**
+ * Split a big dump payload into variadic commands, so that the target
+ * never receives one giant {@code restore}.
+ *
+ * @author Baoyi Chen
+ */
+public class BigKeySplitter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BigKeySplitter.class);
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    // fails like RESTORE without REPLACE does
+    private static final byte[] GUARD_SCRIPT = ("if redis.call('exists',KEYS[1])==1 then " +
+            "return redis.error_reply('BUSYKEY Target key name already exists.') end return 1").getBytes();
+    
+    public interface Emitter {
+        void emit(byte[] command, byte[]... args);
+    }
+    
+    public interface Caller {
+        /**
+         * @return the error reply, or null if the command succeeded
+         */
+        String call(byte[] command, byte[]... args);
+    }
+    
+    private final int size;
+    private final int limit;
+    private final int elements;
+    
+    public BigKeySplitter(Configure configure) {
+        this.size = configure.getMigrateBigKeySize();
+        this.limit = configure.getMigrateBigKeyBatchSize();
+        this.elements = configure.getMigrateBigKeyElements();
+    }
+    
+    /**
+     * the batches are not atomic. without replace the key is checked before the first batch so an
+     * existing key is not merged into, and a retried split deletes what its previous attempt has sent.
+     *
+     * @return false if the key is small or the type could not be split, the caller should use restore.
+     */
+    public boolean split(DumpKeyValuePairEx dkv, boolean replace, Caller caller, Emitter emitter) throws IOException {
+        if (size <= 0 && elements <= 0) return false;
+        ByteBuffers buffers = dkv.getBuffers();
+        try {
+            RedisInputStream in = new RedisInputStream(new ByteBuffersInputStream(buffers));
+            BaseRdbParser parser = new BaseRdbParser(in);
+            int type = in.read();
+            long len = -1;
+            switch (type) {
+                case RDB_TYPE_SET:
+                case RDB_TYPE_LIST:
+                case RDB_TYPE_HASH:
+                case RDB_TYPE_ZSET:
+                case RDB_TYPE_ZSET_2:
+                    len = parser.rdbLoadLen().len;
+                    break;
+                case RDB_TYPE_HASH_ZIPMAP:
+                case RDB_TYPE_SET_INTSET:
+                case RDB_TYPE_LIST_ZIPLIST:
+                case RDB_TYPE_ZSET_ZIPLIST:
+                case RDB_TYPE_HASH_ZIPLIST:
+                case RDB_TYPE_LIST_QUICKLIST:
+                    break;
+                default:
+                    // string, module and stream
+                    return false;
+            }
+            boolean big = (size > 0 && buffers.getSize() > size) || (elements > 0 && len > elements);
+            if (!big) return false;
+            
+            byte[] key = dkv.getKey();
+            if (replace || dkv.isSplit()) {
+                emitter.emit(DEL, key);
+            } else {
+                String error = caller.call(EVAL, GUARD_SCRIPT, ONE, key);
+                if (error != null && error.startsWith("BUSYKEY")) {
+                    monitor.add("failure_respond", 1);
+                    logger.error("{} [{}]", error, new String(key));
+                    return true;
+                }
+                if (error != null) throw new RuntimeException(error); // retry in the caller method.
+            }
+            dkv.setSplit(true);
+            Batch batch = new Batch(key, emitter);
+            switch (type) {
+                case RDB_TYPE_LIST:
+                    batch.command(RPUSH);
+                    for (long i = 0; i < len; i++) {
+                        batch.add(parser.rdbLoadEncodedStringObject().first());
+                    }
+                    break;
+                case RDB_TYPE_SET:
+                    batch.command(SADD);
+                    for (long i = 0; i < len; i++) {
+                        batch.add(parser.rdbLoadEncodedStringObject().first());
+                    }
+                    break;
+                case RDB_TYPE_ZSET:
+                case RDB_TYPE_ZSET_2:
+                    batch.command(ZADD);
+                    for (long i = 0; i < len; i++) {
+                        byte[] element = parser.rdbLoadEncodedStringObject().first();
+                        double score = type == RDB_TYPE_ZSET ? parser.rdbLoadDoubleValue() : parser.rdbLoadBinaryDoubleValue();
+                        batch.add(score(score), element);
+                    }
+                    break;
+                case RDB_TYPE_HASH:
+                    batch.command(HMSET);
+                    for (long i = 0; i < len; i++) {
+                        byte[] field = parser.rdbLoadEncodedStringObject().first();
+                        byte[] value = parser.rdbLoadEncodedStringObject().first();
+                        batch.add(field, value);
+                    }
+                    break;
+                case RDB_TYPE_HASH_ZIPMAP:
+                    batch.command(HMSET);
+                    zipmap(new RedisInputStream(parser.rdbLoadPlainStringObject()), batch);
+                    break;
+                case RDB_TYPE_SET_INTSET:
+                    batch.command(SADD);
+                    intset(new RedisInputStream(parser.rdbLoadPlainStringObject()), batch);
+                    break;
+                case RDB_TYPE_LIST_ZIPLIST:
+                    batch.command(RPUSH);
+                    ziplist(new RedisInputStream(parser.rdbLoadPlainStringObject()), batch, false);
+                    break;
+                case RDB_TYPE_ZSET_ZIPLIST:
+                    batch.command(ZADD);
+                    ziplist(new RedisInputStream(parser.rdbLoadPlainStringObject()), batch, true);
+                    break;
+                case RDB_TYPE_HASH_ZIPLIST:
+                    batch.command(HMSET);
+                    ziplist(new RedisInputStream(parser.rdbLoadPlainStringObject()), batch, false);
+                    break;
+                case RDB_TYPE_LIST_QUICKLIST:
+                    batch.command(RPUSH);
+                    len = parser.rdbLoadLen().len;
+                    for (long i = 0; i < len; i++) {
+                        ziplist(new RedisInputStream(parser.rdbGenericLoadStringObject(RDB_LOAD_NONE)), batch, false);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(type);
+            }
+            batch.flush();
+            
+            // ttl must be the last command, otherwise the key may be expired before fully migrated.
+            if (dkv.getExpiredMs() != null) {
+                emitter.emit(PEXPIREAT, key, String.valueOf(dkv.getExpiredMs()).getBytes());
+            }
+            monitor.add("chunked_keys", 1);
+            monitor.add("chunked_commands", batch.count);
+            return true;
+        } finally {
+            buffers.reset();
+        }
+    }
+    
+    private void ziplist(RedisInputStream stream, Batch batch, boolean zset) throws IOException {
+        BaseRdbParser.LenHelper.zlbytes(stream); // zlbytes
+        BaseRdbParser.LenHelper.zltail(stream); // zltail
+        int zllen = BaseRdbParser.LenHelper.zllen(stream);
+        if (zset) {
+            while (zllen > 0) {
+                byte[] element = BaseRdbParser.StringHelper.zipListEntry(stream);
+                zllen--;
+                byte[] score = BaseRdbParser.StringHelper.zipListEntry(stream);
+                zllen--;
+                batch.add(score, element);
+            }
+        } else {
+            for (int i = 0; i < zllen; i++) {
+                batch.add(BaseRdbParser.StringHelper.zipListEntry(stream));
+            }
+        }
+        int zlend = BaseRdbParser.LenHelper.zlend(stream);
+        if (zlend != 255) {
+            throw new AssertionError("zlend expect 255 but " + zlend);
+        }
+    }
+    
+    private void intset(RedisInputStream stream, Batch batch) throws IOException {
+        int encoding = BaseRdbParser.LenHelper.encoding(stream);
+        long lenOfContent = BaseRdbParser.LenHelper.lenOfContent(stream);
+        for (long i = 0; i < lenOfContent; i++) {
+            String element;
+            switch (encoding) {
+                case 2:
+                    element = String.valueOf(stream.readInt(2));
+                    break;
+                case 4:
+                    element = String.valueOf(stream.readInt(4));
+                    break;
+                case 8:
+                    element = String.valueOf(stream.readLong(8));
+                    break;
+                default:
+                    throw new AssertionError("expect encoding [2,4,8] but:" + encoding);
+            }
+            batch.add(element.getBytes());
+        }
+    }
+    
+    private void zipmap(RedisInputStream stream, Batch batch) throws IOException {
+        BaseRdbParser.LenHelper.zmlen(stream); // zmlen
+        while (true) {
+            int zmEleLen = BaseRdbParser.LenHelper.zmElementLen(stream);
+            if (zmEleLen == 255) return;
+            byte[] field = BaseRdbParser.StringHelper.bytes(stream, zmEleLen);
+            zmEleLen = BaseRdbParser.LenHelper.zmElementLen(stream);
+            if (zmEleLen == 255) return;
+            int free = BaseRdbParser.LenHelper.free(stream);
+            byte[] value = BaseRdbParser.StringHelper.bytes(stream, zmEleLen);
+            BaseRdbParser.StringHelper.skip(stream, free);
+            batch.add(field, value);
+        }
+    }
+    
+    private static byte[] score(double score) {
+        if (score == Double.POSITIVE_INFINITY) return "inf".getBytes();
+        if (score == Double.NEGATIVE_INFINITY) return "-inf".getBytes();
+        return String.valueOf(score).getBytes();
+    }
+    
+    private class Batch {
+        private int count;
+        private long bytes;
+        private byte[] command;
+        private final byte[] key;
+        private final Emitter emitter;
+        private final List<byte[]> args = new ArrayList<>();
+        
+        private Batch(byte[] key, Emitter emitter) {
+            this.key = key;
+            this.emitter = emitter;
+            this.args.add(key);
+        }
+        
+        private void command(byte[] command) {
+            this.command = command;
+        }
+        
+        private void add(byte[] arg) {
+            args.add(arg);
+            bytes += arg.length;
+            if (bytes >= limit) flush();
+        }
+        
+        private void add(byte[] arg1, byte[] arg2) {
+            args.add(arg1);
+            args.add(arg2);
+            bytes += arg1.length + arg2.length;
+            if (bytes >= limit) flush();
+        }
+        
+        private void flush() {
+            if (args.size() == 1) return;
+            emitter.emit(command, args.toArray(new byte[args.size()][]));
+            args.clear();
+            args.add(key);
+            bytes = 0;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
+import com.moilioncircle.redis.replicator.RedisURI;
+import com.moilioncircle.redis.replicator.util.Strings;
+
+/**
+ * Durable progress of a rmt run from a rdb file. keys are numbered in file order, a checkpoint
+ * means all the keys up to its sequence are replied by the targets. once a key failed the
+ * checkpoint is not advanced any more, so a restarted run replays the failed key.
+ *
+ * @author Baoyi Chen
+ */
+public class Checkpoint {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    // a checkpoint that is not acknowledged in time is abandoned, e.g. a worker is blocked by a dead target.
+    private static final long TIMEOUT = 5 * 60 * 1000L;
+    
+    private long skip;
+    private final File file;
+    private final File source;
+    private final int workers;
+    private final long interval;
+    private volatile boolean failed;
+    private long last = System.currentTimeMillis();
+    private final AtomicReference<CheckpointEvent> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new XThreadFactory("checkpoint", true));
+    
+    private Checkpoint(File file, File source, Configure configure) {
+        this.file = file;
+        this.source = source;
+        this.workers = Math.max(1, configure.getMigrateThreads());
+        this.interval = configure.getMigrateCheckpointInterval() * 1000L;
+        this.skip = load();
+    }
+    
+    /**
+     * @return null if checkpoint is disabled or the source is not a rdb file.
+     */
+    public static Checkpoint valueOf(String source, Configure configure) {
+        if (configure.getMigrateCheckpointFile() == null) return null;
+        try {
+            RedisURI uri = new RedisURI(Compression.strip(source));
+            if (uri.getFileType() == null) {
+                logger.warn("checkpoint is only supported when the source is a rdb file. source:{}", source);
+                return null;
+            }
+            return new Checkpoint(new File(configure.getMigrateCheckpointFile()), new File(uri.getPath() + Compression.suffix(source)), configure);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * the number of keys to skip in file order.
+     */
+    public long getSkip() {
+        return skip;
+    }
+    
+    /**
+     * called by the parser thread before the key {@code sequence + 1} is decoded.
+     *
+     * @return null if a checkpoint is not due
+     */
+    public CheckpointEvent next(long sequence, long offset, byte[] key) {
+        if (sequence <= skip || failed) return null;
+        long now = System.currentTimeMillis();
+        if (now - last < interval) return null;
+        CheckpointEvent prev = pending.get();
+        if (prev != null) {
+            if (now - last < Math.max(interval, TIMEOUT)) return null;
+            logger.warn("checkpoint of sequence {} is not acknowledged in {} ms, abandon it", prev.getSequence(), now - last);
+        }
+        CheckpointEvent event = new CheckpointEvent(sequence, offset, key == null ? null : Strings.toString(key), workers);
+        if (!pending.compareAndSet(prev, event)) return null;
+        last = now;
+        return event;
+    }
+    
+    /**
+     * called by every sync worker after it flushed its endpoints.
+     *
+     * @param failures the number of error replies and lost commands of the worker's endpoints.
+     */
+    public void ack(CheckpointEvent event, long failures) {
+        if (failures > 0) fail();
+        if (event.countDown()) executor.execute(() -> save(event));
+    }
+    
+    /**
+     * called if a key failed or may be lost, e.g. the connection was reset with commands in flight.
+     * the failed key is unknown, so the checkpoint stays at the last saved sequence.
+     */
+    public void fail() {
+        if (failed) return;
+        failed = true;
+        logger.error("keys failed after checkpoint {}, it is not advanced any more. restart rmt with --replace to replay them", file);
+    }
+    
+    private long load() {
+        if (!file.exists()) return 0L;
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        } catch (Throwable e) {
+            throw new RuntimeException("failed to load checkpoint " + file + ", reason " + e.getMessage());
+        }
+        if (!source.getAbsolutePath().equals(p.getProperty("source"))
+                || !String.valueOf(source.length()).equals(p.getProperty("size"))
+                || !String.valueOf(source.lastModified()).equals(p.getProperty("modified"))) {
+            logger.warn("checkpoint {} does not match source {}, migrate from the beginning", file, source);
+            return 0L;
+        }
+        long sequence = Long.parseLong(p.getProperty("sequence"));
+        logger.info("resume from checkpoint {}, sequence:{}, offset:{}, key:{}", file, sequence, p.getProperty("offset"), p.getProperty("key"));
+        return sequence;
+    }
+    
+    private void save(CheckpointEvent event) {
+        // abandoned by timeout
+        if (!pending.compareAndSet(event, null)) return;
+        if (failed) return;
+        try {
+            Properties p = new Properties();
+            p.setProperty("source", source.getAbsolutePath());
+            p.setProperty("size", String.valueOf(source.length()));
+            p.setProperty("modified", String.valueOf(source.lastModified()));
+            p.setProperty("sequence", String.valueOf(event.getSequence()));
+            p.setProperty("offset", String.valueOf(event.getOffset()));
+            if (event.getKey() != null) p.setProperty("key", event.getKey());
+            File temp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                p.store(out, null);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            monitor.set("checkpoint_sequence", event.getSequence());
+            monitor.set("checkpoint_offset", event.getOffset());
+        } catch (Throwable e) {
+            logger.error("failed to save checkpoint {}, reason:{}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.moilioncircle.redis.replicator.event.Event;
+
+/**
+ * Broadcast to all sync workers, the worker acknowledges it after all its previous commands are replied.
+ *
+ * @author Baoyi Chen
+ */
+public class CheckpointEvent implements Event {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final String key;
+    private final long offset;
+    private final long sequence;
+    private final transient AtomicInteger remaining;
+    
+    public CheckpointEvent(long sequence, long offset, String key, int workers) {
+        this.key = key;
+        this.offset = offset;
+        this.sequence = sequence;
+        this.remaining = new AtomicInteger(workers);
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public long getOffset() {
+        return offset;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    boolean countDown() {
+        return remaining.decrementAndGet() == 0;
+    }
+}
@@ -16,11 +16,16 @@
 
 package com.moilioncircle.redis.rdb.cli.ext;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.Objects;
 
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
+import com.moilioncircle.redis.rdb.cli.io.MappedFileInputStream;
 import com.moilioncircle.redis.rdb.cli.sentinel.RedisSentinelReplicator;
 import com.moilioncircle.redis.rdb.cli.sentinel.RedisSentinelURI;
 import com.moilioncircle.redis.replicator.CloseListener;
@@ -54,20 +59,29 @@ public class CliRedisReplicator implements Replicator {
     public CliRedisReplicator(String uri, Configure configure) throws URISyntaxException, IOException {
         Objects.requireNonNull(uri);
         try {
-            RedisURI u = new RedisURI(uri);
-            initialize(u, configure);
+            RedisURI u = new RedisURI(Compression.strip(uri));
+            initialize(u, Compression.suffix(uri), configure);
         } catch (URISyntaxException e) {
             RedisSentinelURI u = new RedisSentinelURI(uri);
             initialize(u, configure);
         }
     }
 
-    private void initialize(RedisURI uri, Configure configure) throws IOException {
+    /**
+     * a rdb stream, e.g. a range of a rdb file.
+     */
+    public CliRedisReplicator(InputStream in, Configure configure) {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(configure);
+        this.replicator = new RedisRdbReplicator(in, configure.merge(Configuration.defaultSetting(), true));
+    }
+
+    private void initialize(RedisURI uri, String suffix, Configure configure) throws IOException {
         Objects.requireNonNull(uri);
         Objects.requireNonNull(configure);
         Configuration configuration = configure.merge(uri, true);
         if (uri.getFileType() != null) {
-            PeekableInputStream in = new PeekableInputStream(uri.toURL().openStream());
+            PeekableInputStream in = new PeekableInputStream(open(uri, suffix, configure));
             switch (uri.getFileType()) {
                 case AOF:
                     if (in.peek() == 'R') {
@@ -90,6 +104,20 @@ public class CliRedisReplicator implements Replicator {
         }
     }
 
+    /**
+     * @param suffix the compression suffix stripped from the uri, the compression is detected by magic bytes.
+     */
+    private static InputStream open(RedisURI uri, String suffix, Configure configure) throws IOException {
+        File file = new File(uri.getPath() + suffix);
+        InputStream in;
+        if (configure.getInputMmapSize() > 0 && file.isFile()) {
+            in = new MappedFileInputStream(file, configure.getInputMmapSize());
+        } else {
+            in = suffix.isEmpty() ? uri.toURL().openStream() : new FileInputStream(file);
+        }
+        return Compression.decompress(in, configure);
+    }
+
     private void initialize(RedisSentinelURI uri, Configure configure) throws IOException {
         Objects.requireNonNull(uri);
         Objects.requireNonNull(configure);
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.rdb.cli.conf.NodeConfParser.slot;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosedCommand;
+import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosingCommand;
+import com.moilioncircle.redis.rdb.cli.api.sink.cmd.CombineCommand;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.replicator.Replicator;
+import com.moilioncircle.redis.replicator.cmd.Command;
+import com.moilioncircle.redis.replicator.cmd.impl.BLMoveCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.BRPopLPushCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.BitOpCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.CopyCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.DelCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.GenericKeyCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.GeoSearchStoreCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.LMoveCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.MSetCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.MSetNxCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.PFCountCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.PFMergeCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.PingCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.RPopLPushCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.RenameCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.RenameNxCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.SDiffStoreCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.SInterStoreCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.SMoveCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.SelectCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.UnLinkCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.ZDiffStoreCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.ZInterStoreCommand;
+import com.moilioncircle.redis.replicator.cmd.impl.ZUnionStoreCommand;
+import com.moilioncircle.redis.replicator.event.Event;
+import com.moilioncircle.redis.replicator.event.EventListener;
+import com.moilioncircle.redis.replicator.event.PostCommandSyncEvent;
+import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
+import com.moilioncircle.redis.replicator.event.PreCommandSyncEvent;
+import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
+import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
+
+/**
+ * Dispatch events to a fixed worker by the slot of their keys, so the writes of the same key
+ * are applied in order. Events that touch keys of different workers, or no key at all
+ * (MULTI/EXEC, FLUSHALL, EVAL...), wait until all workers are drained and their pipelines
+ * are replied, see {@link BarrierEvent}.
+ *
+ * @author Baoyi Chen
+ */
+public class OrderedEventListener implements EventListener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(OrderedEventListener.class);
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    private static final int QUEUE = 1024;
+    private static final int SAMPLE = 63;
+    private static final Event STOP = new Event() {};
+    
+    private boolean multi;
+    private final Worker[] workers;
+    private final EventListener listener;
+    
+    public OrderedEventListener(EventListener listener, Replicator replicator, int count, ThreadFactory factory) {
+        this.listener = listener;
+        this.workers = new Worker[Math.max(0, count)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, replicator);
+            workers[i].thread = factory.newThread(workers[i]);
+            workers[i].thread.start();
+        }
+        replicator.addCloseListener(rep -> {
+            if (workers.length == 0) {
+                listener.onEvent(rep, new ClosingCommand());
+                listener.onEvent(rep, new ClosedCommand());
+                return;
+            }
+            broadcast(new ClosingCommand());
+            broadcast(STOP);
+            for (Worker worker : workers) {
+                try {
+                    worker.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            listener.onEvent(rep, new ClosedCommand());
+        });
+    }
+    
+    @Override
+    public void onEvent(Replicator replicator, Event event) {
+        if (workers.length == 0) {
+            // sync mode
+            listener.onEvent(replicator, event);
+        } else if (event instanceof PreRdbSyncEvent
+                || event instanceof PostRdbSyncEvent
+                || event instanceof PreCommandSyncEvent
+                || event instanceof PostCommandSyncEvent
+                || event instanceof CheckpointEvent
+                || event instanceof SelectCommand) {
+            broadcast(event);
+        } else if (event instanceof DumpKeyValuePair) {
+            dispatch(worker(((DumpKeyValuePair) event).getKey()), event);
+        } else if (event instanceof CombineCommand) {
+            dispatch((CombineCommand) event);
+        } else {
+            dispatch(0, event);
+        }
+    }
+    
+    private void dispatch(CombineCommand command) {
+        Command parsed = command.getParsedCommand();
+        String name = new String(command.getDefaultCommand().getCommand());
+        if (parsed instanceof SelectCommand) {
+            broadcast(command);
+        } else if (multi) {
+            // the whole transaction goes to one worker
+            dispatch(0, command);
+            if (name.equalsIgnoreCase("EXEC") || name.equalsIgnoreCase("DISCARD")) {
+                multi = false;
+                barrier();
+            }
+        } else if (name.equalsIgnoreCase("MULTI")) {
+            multi = true;
+            barrier();
+            dispatch(0, command);
+        } else if (parsed instanceof PingCommand) {
+            dispatch(0, command);
+        } else {
+            byte[][] keys = keys(parsed);
+            if (keys == null || keys.length == 0) {
+                // keyless, e.g. FLUSHALL, SWAPDB, EVAL, SCRIPT LOAD
+                barrier();
+                dispatch(0, command);
+                barrier();
+                return;
+            }
+            int index = worker(keys[0]);
+            boolean cross = false;
+            for (int i = 1; i < keys.length; i++) {
+                if (worker(keys[i]) != index) {
+                    cross = true;
+                    break;
+                }
+            }
+            if (!cross) {
+                dispatch(index, command);
+                return;
+            }
+            // cross worker keys, the later writes of the other keys must not overtake it
+            barrier();
+            dispatch(index, command);
+            barrier();
+        }
+    }
+    
+    private void dispatch(int index, Event event) {
+        Worker worker = workers[index];
+        worker.pending.incrementAndGet();
+        try {
+            worker.queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.pending.decrementAndGet();
+        }
+    }
+    
+    private void broadcast(Event event) {
+        for (int i = 0; i < workers.length; i++) {
+            dispatch(i, event);
+        }
+    }
+    
+    /**
+     * wait until all dispatched events are applied and replied. an event handed to
+     * the endpoint of a worker may still sit in its pipeline, so every worker flushes
+     * on the barrier event before it is acknowledged.
+     */
+    private void barrier() {
+        monitor.add("worker_barrier", 1);
+        broadcast(BarrierEvent.INSTANCE);
+        for (Worker worker : workers) {
+            while (worker.pending.get() > 0 && worker.thread.isAlive()) {
+                LockSupport.parkNanos(100000L);
+            }
+        }
+    }
+    
+    private int worker(byte[] key) {
+        return slot(key) % workers.length;
+    }
+    
+    private static byte[][] keys(Command parsed) {
+        if (parsed instanceof RenameCommand) {
+            RenameCommand cmd = (RenameCommand) parsed;
+            return new byte[][]{cmd.getKey(), cmd.getNewKey()};
+        } else if (parsed instanceof RenameNxCommand) {
+            RenameNxCommand cmd = (RenameNxCommand) parsed;
+            return new byte[][]{cmd.getKey(), cmd.getNewKey()};
+        } else if (parsed instanceof PFMergeCommand) {
+            PFMergeCommand cmd = (PFMergeCommand) parsed;
+            return concat(cmd.getDestkey(), cmd.getSourcekeys());
+        } else if (parsed instanceof PFCountCommand) {
+            return ((PFCountCommand) parsed).getKeys();
+        } else if (parsed instanceof MSetNxCommand) {
+            return ((MSetNxCommand) parsed).getKv().keySet().toArray(new byte[0][]);
+        } else if (parsed instanceof MSetCommand) {
+            return ((MSetCommand) parsed).getKv().keySet().toArray(new byte[0][]);
+        } else if (parsed instanceof BRPopLPushCommand) {
+            BRPopLPushCommand cmd = (BRPopLPushCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof RPopLPushCommand) {
+            RPopLPushCommand cmd = (RPopLPushCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof BitOpCommand) {
+            BitOpCommand cmd = (BitOpCommand) parsed;
+            return concat(cmd.getDestkey(), cmd.getKeys());
+        } else if (parsed instanceof UnLinkCommand) {
+            return ((UnLinkCommand) parsed).getKeys();
+        } else if (parsed instanceof DelCommand) {
+            return ((DelCommand) parsed).getKeys();
+        } else if (parsed instanceof ZUnionStoreCommand) {
+            ZUnionStoreCommand cmd = (ZUnionStoreCommand) parsed;
+            return concat(cmd.getDestination(), cmd.getKeys());
+        } else if (parsed instanceof ZInterStoreCommand) {
+            ZInterStoreCommand cmd = (ZInterStoreCommand) parsed;
+            return concat(cmd.getDestination(), cmd.getKeys());
+        } else if (parsed instanceof ZDiffStoreCommand) {
+            ZDiffStoreCommand cmd = (ZDiffStoreCommand) parsed;
+            return concat(cmd.getDestination(), cmd.getKeys());
+        } else if (parsed instanceof SInterStoreCommand) {
+            SInterStoreCommand cmd = (SInterStoreCommand) parsed;
+            return concat(cmd.getDestination(), cmd.getKeys());
+        } else if (parsed instanceof SDiffStoreCommand) {
+            SDiffStoreCommand cmd = (SDiffStoreCommand) parsed;
+            return concat(cmd.getDestination(), cmd.getKeys());
+        } else if (parsed instanceof SMoveCommand) {
+            SMoveCommand cmd = (SMoveCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof CopyCommand) {
+            CopyCommand cmd = (CopyCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof BLMoveCommand) {
+            BLMoveCommand cmd = (BLMoveCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof LMoveCommand) {
+            LMoveCommand cmd = (LMoveCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof GeoSearchStoreCommand) {
+            GeoSearchStoreCommand cmd = (GeoSearchStoreCommand) parsed;
+            return new byte[][]{cmd.getSource(), cmd.getDestination()};
+        } else if (parsed instanceof GenericKeyCommand) {
+            return new byte[][]{((GenericKeyCommand) parsed).getKey()};
+        }
+        return null;
+    }
+    
+    private static byte[][] concat(byte[] key, byte[]... keys) {
+        byte[][] r = Arrays.copyOf(keys, keys.length + 1);
+        r[keys.length] = key;
+        return r;
+    }
+    
+    private class Worker implements Runnable {
+        private final int index;
+        private Thread thread;
+        private final String events;
+        private final String depth;
+        private final Replicator replicator;
+        private final AtomicLong pending = new AtomicLong();
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE);
+        
+        private Worker(int index, Replicator replicator) {
+            this.index = index;
+            this.replicator = replicator;
+            this.events = "worker_events_" + index;
+            this.depth = "worker_queue_depth_" + index;
+        }
+        
+        @Override
+        public void run() {
+            long count = 0;
+            while (true) {
+                Event event;
+                try {
+                    event = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    if (event == STOP) return;
+                    listener.onEvent(replicator, event);
+                } catch (Throwable e) {
+                    logger.error("failed to apply event. worker:{}, reason:{}", index, e.getMessage());
+                } finally {
+                    pending.decrementAndGet();
+                    // sampled, the size of the queue takes its lock
+                    if ((++count & SAMPLE) == 0) {
+                        monitor.add(events, SAMPLE + 1);
+                        monitor.set(depth, queue.size());
+                    }
+                }
+            }
+        }
+    }
+}
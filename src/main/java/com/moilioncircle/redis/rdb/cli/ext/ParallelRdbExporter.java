@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.RdbPartitioner.Partition;
+import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
+import com.moilioncircle.redis.replicator.Replicator;
+import com.moilioncircle.redis.replicator.Replicators;
+import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
+import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
+import com.moilioncircle.redis.replicator.io.RawByteListener;
+
+/**
+ * Exports the partitions of a rdb file by a pool of workers. every partition is parsed by its own
+ * replicator and visitor into a shard file next to the output, then the shards are merged into the
+ * output in file order.
+ *
+ * @author Baoyi Chen
+ */
+public class ParallelRdbExporter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ParallelRdbExporter.class);
+    
+    private final File source;
+    private final File output;
+    private final String format;
+    private final Configure configure;
+    
+    public ParallelRdbExporter(File source, File output, String format, Configure configure) {
+        this.source = source;
+        this.output = output;
+        this.format = format;
+        this.configure = configure;
+    }
+    
+    /**
+     * @param dresser sets the visitor of a partition's replicator, the visitor writes to the given shard.
+     */
+    public void export(List<Partition> partitions, BiConsumer<Replicator, File> dresser, RawByteListener listener) throws IOException {
+        int threads = Math.min(configure.getExportThreads(), partitions.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new XThreadFactory("export-worker"));
+        List<File> shards = new ArrayList<>(partitions.size());
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            List<Future<?>> futures = new ArrayList<>(partitions.size());
+            for (int i = 0; i < partitions.size(); i++) {
+                Partition partition = partitions.get(i);
+                File shard = new File(output.getPath() + "." + i + ".part");
+                shards.add(shard);
+                futures.add(executor.submit(() -> {
+                    Replicator r = new CliRedisReplicator(partition.open(channel, configure.getInputBufferSize()), configure);
+                    dresser.accept(r, shard);
+                    r.addExceptionListener((rep, tx, e) -> {
+                        throw new RuntimeException(tx.getMessage(), tx);
+                    });
+                    r.addEventListener((rep, event) -> {
+                        if (event instanceof PreRdbSyncEvent)
+                            rep.addRawByteListener(listener);
+                        if (event instanceof PostRdbSyncEvent)
+                            Replicators.closeQuietly(rep);
+                    });
+                    logger.debug("exporting {} to {}", partition, shard);
+                    r.open();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+            merge(shards);
+        } finally {
+            executor.shutdownNow();
+            for (File shard : shards) shard.delete();
+        }
+    }
+    
+    private void merge(List<File> shards) throws IOException {
+        boolean json = format.equals("json");
+        // json and jsonl write the separator between keys only, not after the last key of a shard.
+        byte[] separator = json ? new byte[]{',', '\n'} : format.equals("jsonl") ? new byte[]{'\n'} : null;
+        try (FileChannel out = new FileOutputStream(output).getChannel()) {
+            boolean empty = true;
+            if (json) out.write(ByteBuffer.wrap(new byte[]{'['}));
+            for (int i = 0; i < shards.size(); i++) {
+                try (FileChannel in = FileChannel.open(shards.get(i).toPath(), StandardOpenOption.READ)) {
+                    long start = 0, end = in.size();
+                    if (json) {
+                        // every shard is a json array, keep the elements only.
+                        start = 1;
+                        end = Math.max(end - 1, start);
+                    } else if (format.equals("mem") && i > 0) {
+                        // every shard has the csv header.
+                        start = header(in);
+                    }
+                    if (end == start) continue;
+                    if (separator != null && !empty) out.write(ByteBuffer.wrap(separator));
+                    empty = false;
+                    while (start < end) start += in.transferTo(start, end - start, out);
+                }
+            }
+            if (json) out.write(ByteBuffer.wrap(new byte[]{']'}));
+        }
+    }
+    
+    private static long header(FileChannel in) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long position = 0;
+        while (in.read(buf, position) > 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                position++;
+                if (buf.get() == '\n') return position;
+            }
+            buf.clear();
+        }
+        return position;
+    }
+}
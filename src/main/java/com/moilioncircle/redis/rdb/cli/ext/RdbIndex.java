@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EOF;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_SELECTDB;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.io.FileRangeInputStream;
+import com.moilioncircle.redis.rdb.cli.util.Hashes;
+import com.moilioncircle.redis.replicator.rdb.BaseRdbEncoder;
+
+/**
+ * The sidecar index of a local rdb file, built by {@code rdt --index} and used by {@code rct --index}.
+ * <p>
+ * The index starts with a 64 bytes header: magic, size and fingerprint of the rdb file, the number
+ * of keys and the rdb header. Every key follows as a 24 bytes record sorted by the hash of the key:
+ * hash(8), offset(6), length(6), db(2), type(1) and a reserved byte. The records are mapped and a
+ * lookup is a binary search, the value is then read from the rdb file at the recorded offset.
+ *
+ * @author Baoyi Chen
+ */
+public class RdbIndex {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RdbIndex.class);
+    
+    private static final byte[] MAGIC = "RDBIDX01".getBytes();
+    private static final int HEADER = 64;
+    private static final int RECORD = 24;
+    private static final long SEGMENT = 1L << 25; // records per mapped segment
+    private static final int SAMPLE = 64 * 1024;
+    
+    private final long count;
+    private final byte[] header;
+    private final MappedByteBuffer[] records;
+    
+    private RdbIndex(long count, byte[] header, MappedByteBuffer[] records) {
+        this.count = count;
+        this.header = header;
+        this.records = records;
+    }
+    
+    public long size() {
+        return count;
+    }
+    
+    /**
+     * @return the number of keys indexed.
+     */
+    public static long build(File rdb, File index, int bufferSize) throws IOException {
+        RdbScanner scanner = new RdbScanner(rdb, bufferSize);
+        long[] count = new long[1];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index), 1024 * 1024))) {
+            out.write(new byte[HEADER]);
+            boolean completed = scanner.scan(true, (start, end, db, type, key) -> {
+                out.writeLong(Hashes.hash64(key));
+                out.writeShort((int) (start >>> 32));
+                out.writeInt((int) start);
+                out.writeShort((int) ((end - start) >>> 32));
+                out.writeInt((int) (end - start));
+                out.writeShort((int) db);
+                out.writeByte(type);
+                out.writeByte(0);
+                count[0]++;
+            });
+            if (!completed) throw new IOException(rdb + " contains data that can't be indexed");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER);
+            buf.put(MAGIC).putLong(scanner.getSize()).putLong(fingerprint(rdb)).putLong(count[0]).put(scanner.getHeader());
+            raf.write(buf.array());
+            MappedByteBuffer[] records = map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, count[0]);
+            sort(records, 0, count[0] - 1);
+            for (MappedByteBuffer record : records) record.force();
+        }
+        return count[0];
+    }
+    
+    public static RdbIndex open(File index, File rdb) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+            byte[] bytes = new byte[HEADER];
+            raf.readFully(bytes);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException(index + " is not a rdb index");
+            long size = buf.getLong();
+            long fingerprint = buf.getLong();
+            long count = buf.getLong();
+            byte[] header = new byte[9];
+            buf.get(header);
+            if (size != rdb.length() || fingerprint != fingerprint(rdb)) {
+                throw new IOException(index + " is not the index of " + rdb + ", rebuild it by rdt --index");
+            }
+            if (raf.length() != HEADER + count * RECORD) throw new IOException(index + " is truncated");
+            logger.info("opened index {} of {} keys", index, count);
+            return new RdbIndex(count, header, map(raf.getChannel(), FileChannel.MapMode.READ_ONLY, count));
+        }
+    }
+    
+    /**
+     * @return a rdb stream that contains only the given keys in file order, each is preceded by
+     * a SELECTDB of its db. the stream reads the values from the channel of the rdb file.
+     */
+    public InputStream lookup(FileChannel channel, List<byte[]> keys, int bufferSize) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        for (byte[] key : keys) {
+            long hash = Hashes.hash64(key);
+            // hash collisions are filtered later by the key filters of the visitor.
+            for (long i = lowerBound(hash); i < count && hash(records, i) == hash; i++) {
+                entries.add(new long[]{offset(i), length(i), db(i)});
+            }
+        }
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+        
+        List<InputStream> list = new ArrayList<>(entries.size() * 2 + 2);
+        list.add(new ByteArrayInputStream(header));
+        BaseRdbEncoder encoder = new BaseRdbEncoder();
+        long prev = -1;
+        for (long[] entry : entries) {
+            if (entry[0] == prev) continue; // the same key given twice
+            prev = entry[0];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(RDB_OPCODE_SELECTDB);
+            out.write(encoder.rdbSaveLen(entry[2]));
+            list.add(new ByteArrayInputStream(out.toByteArray()));
+            list.add(new FileRangeInputStream(channel, entry[0], entry[0] + entry[1], (int) Math.min(bufferSize, entry[1])));
+        }
+        int version = Integer.parseInt(new String(header, 5, 4));
+        byte[] eof = new byte[version >= 5 ? 9 : 1];
+        eof[0] = (byte) RDB_OPCODE_EOF;
+        list.add(new ByteArrayInputStream(eof));
+        return new SequenceInputStream(Collections.enumeration(list));
+    }
+    
+    private long lowerBound(long hash) {
+        long lo = 0, hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (hash(records, mid) < hash) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+    
+    private long offset(long i) {
+        return readLong48(i, 8);
+    }
+    
+    private long length(long i) {
+        return readLong48(i, 14);
+    }
+    
+    private long db(long i) {
+        MappedByteBuffer buf = records[(int) (i / SEGMENT)];
+        return buf.getShort((int) (i % SEGMENT) * RECORD + 20) & 0xFFFF;
+    }
+    
+    private long readLong48(long i, int field) {
+        MappedByteBuffer buf = records[(int) (i / SEGMENT)];
+        int p = (int) (i % SEGMENT) * RECORD + field;
+        return (buf.getShort(p) & 0xFFFFL) << 32 | buf.getInt(p + 2) & 0xFFFFFFFFL;
+    }
+    
+    private static long hash(MappedByteBuffer[] records, long i) {
+        return records[(int) (i / SEGMENT)].getLong((int) (i % SEGMENT) * RECORD);
+    }
+    
+    /*
+     * in place quick sort of the mapped records by hash.
+     */
+    private static void sort(MappedByteBuffer[] records, long lo, long hi) {
+        while (hi - lo > 16) {
+            long mid = (lo + hi) >>> 1;
+            // median of three
+            if (hash(records, mid) < hash(records, lo)) swap(records, mid, lo);
+            if (hash(records, hi) < hash(records, lo)) swap(records, hi, lo);
+            if (hash(records, hi) < hash(records, mid)) swap(records, hi, mid);
+            long pivot = hash(records, mid);
+            long i = lo, j = hi;
+            while (i <= j) {
+                while (hash(records, i) < pivot) i++;
+                while (hash(records, j) > pivot) j--;
+                if (i <= j) swap(records, i++, j--);
+            }
+            // recurse into the smaller half
+            if (j - lo < hi - i) {
+                sort(records, lo, j);
+                lo = i;
+            } else {
+                sort(records, i, hi);
+                hi = j;
+            }
+        }
+        for (long i = lo + 1; i <= hi; i++) {
+            for (long j = i; j > lo && hash(records, j) < hash(records, j - 1); j--) swap(records, j, j - 1);
+        }
+    }
+    
+    private static void swap(MappedByteBuffer[] records, long i, long j) {
+        MappedByteBuffer a = records[(int) (i / SEGMENT)], b = records[(int) (j / SEGMENT)];
+        int p = (int) (i % SEGMENT) * RECORD, q = (int) (j % SEGMENT) * RECORD;
+        for (int k = 0; k < RECORD; k += 8) {
+            long t = a.getLong(p + k);
+            a.putLong(p + k, b.getLong(q + k));
+            b.putLong(q + k, t);
+        }
+    }
+    
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long count) throws IOException {
+        int n = (int) ((count + SEGMENT - 1) / SEGMENT);
+        MappedByteBuffer[] buffers = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long first = i * SEGMENT;
+            buffers[i] = channel.map(mode, HEADER + first * RECORD, Math.min(count - first, SEGMENT) * RECORD);
+        }
+        return buffers;
+    }
+    
+    /*
+     * crc32 of the head and the tail of the rdb file, the tail contains the crc64 checksum of the rdb.
+     */
+    private static long fingerprint(File rdb) throws IOException {
+        try (FileChannel channel = FileChannel.open(rdb.toPath(), StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            long size = channel.size();
+            update(crc, channel, 0, Math.min(size, SAMPLE));
+            update(crc, channel, Math.max(size - SAMPLE, 0), size);
+            return crc.getValue();
+        }
+    }
+    
+    private static void update(CRC32 crc, FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        while (buf.hasRemaining() && channel.read(buf, start + buf.position()) >= 0) ;
+        crc.update(buf.array(), 0, buf.position());
+    }
+}
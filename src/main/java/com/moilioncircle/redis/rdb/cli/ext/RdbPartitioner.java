@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EOF;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_SELECTDB;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.io.FileRangeInputStream;
+import com.moilioncircle.redis.replicator.rdb.BaseRdbEncoder;
+
+/**
+ * Splits a local rdb file into ranges of whole keys that can be parsed independently.
+ * <p>
+ * The first pass is a {@link RdbScanner} walk. A range starts at the first opcode of a key, e.g. its
+ * expiry, so the range carries the key's context. The first range keeps the original header, every
+ * other range is prefixed by the magic, the version and a SELECTDB of the db the range starts in, and
+ * every range but the last is terminated by an EOF. so each range is a valid rdb file by itself.
+ *
+ * @author Baoyi Chen
+ */
+public class RdbPartitioner implements RdbScanner.Listener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RdbPartitioner.class);
+    
+    private final File file;
+    private final int bufferSize;
+    
+    // split state
+    private int parts;
+    private long step;
+    private long next;
+    private long start;
+    private long startDb;
+    private RdbScanner scanner;
+    private List<Partition> list;
+    
+    public RdbPartitioner(File file, int bufferSize) {
+        this.file = file;
+        this.bufferSize = bufferSize;
+    }
+    
+    /**
+     * @return the ranges in file order, or an empty list if the file can't be split, e.g. it contains
+     * a module value or a type this version can't skip.
+     */
+    public List<Partition> split(int parts) {
+        this.parts = parts;
+        this.step = Math.max(file.length() / parts, 1);
+        this.next = step;
+        this.start = 0;
+        this.startDb = 0;
+        this.list = new ArrayList<>();
+        this.scanner = new RdbScanner(file, bufferSize);
+        try {
+            if (!scanner.scan(false, this)) return Collections.emptyList();
+            list.add(new Partition(scanner.getVersion(), startDb, start, scanner.getSize(), scanner.getHeader(), true));
+            return list;
+        } catch (IOException | RuntimeException | AssertionError e) {
+            logger.warn("failed to split {}, reason {}", file, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+    
+    @Override
+    public void onKey(long start, long end, long db, int type, byte[] key) {
+        if (start < next || list.size() >= parts - 1) return;
+        list.add(new Partition(scanner.getVersion(), startDb, this.start, start, scanner.getHeader(), false));
+        this.start = start;
+        this.startDb = db;
+        this.next = start + step;
+    }
+    
+    public static class Partition {
+        private final int version;
+        private final long db;
+        private final long start;
+        private final long end;
+        private final byte[] header;
+        private final boolean last;
+        
+        private Partition(int version, long db, long start, long end, byte[] header, boolean last) {
+            this.version = version;
+            this.db = db;
+            this.start = start;
+            this.end = end;
+            this.header = header;
+            this.last = last;
+        }
+        
+        public long getStart() {
+            return start;
+        }
+        
+        public long getEnd() {
+            return end;
+        }
+        
+        /**
+         * @param channel shared by all partitions, reads are positional.
+         */
+        public InputStream open(FileChannel channel, int bufferSize) throws IOException {
+            List<InputStream> list = new ArrayList<>(3);
+            if (start > 0) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                out.write(header);
+                out.write(RDB_OPCODE_SELECTDB);
+                out.write(new BaseRdbEncoder().rdbSaveLen(db));
+                list.add(new ByteArrayInputStream(out.toByteArray()));
+            }
+            list.add(new FileRangeInputStream(channel, start, end, bufferSize));
+            if (!last) {
+                // checksum is not verified by the parser, zero means no checksum in rdb.
+                byte[] eof = new byte[version >= 5 ? 9 : 1];
+                eof[0] = (byte) RDB_OPCODE_EOF;
+                list.add(new ByteArrayInputStream(eof));
+            }
+            return new SequenceInputStream(Collections.enumeration(list));
+        }
+        
+        @Override
+        public String toString() {
+            return "Partition{db=" + db + ", start=" + start + ", end=" + end + '}';
+        }
+    }
+}
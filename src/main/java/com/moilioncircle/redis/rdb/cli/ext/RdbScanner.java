@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_AUX;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EOF;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EXPIRETIME;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EXPIRETIME_MS;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_FREQ;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_IDLE;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_MODULE_AUX;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_RESIZEDB;
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_SELECTDB;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_STRING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.io.FileRangeInputStream;
+
+/**
+ * Walks the keys of a local rdb file without decoding values. only the opcodes and the length
+ * prefixes are read, values are skipped by {@link ValueSkipper}.
+ *
+ * @author Baoyi Chen
+ */
+public class RdbScanner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RdbScanner.class);
+    
+    private long size;
+    private int version;
+    private final File file;
+    private final int bufferSize;
+    private final byte[] header = new byte[9];
+    
+    public RdbScanner(File file, int bufferSize) {
+        this.file = file;
+        this.bufferSize = Math.max(bufferSize, 64 * 1024);
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    /**
+     * @return the magic and the version, the first 9 bytes of the file.
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+    
+    /**
+     * @param keys whether to read the keys or skip them.
+     * @return false if the file contains data that can't be skipped, e.g. a module value.
+     */
+    public boolean scan(boolean keys, Listener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.size = channel.size();
+            FileRangeInputStream in = new FileRangeInputStream(channel, 0, size, bufferSize);
+            ValueSkipper skipper = new ValueSkipper(in);
+            for (int i = 0; i < header.length; i++) header[i] = (byte) in.read();
+            if (!new String(header, 0, 5).equals("REDIS")) throw new IOException("invalid rdb file " + file);
+            this.version = Integer.parseInt(new String(header, 5, 4));
+            
+            long db = 0, first = -1;
+            while (true) {
+                long position = in.position();
+                int type = in.read();
+                switch (type) {
+                    case RDB_OPCODE_EXPIRETIME:
+                        if (first < 0) first = position;
+                        in.skip(4);
+                        break;
+                    case RDB_OPCODE_EXPIRETIME_MS:
+                        if (first < 0) first = position;
+                        in.skip(8);
+                        break;
+                    case RDB_OPCODE_FREQ:
+                        if (first < 0) first = position;
+                        in.skip(1);
+                        break;
+                    case RDB_OPCODE_IDLE:
+                        if (first < 0) first = position;
+                        skipper.len();
+                        break;
+                    case RDB_OPCODE_SELECTDB:
+                        db = skipper.len();
+                        break;
+                    case RDB_OPCODE_RESIZEDB:
+                        skipper.len();
+                        skipper.len();
+                        break;
+                    case RDB_OPCODE_AUX:
+                        skipper.skip(RDB_TYPE_STRING);
+                        skipper.skip(RDB_TYPE_STRING);
+                        break;
+                    case RDB_OPCODE_MODULE_AUX:
+                        logger.info("{} contains module aux data, can't be scanned", file);
+                        return false;
+                    case RDB_OPCODE_EOF:
+                    case -1:
+                        return true;
+                    default:
+                        // the key starts at its first opcode, e.g. its expiry.
+                        long start = first < 0 ? position : first;
+                        first = -1;
+                        byte[] key = null;
+                        if (keys) key = skipper.readString();
+                        else skipper.skip(RDB_TYPE_STRING);
+                        skipper.skip(type);
+                        listener.onKey(start, in.position(), db, type, key);
+                        break;
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            logger.info("{} can't be scanned, reason {}", file, e.getMessage());
+            return false;
+        }
+    }
+    
+    public interface Listener {
+        /**
+         * @param start the offset of the first opcode of the key.
+         * @param end   the offset after the value.
+         * @param key   null if keys are skipped.
+         */
+        void onKey(long start, long end, long db, int type, byte[] key) throws IOException;
+    }
+}
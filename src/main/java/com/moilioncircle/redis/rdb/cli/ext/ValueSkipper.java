@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_14BITLEN;
+import static com.moilioncircle.redis.replicator.Constants.RDB_32BITLEN;
+import static com.moilioncircle.redis.replicator.Constants.RDB_64BITLEN;
+import static com.moilioncircle.redis.replicator.Constants.RDB_6BITLEN;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENCVAL;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT16;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT32;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT8;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_LZF;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPMAP;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_QUICKLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET_INTSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_STREAM_LISTPACKS;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_STRING;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_2;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_ZIPLIST;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.moilioncircle.redis.replicator.util.Lzf;
+
+/**
+ * Skips a value using only its length prefixes. unlike {@code SkipRdbParser} it allocates nothing
+ * per element, LZF blobs, ziplists, intsets and listpacks are skipped as opaque blobs.
+ * Module values are not supported since their layout is only known by the module parser.
+ *
+ * @author Baoyi Chen
+ */
+public class ValueSkipper {
+    
+    private boolean encoded;
+    private final InputStream in;
+    
+    /**
+     * @param in a stream that skips exactly n bytes on {@code skip(n)}, like {@code RedisInputStream}.
+     */
+    public ValueSkipper(InputStream in) {
+        this.in = in;
+    }
+    
+    public void skip(int type) throws IOException {
+        long len;
+        switch (type) {
+            case RDB_TYPE_STRING:
+            case RDB_TYPE_HASH_ZIPMAP:
+            case RDB_TYPE_LIST_ZIPLIST:
+            case RDB_TYPE_SET_INTSET:
+            case RDB_TYPE_ZSET_ZIPLIST:
+            case RDB_TYPE_HASH_ZIPLIST:
+                string();
+                break;
+            case RDB_TYPE_LIST:
+            case RDB_TYPE_SET:
+            case RDB_TYPE_LIST_QUICKLIST:
+                len = len();
+                while (len-- > 0) string();
+                break;
+            case RDB_TYPE_ZSET:
+                len = len();
+                while (len-- > 0) {
+                    string();
+                    score();
+                }
+                break;
+            case RDB_TYPE_ZSET_2:
+                len = len();
+                while (len-- > 0) {
+                    string();
+                    in.skip(8);
+                }
+                break;
+            case RDB_TYPE_HASH:
+                len = len();
+                while (len-- > 0) {
+                    string();
+                    string();
+                }
+                break;
+            case RDB_TYPE_STREAM_LISTPACKS:
+                stream();
+                break;
+            default:
+                throw new UnsupportedOperationException("unsupported rdb type: " + type);
+        }
+    }
+    
+    private void stream() throws IOException {
+        long listPacks = len();
+        while (listPacks-- > 0) {
+            string(); // master id
+            string(); // listpack
+        }
+        len(); // length
+        len(); // last id ms
+        len(); // last id seq
+        long groups = len();
+        while (groups-- > 0) {
+            string(); // name
+            len(); // last id ms
+            len(); // last id seq
+            long pel = len();
+            while (pel-- > 0) {
+                in.skip(16); // raw id
+                in.skip(8); // delivery time
+                len(); // delivery count
+            }
+            long consumers = len();
+            while (consumers-- > 0) {
+                string(); // name
+                in.skip(8); // seen time
+                long cpel = len();
+                while (cpel-- > 0) in.skip(16);
+            }
+        }
+    }
+    
+    /**
+     * reads a string, e.g. a key, instead of skipping it.
+     */
+    byte[] readString() throws IOException {
+        long len = len();
+        if (!encoded) return readFully(new byte[(int) len]);
+        switch ((int) len) {
+            case RDB_ENC_INT8:
+                return String.valueOf((byte) in.read()).getBytes();
+            case RDB_ENC_INT16:
+                return String.valueOf((short) (in.read() | in.read() << 8)).getBytes();
+            case RDB_ENC_INT32:
+                return String.valueOf(in.read() | in.read() << 8 | in.read() << 16 | in.read() << 24).getBytes();
+            case RDB_ENC_LZF:
+                int clen = (int) len();
+                int ulen = (int) len();
+                return Lzf.decode(readFully(new byte[clen]), ulen);
+            default:
+                throw new AssertionError("unknown RdbParser encoding type:" + len);
+        }
+    }
+    
+    private byte[] readFully(byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            int n = in.read(bytes, off, bytes.length - off);
+            if (n < 0) throw new EOFException();
+            off += n;
+        }
+        return bytes;
+    }
+    
+    private void string() throws IOException {
+        long len = len();
+        if (!encoded) {
+            in.skip(len);
+            return;
+        }
+        switch ((int) len) {
+            case RDB_ENC_INT8:
+                in.skip(1);
+                break;
+            case RDB_ENC_INT16:
+                in.skip(2);
+                break;
+            case RDB_ENC_INT32:
+                in.skip(4);
+                break;
+            case RDB_ENC_LZF:
+                long clen = len();
+                len(); // uncompressed length
+                in.skip(clen);
+                break;
+            default:
+                throw new AssertionError("unknown RdbParser encoding type:" + len);
+        }
+    }
+    
+    /*
+     * RDB_TYPE_ZSET, 253 nan, 254 +inf, 255 -inf, otherwise the length of the ascii double.
+     */
+    private void score() throws IOException {
+        int len = in.read();
+        if (len < 253) in.skip(len);
+    }
+    
+    long len() throws IOException {
+        encoded = false;
+        int b = in.read();
+        int type = (b & 0xC0) >> 6;
+        if (type == RDB_ENCVAL) {
+            encoded = true;
+            return b & 0x3F;
+        } else if (type == RDB_6BITLEN) {
+            return b & 0x3F;
+        } else if (type == RDB_14BITLEN) {
+            return ((b & 0x3F) << 8) | in.read();
+        } else if (b == RDB_32BITLEN) {
+            return read(4);
+        } else if (b == RDB_64BITLEN) {
+            return read(8);
+        } else {
+            throw new AssertionError("unexpected len-type:" + type);
+        }
+    }
+    
+    private long read(int n) throws IOException {
+        // big endian
+        long r = 0;
+        for (int i = 0; i < n; i++) r = (r << 8) | in.read();
+        return r;
+    }
+}
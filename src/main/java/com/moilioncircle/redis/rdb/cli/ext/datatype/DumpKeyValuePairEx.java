@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.moilioncircle.redis.rdb.cli.ext.datatype;
+
+import java.io.Closeable;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
+
+/**
+ * @author Baoyi Chen
+ */
+public class DumpKeyValuePairEx extends DumpKeyValuePair implements Closeable {
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * chunked dump payload, never materialized as a contiguous byte array
+     */
+    private transient ByteBuffers buffers;
+    
+    /**
+     * whether a previous attempt already sent split batches of this key
+     */
+    private transient boolean split;
+    
+    public ByteBuffers getBuffers() {
+        return buffers;
+    }
+    
+    public void setBuffers(ByteBuffers buffers) {
+        this.buffers = buffers;
+    }
+    
+    public boolean isSplit() {
+        return split;
+    }
+    
+    public void setSplit(boolean split) {
+        this.split = split;
+    }
+    
+    @Override
+    public void close() {
+        if (buffers != null) buffers.close();
+    }
+}
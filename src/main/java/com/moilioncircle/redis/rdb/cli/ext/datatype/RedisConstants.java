@@ -36,12 +36,16 @@ public class RedisConstants {
     public static final byte[] LOAD = "load".getBytes();
     public static final byte[] RPUSH = "rpush".getBytes();
     public static final byte[] HMSET = "hmset".getBytes();
+    public static final byte[] ASKING = "asking".getBytes();
     public static final byte[] SELECT = "select".getBytes();
     public static final byte[] SCRIPT = "script".getBytes();
+    public static final byte[] EVAL = "eval".getBytes();
     public static final byte[] EVALSHA = "evalsha".getBytes();
     public static final byte[] REPLACE = "replace".getBytes();
+    public static final byte[] ABSTTL = "absttl".getBytes();
     public static final byte[] RESTORE = "restore".getBytes();
     public static final byte[] EXPIREAT = "expireat".getBytes();
+    public static final byte[] PEXPIREAT = "pexpireat".getBytes();
     public static final byte[] RESTORE_ASKING = "restore-asking".getBytes();
     
     public static final ByteBuffer ONE_BUF = ByteBuffer.wrap(ONE);
@@ -61,6 +65,7 @@ public class RedisConstants {
     public static final ByteBuffer REPLACE_BUF = ByteBuffer.wrap(REPLACE);
     public static final ByteBuffer RESTORE_BUF = ByteBuffer.wrap(RESTORE);
     public static final ByteBuffer EXPIREAT_BUF = ByteBuffer.wrap(EXPIREAT);
+    public static final ByteBuffer PEXPIREAT_BUF = ByteBuffer.wrap(PEXPIREAT);
     public static final ByteBuffer RESTORE_ASKING_BUF = ByteBuffer.wrap(RESTORE_ASKING);
     
     public static final ByteBuffers ONE_BUFS = ByteBuffers.wrap(ONE);
@@ -80,5 +85,6 @@ public class RedisConstants {
     public static final ByteBuffers REPLACE_BUFS = ByteBuffers.wrap(REPLACE);
     public static final ByteBuffers RESTORE_BUFS = ByteBuffers.wrap(RESTORE);
     public static final ByteBuffers EXPIREAT_BUFS = ByteBuffers.wrap(EXPIREAT);
+    public static final ByteBuffers PEXPIREAT_BUFS = ByteBuffers.wrap(PEXPIREAT);
     public static final ByteBuffers RESTORE_ASKING_BUFS = ByteBuffers.wrap(RESTORE_ASKING);
 }
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.api.format.escape.Escaper;
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.AbstractRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DummyKeyValuePair;
+import com.moilioncircle.redis.rdb.cli.glossary.DataType;
+import com.moilioncircle.redis.rdb.cli.util.Hashes;
+import com.moilioncircle.redis.rdb.cli.util.HyperLogLog;
+import com.moilioncircle.redis.rdb.cli.util.OutputStreams;
+import com.moilioncircle.redis.replicator.Replicator;
+import com.moilioncircle.redis.replicator.event.Event;
+import com.moilioncircle.redis.replicator.event.EventListener;
+import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
+import com.moilioncircle.redis.replicator.event.PreCommandSyncEvent;
+import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
+import com.moilioncircle.redis.replicator.io.RedisInputStream;
+import com.moilioncircle.redis.replicator.rdb.BaseRdbParser;
+import com.moilioncircle.redis.replicator.rdb.datatype.ContextKeyValuePair;
+import com.moilioncircle.redis.replicator.util.ByteArray;
+
+/**
+ * Approximate distinct counts by key prefixes. every prefix of up to {@code depth} segments has
+ * HyperLogLog sketches of its keys, its next level prefixes, its set members, its sorted set members
+ * and its hash fields. the empty prefix counts every key.
+ * <p>
+ * the csv report is written to the output, and the sketches to {@code <output>.hll} so the sketches
+ * of the rdb files of several masters can be merged by {@code --merge}.
+ *
+ * @author Baoyi Chen
+ */
+public class HllRdbVisitor extends AbstractRdbVisitor implements EventListener {
+    
+    private static final Logger logger = LoggerFactory.getLogger(HllRdbVisitor.class);
+    
+    private static final int MAGIC = 0x52484C4C; // RHLL
+    private static final int KEYS = 0;
+    private static final int PREFIXES = 1;
+    private static final int SET_MEMBERS = 2;
+    private static final int ZSET_MEMBERS = 3;
+    private static final int HASH_FIELDS = 4;
+    private static final String[] DIMENSIONS = {"keys", "prefixes", "set_members", "zset_members", "hash_fields"};
+    
+    private final int depth;
+    private final File sketch;
+    private final int capacity;
+    private final int precision;
+    private final byte delimiter;
+    
+    private long untracked;
+    private final List<HyperLogLog[]> path = new ArrayList<>();
+    private final Map<String, HyperLogLog[]> sketches = new TreeMap<>();
+    
+    public HllRdbVisitor(Replicator replicator, Configure configure, File out, List<Long> db, List<String> regexs, List<DataType> types, Escaper escaper, Integer prefix, List<File> merge) {
+        super(replicator, configure, out, db, regexs, types, escaper);
+        this.depth = prefix == null ? 1 : prefix;
+        this.sketch = new File(out.getPath() + ".hll");
+        this.capacity = configure.getExportHllCapacity();
+        this.precision = configure.getExportHllPrecision();
+        this.delimiter = configure.getExportPrefixDelimiter();
+        HyperLogLog[] root = new HyperLogLog[DIMENSIONS.length];
+        root[KEYS] = new HyperLogLog(precision);
+        this.sketches.put("", root);
+        if (merge != null) for (File file : merge) load(file);
+        this.replicator.addEventListener(this);
+    }
+    
+    @Override
+    public void onEvent(Replicator replicator, Event event) {
+        if (event instanceof PreRdbSyncEvent) {
+            // prefix,dimension,estimate
+            OutputStreams.write("prefix".getBytes(), out);
+            delimiter(out);
+            OutputStreams.write("dimension".getBytes(), out);
+            delimiter(out);
+            OutputStreams.write("estimate".getBytes(), out);
+            OutputStreams.write('\n', out);
+        } else if (event instanceof PostRdbSyncEvent || event instanceof PreCommandSyncEvent) {
+            for (Map.Entry<String, HyperLogLog[]> entry : sketches.entrySet()) {
+                HyperLogLog[] node = entry.getValue();
+                for (int i = 0; i < node.length; i++) {
+                    if (node[i] == null) continue;
+                    quote(entry.getKey().getBytes(ISO_8859_1), out);
+                    delimiter(out);
+                    OutputStreams.write(DIMENSIONS[i].getBytes(), out);
+                    delimiter(out);
+                    OutputStreams.write(String.valueOf(node[i].estimate()).getBytes(), out);
+                    OutputStreams.write('\n', out);
+                }
+            }
+            if (untracked > 0) {
+                logger.warn("{} keys are out of the {} prefixes of export_hll_capacity, they are only counted in the tracked prefixes", untracked, capacity);
+            }
+            save();
+        }
+    }
+    
+    private void save() {
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sketch)))) {
+            stream.writeInt(MAGIC);
+            stream.writeByte(precision);
+            stream.writeInt(sketches.size());
+            for (Map.Entry<String, HyperLogLog[]> entry : sketches.entrySet()) {
+                byte[] prefix = entry.getKey().getBytes(ISO_8859_1);
+                stream.writeInt(prefix.length);
+                stream.write(prefix);
+                HyperLogLog[] node = entry.getValue();
+                int mask = 0;
+                for (int i = 0; i < node.length; i++) if (node[i] != null) mask |= 1 << i;
+                stream.writeByte(mask);
+                for (HyperLogLog hll : node) if (hll != null) stream.write(hll.getRegisters());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to write sketches to " + sketch + ", reason " + e.getMessage(), e);
+        }
+    }
+    
+    private void load(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a sketch file");
+            int p = in.readByte();
+            if (p != precision) throw new IOException("precision " + p + " != export_hll_precision " + precision);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] prefix = new byte[in.readInt()];
+                in.readFully(prefix);
+                HyperLogLog[] node = sketches.computeIfAbsent(new String(prefix, ISO_8859_1), k -> new HyperLogLog[DIMENSIONS.length]);
+                int mask = in.readByte();
+                for (int j = 0; j < node.length; j++) {
+                    if ((mask & (1 << j)) == 0) continue;
+                    byte[] registers = new byte[1 << p];
+                    in.readFully(registers);
+                    if (node[j] == null) node[j] = HyperLogLog.valueOf(registers);
+                    else node[j].merge(HyperLogLog.valueOf(registers));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to merge sketches of " + file + ", reason " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * counts the key in the empty prefix and its prefixes, and keeps them for the elements of the value.
+     */
+    private void key(byte[] key) {
+        path.clear();
+        long hash = Hashes.hash64(key);
+        HyperLogLog[] node = sketches.get("");
+        boolean tracked = true;
+        for (int level = 0, from = 0; ; level++) {
+            add(node, KEYS, hash);
+            int to = level < depth ? indexOf(key, from) : -1;
+            if (to < 0) break;
+            add(node, PREFIXES, Hashes.hash64(key, 0, to));
+            String prefix = new String(key, 0, to, ISO_8859_1);
+            node = sketches.get(prefix);
+            if (node == null && sketches.size() <= capacity) {
+                node = new HyperLogLog[DIMENSIONS.length];
+                sketches.put(prefix, node);
+            }
+            if (node == null) tracked = false;
+            from = to + 1;
+        }
+        if (!tracked) untracked++;
+    }
+    
+    private void element(int dimension, byte[] element) {
+        long hash = Hashes.hash64(element);
+        for (HyperLogLog[] node : path) {
+            if (node[dimension] == null) node[dimension] = new HyperLogLog(precision);
+            node[dimension].add(hash);
+        }
+    }
+    
+    private void add(HyperLogLog[] node, int dimension, long hash) {
+        if (node == null) return;
+        if (dimension == KEYS) path.add(node);
+        if (node[dimension] == null) node[dimension] = new HyperLogLog(precision);
+        node[dimension].add(hash);
+    }
+    
+    private int indexOf(byte[] key, int from) {
+        for (int i = from; i < key.length; i++) {
+            if (key[i] == delimiter) return i;
+        }
+        return -1;
+    }
+    
+    @Override
+    protected Event doApplyString(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyString(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplyList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyList(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplySet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        long len = parser.rdbLoadLen().len;
+        while (len > 0) {
+            element(SET_MEMBERS, parser.rdbLoadEncodedStringObject().first());
+            len--;
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyZSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        long len = parser.rdbLoadLen().len;
+        while (len > 0) {
+            element(ZSET_MEMBERS, parser.rdbLoadEncodedStringObject().first());
+            parser.rdbLoadDoubleValue();
+            len--;
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyZSet2(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        long len = parser.rdbLoadLen().len;
+        while (len > 0) {
+            element(ZSET_MEMBERS, parser.rdbLoadEncodedStringObject().first());
+            parser.rdbLoadBinaryDoubleValue();
+            len--;
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyHash(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        long len = parser.rdbLoadLen().len;
+        while (len > 0) {
+            element(HASH_FIELDS, parser.rdbLoadEncodedStringObject().first());
+            parser.rdbLoadEncodedStringObject();
+            len--;
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyHashZipMap(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        RedisInputStream stream = new RedisInputStream(parser.rdbLoadPlainStringObject());
+        BaseRdbParser.LenHelper.zmlen(stream); // zmlen
+        while (true) {
+            int zmEleLen = BaseRdbParser.LenHelper.zmElementLen(stream);
+            if (zmEleLen == 255) break;
+            element(HASH_FIELDS, BaseRdbParser.StringHelper.bytes(stream, zmEleLen));
+            zmEleLen = BaseRdbParser.LenHelper.zmElementLen(stream);
+            if (zmEleLen == 255) break;
+            int free = BaseRdbParser.LenHelper.free(stream);
+            BaseRdbParser.StringHelper.skip(stream, zmEleLen);
+            BaseRdbParser.StringHelper.skip(stream, free);
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyListZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyListZipList(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplySetIntSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        BaseRdbParser parser = new BaseRdbParser(in);
+        RedisInputStream stream = new RedisInputStream(parser.rdbLoadPlainStringObject());
+        int encoding = BaseRdbParser.LenHelper.encoding(stream);
+        long length = BaseRdbParser.LenHelper.lenOfContent(stream);
+        for (long i = 0; i < length; i++) {
+            switch (encoding) {
+                case 2:
+                    element(SET_MEMBERS, String.valueOf(stream.readInt(2)).getBytes());
+                    break;
+                case 4:
+                    element(SET_MEMBERS, String.valueOf(stream.readInt(4)).getBytes());
+                    break;
+                case 8:
+                    element(SET_MEMBERS, String.valueOf(stream.readLong(8)).getBytes());
+                    break;
+                default:
+                    throw new AssertionError("expect encoding [2,4,8] but:" + encoding);
+            }
+        }
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyZSetZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        zipList(new BaseRdbParser(in).rdbLoadPlainStringObject(), ZSET_MEMBERS);
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyHashZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        zipList(new BaseRdbParser(in).rdbLoadPlainStringObject(), HASH_FIELDS);
+        return context.valueOf(new DummyKeyValuePair());
+    }
+    
+    @Override
+    protected Event doApplyListQuickList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyListQuickList(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplyModule(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyModule(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplyModule2(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyModule2(in, version, key, contains, type, context);
+    }
+    
+    @Override
+    protected Event doApplyStreamListPacks(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
+        key(key);
+        return super.doApplyStreamListPacks(in, version, key, contains, type, context);
+    }
+    
+    /**
+     * the ziplist of a sorted set or a hash, the members or fields are followed by their scores or values.
+     */
+    private void zipList(ByteArray ary, int dimension) throws IOException {
+        RedisInputStream stream = new RedisInputStream(ary);
+        BaseRdbParser.LenHelper.zlbytes(stream); // zlbytes
+        BaseRdbParser.LenHelper.zltail(stream); // zltail
+        int zllen = BaseRdbParser.LenHelper.zllen(stream);
+        while (zllen > 0) {
+            element(dimension, BaseRdbParser.StringHelper.zipListEntry(stream));
+            zllen--;
+            BaseRdbParser.StringHelper.zipListEntry(stream);
+            zllen--;
+        }
+        int zlend = BaseRdbParser.LenHelper.zlend(stream);
+        if (zlend != 255) {
+            throw new AssertionError("zlend expect 255 but " + zlend);
+        }
+    }
+}
@@ -17,7 +17,10 @@
 package com.moilioncircle.redis.rdb.cli.ext.rct;
 
 import static com.moilioncircle.redis.rdb.cli.glossary.DataType.parse;
-import static com.moilioncircle.redis.replicator.Constants.RDB_LOAD_NONE;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPMAP;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_QUICKLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET_INTSET;
 import static com.moilioncircle.redis.replicator.Constants.STREAM_ITEM_FLAG_DELETED;
 import static com.moilioncircle.redis.replicator.Constants.STREAM_ITEM_FLAG_SAMEFIELDS;
 import static com.moilioncircle.redis.replicator.rdb.BaseRdbParser.StringHelper.listPackEntry;
@@ -29,6 +32,7 @@ import static java.time.ZoneId.systemDefault;
 import java.io.File;
 import java.io.IOException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -40,6 +44,7 @@ import com.moilioncircle.redis.rdb.cli.api.format.escape.Escaper;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.ext.AbstractRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.datatype.DummyKeyValuePair;
+import com.moilioncircle.redis.rdb.cli.ext.escape.JsonEscaper;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorManager;
@@ -73,23 +78,38 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     private static final Monitor monitor = MonitorFactory.getMonitor("memory_statistics");
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
 
+    private static final long QUICKLIST_BUFFER = 16 * 1024 * 1024;
+    
+    private static final int SIZE = 0;
+    private static final int ELEMENTS = 1;
+    private static final int ELEMENT_LENGTH = 2;
+    private static final int NODES = 3;
+    private static final String[] METRICS = {"size", "elements", "element_length", "nodes"};
+
     private final Long bytes;
+    private final boolean metadata;
     private MemCalculator size;
     private MonitorManager manager;
     private final CmpHeap<Tuple2Ex> heap;
+    private final PrefixTrie trie;
+    private final MemSorter sorter;
+    private final Histogram[][] histograms = new Histogram[16][METRICS.length];
     
     //
     private long totalMem = 0;
     private boolean rdb6 = true;
     private Map<Long, Tuple2<Long, Long>> dbInfo = new LinkedHashMap<>();
     
-    public MemRdbVisitor(Replicator replicator, Configure configure, File out, List<Long> db, List<String> regexs, List<DataType> types, Escaper escaper, Long largest, Long bytes) {
+    public MemRdbVisitor(Replicator replicator, Configure configure, File out, List<Long> db, List<String> regexs, List<DataType> types, Escaper escaper, Long largest, Long bytes, Integer prefix, String sort) {
         super(replicator, configure, out, db, regexs, types, escaper);
         this.bytes = bytes;
+        this.metadata = configure.isExportMemMetadata();
         this.manager = new MonitorManager(configure);
         this.manager.open("memory_statistics");
         this.heap = new CmpHeap<>(largest == null ? -1 : largest.intValue());
         this.heap.setConsumer(this);
+        this.trie = prefix == null ? null : new PrefixTrie(prefix, configure.getExportPrefixDelimiter(), configure.getExportPrefixCapacity());
+        this.sorter = sort == null ? null : new MemSorter(MemSorter.Order.parse(sort), configure);
         this.replicator.addEventListener(this);
     }
     
@@ -123,6 +143,120 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
         return com.moilioncircle.redis.rdb.cli.util.Strings.pretty(value);
     }
     
+    private Histogram histogram(int type, int metric) {
+        Histogram histogram = histograms[type][metric];
+        if (histogram == null) histogram = histograms[type][metric] = new Histogram();
+        return histogram;
+    }
+    
+    private long element(int type, boolean contains, long max, long element) {
+        if (contains) histogram(type, ELEMENT_LENGTH).add(element);
+        return Math.max(max, element);
+    }
+    
+    /**
+     * percentiles of the histograms to the monitor, and a summary section after the keys if export_mem_summary is true.
+     */
+    private void histograms() {
+        boolean summary = configure.isExportMemSummary() && !(trie != null && json());
+        if (summary) {
+            // type,encoding,metric,count,p50,p90,p99,p999,max
+            OutputStreams.write("\ntype,encoding,metric,count,p50,p90,p99,p999,max\n".getBytes(), out);
+        }
+        for (int type = 0; type < histograms.length; type++) {
+            for (int metric = 0; metric < METRICS.length; metric++) {
+                Histogram histogram = histograms[type][metric];
+                if (histogram == null || histogram.count == 0) continue;
+                String name = parse(type).getValue() + "_" + DataType.type(type);
+                long[] values = {histogram.percentile(0.5), histogram.percentile(0.9), histogram.percentile(0.99), histogram.percentile(0.999), histogram.max};
+                String[] labels = {"p50", "p90", "p99", "p999", "max"};
+                for (int i = 0; i < values.length; i++) {
+                    monitor.set(METRICS[metric] + "_" + labels[i] + "_" + name, values[i]);
+                }
+                if (!summary) continue;
+                OutputStreams.write(parse(type).getValue().getBytes(), out);
+                delimiter(out);
+                OutputStreams.write(DataType.type(type).getBytes(), out);
+                delimiter(out);
+                OutputStreams.write(METRICS[metric].getBytes(), out);
+                delimiter(out);
+                OutputStreams.write(String.valueOf(histogram.count).getBytes(), out);
+                for (long value : values) {
+                    delimiter(out);
+                    OutputStreams.write(String.valueOf(value).getBytes(), out);
+                }
+                OutputStreams.write('\n', out);
+            }
+        }
+    }
+    
+    private boolean json() {
+        return "json".equalsIgnoreCase(configure.getExportPrefixFormat());
+    }
+    
+    private void prefixesHeader() {
+        if (json()) {
+            OutputStreams.write('[', out);
+            return;
+        }
+        // database,prefix,depth,size_in_bytes,num_keys,num_elements,avg_size,avg_elements,expiry_keys,ttl_coverage,error
+        String[] columns = {"database", "prefix", "depth", "size_in_bytes", "num_keys", "num_elements", "avg_size", "avg_elements", "expiry_keys", "ttl_coverage", "error"};
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) delimiter(out);
+            OutputStreams.write(columns[i].getBytes(), out);
+        }
+        OutputStreams.write('\n', out);
+    }
+    
+    private void prefixes() {
+        boolean json = json();
+        JsonEscaper escaper = new JsonEscaper();
+        boolean[] first = {true};
+        trie.forEach(node -> {
+            long keys = Math.max(node.getKeys(), 1);
+            String coverage = String.format("%.2f", node.getExpires() * 100d / keys);
+            if (json) {
+                OutputStreams.write((first[0] ? "\n" : ",\n").getBytes(), out);
+                first[0] = false;
+                OutputStreams.write(("{\"database\":" + node.getDb() + ",\"prefix\":\"").getBytes(), out);
+                escaper.encode(node.getPrefix(), out);
+                OutputStreams.write(("\",\"depth\":" + node.getLevel()
+                        + ",\"size_in_bytes\":" + node.getMemory()
+                        + ",\"num_keys\":" + node.getKeys()
+                        + ",\"num_elements\":" + node.getElements()
+                        + ",\"avg_size\":" + node.getMemory() / keys
+                        + ",\"avg_elements\":" + node.getElements() / keys
+                        + ",\"expiry_keys\":" + node.getExpires()
+                        + ",\"ttl_coverage\":" + coverage
+                        + ",\"error\":" + node.getError() + "}").getBytes(), out);
+                return;
+            }
+            OutputStreams.write(String.valueOf(node.getDb()).getBytes(), out);
+            delimiter(out);
+            quote(node.getPrefix(), out);
+            delimiter(out);
+            OutputStreams.write(String.valueOf(node.getLevel()).getBytes(), out);
+            delimiter(out);
+            quote(pretty(node.getMemory()).getBytes(), out, false);
+            delimiter(out);
+            OutputStreams.write(String.valueOf(node.getKeys()).getBytes(), out);
+            delimiter(out);
+            OutputStreams.write(String.valueOf(node.getElements()).getBytes(), out);
+            delimiter(out);
+            quote(pretty(node.getMemory() / keys).getBytes(), out, false);
+            delimiter(out);
+            OutputStreams.write(String.valueOf(node.getElements() / keys).getBytes(), out);
+            delimiter(out);
+            OutputStreams.write(String.valueOf(node.getExpires()).getBytes(), out);
+            delimiter(out);
+            OutputStreams.write(coverage.getBytes(), out);
+            delimiter(out);
+            quote(pretty(node.getError()).getBytes(), out, false);
+            OutputStreams.write('\n', out);
+        });
+        if (json) OutputStreams.write("\n]\n".getBytes(), out);
+    }
+    
     @Override
     public void onEvent(Replicator replicator, Event event) {
         if (event instanceof DummyKeyValuePair) {
@@ -146,14 +280,37 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
             
             if (!dkv.isContains() || dkv.getKey() == null) return;
             dkv.setValue(dkv.getValue() + size.object(dkv.getKey(), dkv.getExpiredType() != NONE));
+            histogram(dkv.getValueRdbType(), SIZE).add(dkv.getValue());
+            histogram(dkv.getValueRdbType(), ELEMENTS).add(dkv.getLength());
+            if (trie != null) {
+                long dbnum = dkv.getDb() == null ? 0 : dkv.getDb().getDbNumber();
+                trie.add(dbnum, dkv.getKey(), dkv.getValue(), dkv.getLength(), dkv.getExpiredType() != NONE);
+                return;
+            }
             if (bytes == null || dkv.getValue() >= bytes) {
-                Tuple2Ex tuple = new Tuple2Ex(dkv.getValue(), dkv);
-                heap.add(tuple);
+                if (sorter != null) {
+                    sorter.add(dkv);
+                } else {
+                    Tuple2Ex tuple = new Tuple2Ex(dkv.getValue(), dkv);
+                    heap.add(tuple);
+                }
             }
         } else if (event instanceof PostRdbSyncEvent || event instanceof PreCommandSyncEvent) {
-            for (Tuple2Ex tuple : heap.get(true)) {
-                accept(tuple);
+            if (trie != null) {
+                prefixes();
+            } else {
+                for (Tuple2Ex tuple : heap.get(true)) {
+                    accept(tuple);
+                }
+            }
+            if (sorter != null) {
+                try {
+                    sorter.forEach(kv -> accept(new Tuple2Ex(kv.getValue(), kv)));
+                } finally {
+                    sorter.close();
+                }
             }
+            histograms();
     
             if (rdb6) {
                 monitor.set("total_memory", totalMem);
@@ -164,6 +321,11 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
             }
             MonitorManager.closeQuietly(manager);
         } else if (event instanceof PreRdbSyncEvent) {
+            if (trie != null) {
+                prefixesHeader();
+                manager.reset("memory_statistics");
+                return;
+            }
             // header
             // database,type,key,size_in_bytes,encoding,num_elements,len_largest_element
             OutputStreams.write("database".getBytes(), out);
@@ -211,15 +373,15 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplyString(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        byte[] val = parser.rdbLoadEncodedStringObject().first();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        scanner.string();
         DummyKeyValuePair kv = new DummyKeyValuePair();
         kv.setValueRdbType(type);
         kv.setKey(key);
-        kv.setValue(size.string(val));
+        kv.setValue(scanner.getString());
         kv.setContains(contains);
         kv.setLength(1);
-        kv.setMax(size.element(val));
+        kv.setMax(scanner.getElement());
         monitor.add("count_string", 1, System.nanoTime() - mark);
         monitor.add("memory_string", kv.getValue());
         return context.valueOf(kv);
@@ -229,14 +391,15 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplyList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long length = len;
         long val = size.linkedlist();
         long max = 0;
         while (len > 0) {
-            byte[] element = parser.rdbLoadEncodedStringObject().first();
-            max = Math.max(max, size.element(element));
-            val += size.string(element) + size.linkedlistEntry();
+            scanner.string();
+            max = element(type, contains, max, scanner.getElement());
+            val += scanner.getString() + size.linkedlistEntry();
             if (version < 8) val += size.robj();
             len--;
         }
@@ -256,14 +419,15 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplySet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long length = len;
         long val = size.hash(len);
         long max = 0;
         while (len > 0) {
-            byte[] element = parser.rdbLoadEncodedStringObject().first();
-            max = Math.max(max, size.element(element));
-            val += size.hashEntry() + size.string(element);
+            scanner.string();
+            max = element(type, contains, max, scanner.getElement());
+            val += size.hashEntry() + scanner.getString();
             if (version < 8) val += 2 * size.robj();
             len--;
         }
@@ -283,15 +447,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplyZSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long length = 0;
         long val = size.skiplist(len);
         long max = 0;
         while (len > 0) {
-            byte[] element = parser.rdbLoadEncodedStringObject().first();
+            scanner.string();
             parser.rdbLoadDoubleValue();
-            max = Math.max(max, size.element(element));
-            val += 8 + size.string(element) + size.skiplistEntry();
+            max = element(type, contains, max, scanner.getElement());
+            val += 8 + scanner.getString() + size.skiplistEntry();
             if (version < 8) val += size.robj();
             len--;
             length++;
@@ -312,15 +477,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplyZSet2(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long length = 0;
         long val = size.skiplist(len);
         long max = 0;
         while (len > 0) {
-            byte[] element = parser.rdbLoadEncodedStringObject().first();
+            scanner.string();
             parser.rdbLoadBinaryDoubleValue();
-            max = Math.max(max, size.element(element));
-            val += 8 + size.string(element) + size.skiplistEntry();
+            max = element(type, contains, max, scanner.getElement());
+            val += 8 + scanner.getString() + size.skiplistEntry();
             if (version < 8) val += size.robj();
             len--;
             length++;
@@ -341,16 +507,18 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplyHash(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long length = 0;
         long val = size.hash(len);
         long max = 0;
         while (len > 0) {
-            byte[] field = parser.rdbLoadEncodedStringObject().first();
-            byte[] value = parser.rdbLoadEncodedStringObject().first();
-            max = Math.max(max, size.element(field));
-            max = Math.max(max, size.element(value));
-            val += size.string(field) + size.string(value) + size.hashEntry();
+            scanner.string();
+            max = element(type, contains, max, scanner.getElement());
+            val += scanner.getString();
+            scanner.string();
+            max = element(type, contains, max, scanner.getElement());
+            val += scanner.getString() + size.hashEntry();
             if (version < 8) val += 2 * size.robj();
             len--;
             length++;
@@ -370,8 +538,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplyHashZipMap(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        ByteArray ary = parser.rdbLoadPlainStringObject();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        MemScanner.Blob blob = scanner.blob();
+        if (!isReported(key, contains, blob.getLength())) {
+            long length = length(scanner, blob, contains, type);
+            if (length >= 0) {
+                scanner.skip(blob);
+                return context.valueOf(unreported(type, key, contains, blob.getLength(), length, "hash", mark));
+            }
+        }
+        ByteArray ary = scanner.decode(blob);
         RedisInputStream stream = new RedisInputStream(ary);
         long max = 0;
         long length = 0;
@@ -408,8 +584,8 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
             int free = BaseRdbParser.LenHelper.free(stream);
             byte[] value = BaseRdbParser.StringHelper.bytes(stream, zmEleLen);
             BaseRdbParser.StringHelper.skip(stream, free);
-            max = Math.max(max, size.element(field));
-            max = Math.max(max, size.element(value));
+            max = element(type, contains, max, size.element(field));
+            max = element(type, contains, max, size.element(value));
             length++;
         }
     }
@@ -417,8 +593,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplyListZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        ByteArray ary = parser.rdbLoadPlainStringObject();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        MemScanner.Blob blob = scanner.blob();
+        if (!isReported(key, contains, blob.getLength())) {
+            long length = length(scanner, blob, contains, type);
+            if (length >= 0) {
+                scanner.skip(blob);
+                return context.valueOf(unreported(type, key, contains, blob.getLength(), length, "list", mark));
+            }
+        }
+        ByteArray ary = scanner.decode(blob);
         RedisInputStream stream = new RedisInputStream(ary);
         long max = 0;
         BaseRdbParser.LenHelper.zlbytes(stream); // zlbytes
@@ -426,7 +610,7 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
         int length = BaseRdbParser.LenHelper.zllen(stream);
         for (int i = 0; i < length; i++) {
             byte[] e = BaseRdbParser.StringHelper.zipListEntry(stream);
-            max = Math.max(max, size.element(e));
+            max = element(type, contains, max, size.element(e));
         }
         int zlend = BaseRdbParser.LenHelper.zlend(stream);
         if (zlend != 255) {
@@ -447,8 +631,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplySetIntSet(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        ByteArray ary = parser.rdbLoadPlainStringObject();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        MemScanner.Blob blob = scanner.blob();
+        if (!isReported(key, contains, blob.getLength())) {
+            long length = length(scanner, blob, contains, type);
+            if (length >= 0) {
+                scanner.skip(blob);
+                return context.valueOf(unreported(type, key, contains, blob.getLength(), length, "set", mark));
+            }
+        }
+        ByteArray ary = scanner.decode(blob);
         RedisInputStream stream = new RedisInputStream(ary);
         long max = 0;
         int encoding = BaseRdbParser.LenHelper.encoding(stream);
@@ -468,7 +660,7 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
                 default:
                     throw new AssertionError("expect encoding [2,4,8] but:" + encoding);
             }
-            max = Math.max(max, size.element(element.getBytes()));
+            max = element(type, contains, max, size.element(element.getBytes()));
         }
         DummyKeyValuePair kv = new DummyKeyValuePair();
         kv.setValueRdbType(type);
@@ -485,8 +677,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplyZSetZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        ByteArray ary = parser.rdbLoadPlainStringObject();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        MemScanner.Blob blob = scanner.blob();
+        if (!isReported(key, contains, blob.getLength())) {
+            long length = length(scanner, blob, contains, type);
+            if (length >= 0) {
+                scanner.skip(blob);
+                return context.valueOf(unreported(type, key, contains, blob.getLength(), length, "zset", mark));
+            }
+        }
+        ByteArray ary = scanner.decode(blob);
         RedisInputStream stream = new RedisInputStream(ary);
         long max = 0;
         long length = 0;
@@ -498,7 +698,7 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
             zllen--;
             BaseRdbParser.StringHelper.zipListEntry(stream);
             zllen--;
-            max = Math.max(max, size.element(element));
+            max = element(type, contains, max, size.element(element));
             length++;
         }
         int zlend = BaseRdbParser.LenHelper.zlend(stream);
@@ -520,8 +720,16 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     @Override
     protected Event doApplyHashZipList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
-        BaseRdbParser parser = new BaseRdbParser(in);
-        ByteArray ary = parser.rdbLoadPlainStringObject();
+        MemScanner scanner = new MemScanner(in, size, metadata);
+        MemScanner.Blob blob = scanner.blob();
+        if (!isReported(key, contains, blob.getLength())) {
+            long length = length(scanner, blob, contains, type);
+            if (length >= 0) {
+                scanner.skip(blob);
+                return context.valueOf(unreported(type, key, contains, blob.getLength(), length, "hash", mark));
+            }
+        }
+        ByteArray ary = scanner.decode(blob);
         RedisInputStream stream = new RedisInputStream(ary);
         long max = 0;
         long length = 0;
@@ -533,8 +741,8 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
             zllen--;
             byte[] value = BaseRdbParser.StringHelper.zipListEntry(stream);
             zllen--;
-            max = Math.max(max, size.element(field));
-            max = Math.max(max, size.element(value));
+            max = element(type, contains, max, size.element(field));
+            max = element(type, contains, max, size.element(value));
             length++;
         }
         int zlend = BaseRdbParser.LenHelper.zlend(stream);
@@ -557,35 +765,59 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
     protected Event doApplyListQuickList(RedisInputStream in, int version, byte[] key, boolean contains, int type, ContextKeyValuePair context) throws IOException {
         long mark = System.nanoTime();
         BaseRdbParser parser = new BaseRdbParser(in);
+        MemScanner scanner = new MemScanner(in, size, metadata);
         long len = parser.rdbLoadLen().len;
         long val = 0;
-        long max = 0;
-        long length = 0;
+        long buffered = 0;
+        long[] stat = new long[2]; // length, max
+        long counted = 0; // elements of the buffered nodes, -1 if a node has to be decoded to count them
+        boolean decode = !metadata;
+        List<MemScanner.Blob> nodes = new ArrayList<>();
         for (long i = 0; i < len; i++) {
-            ByteArray ary = parser.rdbGenericLoadStringObject(RDB_LOAD_NONE);
-            RedisInputStream stream = new RedisInputStream(ary);
-            val += ary.length();
-            BaseRdbParser.LenHelper.zlbytes(stream); // zlbytes
-            BaseRdbParser.LenHelper.zltail(stream); // zltail
-            int zllen = BaseRdbParser.LenHelper.zllen(stream);
-            for (int j = 0; j < zllen; j++) {
-                byte[] e = BaseRdbParser.StringHelper.zipListEntry(stream);
-                max = Math.max(max, size.element(e));
-                length++;
-            }
-            int zlend = BaseRdbParser.LenHelper.zlend(stream);
-            if (zlend != 255) {
-                throw new AssertionError("zlend expect 255 but " + zlend);
+            MemScanner.Blob blob = scanner.blob();
+            val += blob.getLength();
+            if (decode) {
+                quickListNode(scanner.decode(blob), stat, contains);
+            } else if (!contains) {
+                scanner.skip(blob);
+            } else if (trie != null) {
+                // only the number of elements is needed
+                long n = length(scanner, blob, true, RDB_TYPE_LIST_ZIPLIST);
+                if (n >= 0) {
+                    stat[0] += n;
+                    scanner.skip(blob);
+                } else {
+                    quickListNode(scanner.decode(blob), stat, contains);
+                }
+            } else if ((buffered += blob.getStored()) <= QUICKLIST_BUFFER) {
+                // the size is unknown until the last node, keep the nodes compressed till then
+                long n = length(scanner, blob, true, RDB_TYPE_LIST_ZIPLIST);
+                counted = n < 0 || counted < 0 ? -1 : counted + n;
+                scanner.read(blob);
+                nodes.add(blob);
+            } else {
+                decode = true;
+                for (MemScanner.Blob node : nodes) quickListNode(scanner.decode(node), stat, contains);
+                nodes.clear();
+                quickListNode(scanner.decode(blob), stat, contains);
             }
         }
         val += size.quicklist(len);
+        if (contains) histogram(type, NODES).add(len);
+        if (!nodes.isEmpty()) {
+            if (counted < 0 || isReported(key, contains, val)) {
+                for (MemScanner.Blob node : nodes) quickListNode(scanner.decode(node), stat, contains);
+            } else {
+                stat[0] += counted;
+            }
+        }
         DummyKeyValuePair kv = new DummyKeyValuePair();
         kv.setValueRdbType(type);
         kv.setKey(key);
         kv.setValue(val);
         kv.setContains(contains);
-        kv.setLength(length);
-        kv.setMax(max);
+        kv.setLength(stat[0]);
+        kv.setMax(stat[1]);
         monitor.add("count_list", 1, System.nanoTime() - mark);
         monitor.add("memory_list", kv.getValue());
         return context.valueOf(kv);
@@ -669,8 +901,8 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
                         for (int i = 0; i < numFields; i++) {
                             byte[] value = listPackEntry(listPack);
                             byte[] field = tempFields[i];
-                            max = Math.max(max, size.element(value));
-                            max = Math.max(max, size.element(field));
+                            max = element(type, contains, max, size.element(value));
+                            max = element(type, contains, max, size.element(field));
                             if (!delete) length++;
                         }
                     } else {
@@ -678,8 +910,8 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
                         for (int i = 0; i < numFields; i++) {
                             byte[] field = listPackEntry(listPack);
                             byte[] value = listPackEntry(listPack);
-                            max = Math.max(max, size.element(value));
-                            max = Math.max(max, size.element(field));
+                            max = element(type, contains, max, size.element(value));
+                            max = element(type, contains, max, size.element(field));
                             if (!delete) length++;
                         }
                     }
@@ -730,6 +962,70 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
         return context.valueOf(kv);
     }
     
+    private void quickListNode(ByteArray ary, long[] stat, boolean contains) throws IOException {
+        RedisInputStream stream = new RedisInputStream(ary);
+        BaseRdbParser.LenHelper.zlbytes(stream); // zlbytes
+        BaseRdbParser.LenHelper.zltail(stream); // zltail
+        int zllen = BaseRdbParser.LenHelper.zllen(stream);
+        for (int j = 0; j < zllen; j++) {
+            byte[] e = BaseRdbParser.StringHelper.zipListEntry(stream);
+            stat[1] = element(RDB_TYPE_LIST_QUICKLIST, contains, stat[1], size.element(e));
+            stat[0]++;
+        }
+        int zlend = BaseRdbParser.LenHelper.zlend(stream);
+        if (zlend != 255) {
+            throw new AssertionError("zlend expect 255 but " + zlend);
+        }
+    }
+    
+    /**
+     * the elements of a value are only needed for len_largest_element, in metadata mode they are
+     * decoded only if the key may be exported. {@code value} is the memory of the value without the key,
+     * the expiry is counted so the final size never exceeds the estimation. the prefixes need no elements.
+     */
+    private boolean isReported(byte[] key, boolean contains, long value) {
+        if (!metadata) return true;
+        if (!contains || key == null || trie != null) return false;
+        long total = value + size.object(key, true);
+        if (bytes != null && total < bytes) return false;
+        Tuple2Ex min = heap.min();
+        return min == null || min.getV1() < total;
+    }
+    
+    /**
+     * the number of elements is always needed by the elements histogram, even if the key is not reported.
+     *
+     * @return the number of elements in the header of the blob, -1 if the blob has to be decoded to count them.
+     */
+    private long length(MemScanner scanner, MemScanner.Blob blob, boolean contains, int type) throws IOException {
+        if (!contains) return 0;
+        switch (type) {
+            case RDB_TYPE_HASH_ZIPMAP:
+                int zmlen = scanner.header(blob, 1)[0] & 0xFF;
+                return zmlen < 254 ? zmlen : -1;
+            case RDB_TYPE_SET_INTSET:
+                byte[] intset = scanner.header(blob, 8);
+                return (intset[4] & 0xFFL) | (intset[5] & 0xFFL) << 8 | (intset[6] & 0xFFL) << 16 | (intset[7] & 0xFFL) << 24;
+            default:
+                byte[] ziplist = scanner.header(blob, 10);
+                int zllen = (ziplist[8] & 0xFF) | (ziplist[9] & 0xFF) << 8;
+                if (zllen == 0xFFFF) return -1;
+                return type == RDB_TYPE_LIST_ZIPLIST ? zllen : zllen / 2;
+        }
+    }
+    
+    private DummyKeyValuePair unreported(int type, byte[] key, boolean contains, long value, long length, String name, long mark) {
+        DummyKeyValuePair kv = new DummyKeyValuePair();
+        kv.setValueRdbType(type);
+        kv.setKey(key);
+        kv.setValue(value);
+        kv.setContains(contains);
+        kv.setLength(length);
+        monitor.add("count_" + name, 1, System.nanoTime() - mark);
+        monitor.add("memory_" + name, kv.getValue());
+        return kv;
+    }
+    
     private static class LengthRawByteListener implements RawByteListener {
         private long length;
         
@@ -739,6 +1035,47 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
         }
     }
     
+    /**
+     * log2 buckets with 4 sub buckets each, a percentile is the upper bound of its bucket so it is
+     * at most 25% over the exact value. values under 4 are exact.
+     */
+    public static class Histogram {
+        
+        private long max;
+        private long count;
+        private final long[] buckets = new long[64 << 2];
+        
+        public void add(long value) {
+            if (value < 0) value = 0;
+            buckets[index(value)]++;
+            max = Math.max(max, value);
+            count++;
+        }
+        
+        public long percentile(double p) {
+            long rank = Math.max((long) Math.ceil(p * count), 1);
+            for (int i = 0; i < buckets.length; i++) {
+                rank -= buckets[i];
+                if (rank <= 0) return Math.min(upper(i), max);
+            }
+            return max;
+        }
+        
+        private static int index(long value) {
+            if (value < 4) return (int) value;
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - 2)) & 3;
+            return ((exp - 1) << 2) + sub;
+        }
+        
+        private static long upper(int index) {
+            if (index < 4) return index;
+            int exp = (index >> 2) + 1;
+            long upper = ((4L + (index & 3) + 1) << (exp - 2)) - 1;
+            return upper < 0 ? Long.MAX_VALUE : upper;
+        }
+    }
+    
     public static class MemCalculator {
         
         private int version;
@@ -760,7 +1097,14 @@ public class MemRdbVisitor extends AbstractRdbVisitor implements Consumer<Tuple2
                     return 0;
                 }
             }
-            long len = bytes.length;
+            return string((long) bytes.length);
+        }
+        
+        /**
+         * @param len the length of a string that is not an integer.
+         * @return the memory of the sds.
+         */
+        public long string(long len) {
             if (version < 7) {
                 return malloc(len + 8 + 1);
             }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT16;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT32;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_INT8;
+import static com.moilioncircle.redis.replicator.Constants.RDB_ENC_LZF;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.moilioncircle.redis.rdb.cli.ext.rct.MemRdbVisitor.MemCalculator;
+import com.moilioncircle.redis.replicator.io.RedisInputStream;
+import com.moilioncircle.redis.replicator.rdb.BaseRdbParser;
+import com.moilioncircle.redis.replicator.util.ByteArray;
+import com.moilioncircle.redis.replicator.util.Lzf;
+
+/**
+ * Reads the string objects of a value for {@link MemRdbVisitor}. in metadata mode the sizes are
+ * computed from the length headers: a LZF payload is skipped by its compressed length and sized by
+ * its uncompressed length, a raw payload is read only if it is short enough to be an integer. a
+ * ziplist, intset or zipmap blob is decoded only if the caller needs its elements.
+ *
+ * @author Baoyi Chen
+ */
+public class MemScanner {
+    
+    /**
+     * redis never saves an integer as a string longer than 20 bytes, and only compresses longer strings.
+     */
+    private static final int MAX_INTEGER_LENGTH = 20;
+    
+    private long string;
+    private long element;
+    private final boolean metadata;
+    private final MemCalculator size;
+    private final RedisInputStream in;
+    private final BaseRdbParser parser;
+    
+    public MemScanner(RedisInputStream in, MemCalculator size, boolean metadata) {
+        this.in = in;
+        this.size = size;
+        this.metadata = metadata;
+        this.parser = new BaseRdbParser(in);
+    }
+    
+    /**
+     * @return {@link MemCalculator#string(byte[])} of the last string object.
+     */
+    public long getString() {
+        return string;
+    }
+    
+    /**
+     * @return {@link MemCalculator#element(byte[])} of the last string object.
+     */
+    public long getElement() {
+        return element;
+    }
+    
+    public void string() throws IOException {
+        if (!metadata) {
+            sizeOf(parser.rdbLoadEncodedStringObject().first());
+            return;
+        }
+        BaseRdbParser.Len len = parser.rdbLoadLen();
+        if (!len.encoded) {
+            if (len.len <= MAX_INTEGER_LENGTH) {
+                sizeOf(readFully(new byte[(int) len.len]));
+            } else {
+                in.skip(len.len);
+                sizeOf(len.len);
+            }
+            return;
+        }
+        switch ((int) len.len) {
+            case RDB_ENC_INT8:
+                in.skip(1);
+                integer();
+                break;
+            case RDB_ENC_INT16:
+                in.skip(2);
+                integer();
+                break;
+            case RDB_ENC_INT32:
+                in.skip(4);
+                integer();
+                break;
+            case RDB_ENC_LZF:
+                long clen = parser.rdbLoadLen().len;
+                long ulen = parser.rdbLoadLen().len;
+                in.skip(clen);
+                sizeOf(ulen);
+                break;
+            default:
+                throw new AssertionError("unknown RdbParser encoding type:" + len.len);
+        }
+    }
+    
+    /**
+     * reads the header of a ziplist, intset, zipmap or listpack blob, the whole blob if not in metadata mode.
+     */
+    public Blob blob() throws IOException {
+        if (!metadata) return new Blob(parser.rdbLoadPlainStringObject());
+        BaseRdbParser.Len len = parser.rdbLoadLen();
+        if (!len.encoded) return new Blob(len.len, len.len, false);
+        if (len.len != RDB_ENC_LZF) throw new AssertionError("unexpected blob encoding type:" + len.len);
+        long clen = parser.rdbLoadLen().len;
+        long ulen = parser.rdbLoadLen().len;
+        return new Blob(ulen, clen, true);
+    }
+    
+    /**
+     * decodes the first {@code n} bytes of the blob in metadata mode, a LZF blob is decoded only till then.
+     */
+    public byte[] header(Blob blob, int n) throws IOException {
+        byte[] r = new byte[(int) Math.min(n, blob.length)];
+        if (!blob.compressed) {
+            for (int i = 0; i < r.length; i++) r[i] = (byte) next(blob);
+            return r;
+        }
+        int op = 0;
+        while (op < r.length) {
+            int ctrl = next(blob);
+            if (ctrl < 32) {
+                // literal run
+                for (int i = 0; i <= ctrl && op < r.length; i++) r[op++] = (byte) next(blob);
+            } else {
+                // back reference
+                int len = ctrl >> 5;
+                int ref = op - ((ctrl & 0x1F) << 8) - 1;
+                if (len == 7) len += next(blob);
+                ref -= next(blob);
+                len += 2;
+                if (ref < 0) throw new AssertionError("invalid LZF back reference:" + ref);
+                for (int i = 0; i < len && op < r.length; i++) r[op++] = r[ref++];
+            }
+        }
+        return r;
+    }
+    
+    /**
+     * reads the stored bytes of the blob without decoding them, to decode them later.
+     */
+    public void read(Blob blob) throws IOException {
+        if (blob.ary != null || blob.bytes != null) return;
+        byte[] bytes = new byte[(int) blob.stored];
+        System.arraycopy(blob.head, 0, bytes, 0, blob.consumed);
+        blob.bytes = readFully(bytes, blob.consumed);
+    }
+    
+    public void skip(Blob blob) throws IOException {
+        if (blob.ary != null || blob.bytes != null) return;
+        in.skip(blob.stored - blob.consumed);
+    }
+    
+    public ByteArray decode(Blob blob) throws IOException {
+        if (blob.ary != null) return blob.ary;
+        read(blob);
+        blob.ary = new ByteArray(blob.compressed ? Lzf.decode(blob.bytes, (int) blob.length) : blob.bytes);
+        blob.bytes = null;
+        return blob.ary;
+    }
+    
+    private void sizeOf(byte[] value) {
+        this.string = size.string(value);
+        this.element = size.element(value);
+    }
+    
+    private void integer() {
+        // same as an integer string, shared or embedded in the robj
+        this.string = 0;
+        this.element = 8;
+    }
+    
+    private void sizeOf(long length) {
+        this.string = size.string(length);
+        this.element = length;
+    }
+    
+    private int next(Blob blob) throws IOException {
+        if (blob.consumed >= blob.stored) throw new EOFException();
+        int b = in.read();
+        if (b < 0) throw new EOFException();
+        if (blob.consumed == blob.head.length) blob.head = Arrays.copyOf(blob.head, blob.head.length << 1);
+        blob.head[blob.consumed++] = (byte) b;
+        return b;
+    }
+    
+    private byte[] readFully(byte[] bytes) throws IOException {
+        return readFully(bytes, 0);
+    }
+    
+    private byte[] readFully(byte[] bytes, int off) throws IOException {
+        while (off < bytes.length) {
+            int n = in.read(bytes, off, bytes.length - off);
+            if (n < 0) throw new EOFException();
+            off += n;
+        }
+        return bytes;
+    }
+    
+    public static class Blob {
+        private ByteArray ary;
+        private byte[] bytes;
+        private int consumed;
+        private byte[] head = new byte[16];
+        private final long length;
+        private final long stored;
+        private final boolean compressed;
+        
+        private Blob(ByteArray ary) {
+            this(ary.length(), ary.length(), false);
+            this.ary = ary;
+        }
+        
+        private Blob(long length, long stored, boolean compressed) {
+            this.length = length;
+            this.stored = stored;
+            this.compressed = compressed;
+        }
+        
+        /**
+         * @return the uncompressed length.
+         */
+        public long getLength() {
+            return length;
+        }
+        
+        /**
+         * @return the length in the rdb file.
+         */
+        public long getStored() {
+            return stored;
+        }
+    }
+}
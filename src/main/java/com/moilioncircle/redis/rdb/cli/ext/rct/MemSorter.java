@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DummyKeyValuePair;
+import com.moilioncircle.redis.replicator.rdb.datatype.DB;
+import com.moilioncircle.redis.replicator.rdb.datatype.ExpiredType;
+
+/**
+ * External merge sort of the rows of {@code rct -f mem}. the rows are appended to a buffer of
+ * {@code export_sort_buffer_size} bytes in a compact binary format, a full buffer is sorted and
+ * spilled to a temp file under {@code temp_file_path}, then the sorted runs are merged. the heap
+ * usage is bounded by the buffer and the read buffers of the merged runs.
+ * <p>
+ * row: length(4) size(8) elements(8) max(8) db(8) type(1) expiry type(1) expiry(8) key(length - 42)
+ *
+ * @author Baoyi Chen
+ */
+public class MemSorter implements Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MemSorter.class);
+    
+    private static final int HEADER = 42;
+    private static final int FAN_IN = 128;
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final ExpiredType[] EXPIRED_TYPES = ExpiredType.values();
+    
+    private final Order order;
+    private final File path;
+    private final String prefix;
+    
+    private int size;
+    private byte[] buf;
+    private int count;
+    private int[] rows = new int[1024];
+    private final List<File> runs = new ArrayList<>();
+    
+    public MemSorter(Order order, Configure configure) {
+        this.order = order;
+        this.buf = new byte[configure.getExportSortBufferSize()];
+        this.prefix = configure.getTempFilePrefix();
+        String path = configure.getTempFilePath();
+        this.path = new File(path == null ? System.getProperty("java.io.tmpdir") : path);
+    }
+    
+    public void add(DummyKeyValuePair kv) {
+        byte[] key = kv.getKey();
+        int len = 4 + HEADER + key.length;
+        if (size + len > buf.length) {
+            if (count > 0) spill();
+            if (len > buf.length) buf = new byte[len];
+        }
+        if (count == rows.length) rows = Arrays.copyOf(rows, count << 1);
+        rows[count++] = size;
+        size = putInt(buf, size, HEADER + key.length);
+        size = putLong(buf, size, kv.getValue());
+        size = putLong(buf, size, kv.getLength());
+        size = putLong(buf, size, kv.getMax());
+        size = putLong(buf, size, kv.getDb() == null ? 0 : kv.getDb().getDbNumber());
+        buf[size++] = (byte) kv.getValueRdbType();
+        ExpiredType expiry = kv.getExpiredType() == null ? ExpiredType.NONE : kv.getExpiredType();
+        buf[size++] = (byte) expiry.ordinal();
+        size = putLong(buf, size, kv.getExpiredValue() == null ? 0 : kv.getExpiredValue());
+        System.arraycopy(key, 0, buf, size, key.length);
+        size += key.length;
+    }
+    
+    /**
+     * sends the rows in order, merging the spilled runs if any.
+     */
+    public void forEach(Consumer<DummyKeyValuePair> consumer) {
+        if (runs.isEmpty()) {
+            sort(0, count - 1);
+            for (int i = 0; i < count; i++) consumer.accept(row(buf, rows[i]));
+            count = size = 0;
+            return;
+        }
+        if (count > 0) spill();
+        buf = null;
+        rows = null;
+        try {
+            // merge FAN_IN runs at a time, so the open files and read buffers stay bounded.
+            while (runs.size() > FAN_IN) {
+                List<File> group = new ArrayList<>(runs.subList(0, FAN_IN));
+                runs.subList(0, FAN_IN).clear();
+                File run = temp();
+                try (DataOutputStream out = output(run)) {
+                    merge(group, row -> write(out, row, 0));
+                }
+                runs.add(run);
+            }
+            merge(runs, row -> consumer.accept(row(row, 0)));
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public void close() {
+        for (File run : runs) delete(run);
+        runs.clear();
+    }
+    
+    private void spill() {
+        sort(0, count - 1);
+        try {
+            File run = temp();
+            try (DataOutputStream out = output(run)) {
+                for (int i = 0; i < count; i++) write(out, buf, rows[i]);
+            }
+            runs.add(run);
+            logger.info("spilled {} rows to {}", count, run);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        count = size = 0;
+    }
+    
+    private void merge(List<File> files, Consumer<byte[]> consumer) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(files.size(), (a, b) -> compare(a.row, 0, b.row, 0));
+        try {
+            for (File file : files) {
+                Run run = new Run(file);
+                if (run.next()) queue.add(run);
+                else run.close();
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                consumer.accept(run.row);
+                if (run.next()) queue.add(run);
+                else run.close();
+            }
+        } finally {
+            for (Run run : queue) run.close();
+            for (File file : files) delete(file);
+        }
+    }
+    
+    private File temp() throws IOException {
+        File file = File.createTempFile(prefix, ".sort", path);
+        file.deleteOnExit();
+        return file;
+    }
+    
+    private static DataOutputStream output(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), READ_BUFFER));
+    }
+    
+    private static void write(DataOutputStream out, byte[] row, int off) {
+        try {
+            out.write(row, off, 4 + getInt(row, off));
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+    
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) logger.warn("failed to delete temp file {}", file);
+    }
+    
+    private static DummyKeyValuePair row(byte[] row, int off) {
+        int len = getInt(row, off);
+        DummyKeyValuePair kv = new DummyKeyValuePair();
+        kv.setValue(getLong(row, off + 4));
+        kv.setLength(getLong(row, off + 12));
+        kv.setMax(getLong(row, off + 20));
+        kv.setDb(new DB(getLong(row, off + 28)));
+        kv.setValueRdbType(row[off + 36] & 0xFF);
+        kv.setExpiredType(EXPIRED_TYPES[row[off + 37]]);
+        if (kv.getExpiredType() != ExpiredType.NONE) kv.setExpiredValue(getLong(row, off + 38));
+        kv.setKey(Arrays.copyOfRange(row, off + 4 + HEADER, off + 4 + len));
+        kv.setContains(true);
+        return kv;
+    }
+    
+    private int compare(byte[] a, int ao, byte[] b, int bo) {
+        int r;
+        switch (order) {
+            case SIZE:
+                r = Long.compare(getLong(b, bo + 4), getLong(a, ao + 4));
+                break;
+            case ELEMENTS:
+                r = Long.compare(getLong(b, bo + 12), getLong(a, ao + 12));
+                break;
+            default:
+                r = 0;
+                break;
+        }
+        if (r != 0) return r;
+        int al = getInt(a, ao) - HEADER, bl = getInt(b, bo) - HEADER;
+        for (int i = 0, n = Math.min(al, bl); i < n; i++) {
+            r = (a[ao + 4 + HEADER + i] & 0xFF) - (b[bo + 4 + HEADER + i] & 0xFF);
+            if (r != 0) return r;
+        }
+        r = Integer.compare(al, bl);
+        if (r != 0) return r;
+        return Long.compare(getLong(a, ao + 28), getLong(b, bo + 28));
+    }
+    
+    private void sort(int lo, int hi) {
+        while (hi - lo > 16) {
+            // median of three as pivot, then recurse into the smaller half.
+            int mid = (lo + hi) >>> 1;
+            if (less(mid, lo)) swap(mid, lo);
+            if (less(hi, lo)) swap(hi, lo);
+            if (less(hi, mid)) swap(hi, mid);
+            int pivot = rows[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (compare(buf, rows[i], buf, pivot) < 0) i++;
+                while (compare(buf, rows[j], buf, pivot) > 0) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(j, j - 1); j--) swap(j, j - 1);
+        }
+    }
+    
+    private boolean less(int i, int j) {
+        return compare(buf, rows[i], buf, rows[j]) < 0;
+    }
+    
+    private void swap(int i, int j) {
+        int t = rows[i];
+        rows[i] = rows[j];
+        rows[j] = t;
+    }
+    
+    private static int putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+        return off + 4;
+    }
+    
+    private static int putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        return putInt(b, off + 4, (int) v);
+    }
+    
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+    
+    private static long getLong(byte[] b, int off) {
+        return (long) getInt(b, off) << 32 | (getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+    
+    private static class Run implements Closeable {
+        private byte[] row = new byte[64];
+        private final DataInputStream in;
+        
+        private Run(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER));
+        }
+        
+        private boolean next() throws IOException {
+            int len;
+            try {
+                len = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (row.length < 4 + len) row = new byte[4 + len];
+            putInt(row, 0, len);
+            in.readFully(row, 4, len);
+            return true;
+        }
+        
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
+    public enum Order {
+        SIZE, ELEMENTS, KEY;
+        
+        public static Order parse(String order) {
+            switch (order) {
+                case "size":
+                    return SIZE;
+                case "elements":
+                    return ELEMENTS;
+                case "key":
+                    return KEY;
+                default:
+                    throw new UnsupportedOperationException(order);
+            }
+        }
+    }
+}
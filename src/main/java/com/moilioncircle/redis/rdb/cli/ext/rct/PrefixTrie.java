@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Memory of keys rolled up by their prefixes. a key {@code a:b:c} is counted in the db root and
+ * the prefixes {@code a} and {@code a:b}, the last segment is the key itself and never a prefix.
+ * <p>
+ * the number of prefixes is bounded by {@code capacity}. once it is full, the prefix with the least
+ * memory is evicted to make room for a new one, and the new one starts from the memory of the
+ * evicted one like space-saving. a prefix with more memory than the evicted ones is never lost,
+ * {@link Node#getError()} is the memory that may be missing from the counters of a prefix. the
+ * counters of the parent already include the keys of the evicted child, so the totals are exact.
+ *
+ * @author Baoyi Chen
+ */
+public class PrefixTrie {
+    
+    private final int depth;
+    private final int capacity;
+    private final byte delimiter;
+    
+    private int size;
+    private Node[] heap = new Node[16];
+    private final Map<Long, Node> roots = new TreeMap<>();
+    
+    public PrefixTrie(int depth, byte delimiter, int capacity) {
+        this.depth = depth;
+        this.delimiter = delimiter;
+        this.capacity = Math.max(capacity, 1);
+    }
+    
+    public void add(long db, byte[] key, long memory, long elements, boolean expiry) {
+        Node node = roots.get(db);
+        if (node == null) {
+            node = new Node(db, null, "", new byte[0], 0, 0);
+            roots.put(db, node);
+        }
+        node.add(memory, elements, expiry);
+        for (int level = 1, from = 0; level <= depth; level++) {
+            int to = indexOf(key, from);
+            if (to < 0) break;
+            String name = new String(key, from, to - from, ISO_8859_1);
+            Node child = node.children == null ? null : node.children.get(name);
+            if (child == null) {
+                long error = 0;
+                if (size >= capacity) {
+                    // the parent is the smallest prefix, its children would be smaller still
+                    if (heap[0] == node) break;
+                    error = evict();
+                }
+                child = new Node(db, node, name, Arrays.copyOf(key, to), level, error);
+                if (node.children == null) node.children = new HashMap<>();
+                node.children.put(name, child);
+                push(child);
+            }
+            child.add(memory, elements, expiry);
+            down(child.index);
+            node = child;
+            from = to + 1;
+        }
+    }
+    
+    /**
+     * visits the prefixes depth first, the children of a prefix are ordered by memory.
+     */
+    public void forEach(Consumer<Node> consumer) {
+        for (Node root : roots.values()) visit(root, consumer);
+    }
+    
+    private void visit(Node node, Consumer<Node> consumer) {
+        consumer.accept(node);
+        if (node.children == null) return;
+        List<Node> children = new ArrayList<>(node.children.values());
+        children.sort((a, b) -> Long.compare(b.memory, a.memory));
+        for (Node child : children) visit(child, consumer);
+    }
+    
+    private int indexOf(byte[] key, int from) {
+        for (int i = from; i < key.length; i++) {
+            if (key[i] == delimiter) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * the weight of a parent is never less than the weights of its children, and a child is less than
+     * its parent on a tie, so the root of the heap is always a leaf.
+     */
+    private static boolean less(Node a, Node b) {
+        long wa = a.memory + a.error;
+        long wb = b.memory + b.error;
+        return wa < wb || (wa == wb && a.level > b.level);
+    }
+    
+    private long evict() {
+        Node min = heap[0];
+        swap(0, --size);
+        heap[size] = null;
+        if (size > 0) down(0);
+        min.parent.children.remove(min.name);
+        if (min.parent.children.isEmpty()) min.parent.children = null;
+        return min.memory + min.error;
+    }
+    
+    private void push(Node node) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, Math.min(size << 1, capacity));
+        node.index = size;
+        heap[size++] = node;
+        up(node.index);
+    }
+    
+    private void up(int i) {
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (!less(heap[i], heap[p])) break;
+            swap(i, p);
+            i = p;
+        }
+    }
+    
+    private void down(int i) {
+        while (true) {
+            int l = (i << 1) + 1, r = l + 1, min = i;
+            if (l < size && less(heap[l], heap[min])) min = l;
+            if (r < size && less(heap[r], heap[min])) min = r;
+            if (min == i) break;
+            swap(i, min);
+            i = min;
+        }
+    }
+    
+    private void swap(int i, int j) {
+        Node t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+        heap[i].index = i;
+        heap[j].index = j;
+    }
+    
+    public static class Node {
+        private final long db;
+        private final int level;
+        private final String name;
+        private final Node parent;
+        private final byte[] prefix;
+        private final long error;
+        private Map<String, Node> children;
+        private int index = -1;
+        private long memory;
+        private long keys;
+        private long elements;
+        private long expires;
+        
+        private Node(long db, Node parent, String name, byte[] prefix, int level, long error) {
+            this.db = db;
+            this.parent = parent;
+            this.name = name;
+            this.prefix = prefix;
+            this.level = level;
+            this.error = error;
+        }
+        
+        private void add(long memory, long elements, boolean expiry) {
+            this.memory += memory;
+            this.elements += elements;
+            this.keys++;
+            if (expiry) this.expires++;
+        }
+        
+        public long getDb() {
+            return db;
+        }
+        
+        public int getLevel() {
+            return level;
+        }
+        
+        public byte[] getPrefix() {
+            return prefix;
+        }
+        
+        public long getMemory() {
+            return memory;
+        }
+        
+        public long getKeys() {
+            return keys;
+        }
+        
+        public long getElements() {
+            return elements;
+        }
+        
+        public long getExpires() {
+            return expires;
+        }
+        
+        /**
+         * @return the upper bound of the memory of the keys counted before the prefix was added.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -47,6 +47,8 @@ public class BackupRdbVisitor extends AbstractRdbVisitor {
 
     public BackupRdbVisitor(Replicator replicator, Configure configure, Action.Arg arg, Supplier<OutputStream> supplier) {
         super(replicator, configure, arg.db, arg.regexs, arg.types, supplier);
+        this.keyset = arg.keys;
+        this.slots = arg.slots;
         this.goal = arg.goal;
         this.replicator.addEventListener((rep, event) -> {
             if (event instanceof PreRdbSyncEvent) {
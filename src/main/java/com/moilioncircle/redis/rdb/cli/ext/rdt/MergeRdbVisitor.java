@@ -37,6 +37,8 @@ public class MergeRdbVisitor extends AbstractRdbVisitor {
     
     public MergeRdbVisitor(Replicator replicator, Configure configure, Action.Arg arg, Supplier<OutputStream> supplier) {
         super(replicator, configure, arg.db, arg.regexs, arg.types, supplier);
+        this.keyset = arg.keys;
+        this.slots = arg.slots;
     }
     
     @Override
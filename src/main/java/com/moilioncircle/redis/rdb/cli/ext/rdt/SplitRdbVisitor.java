@@ -42,6 +42,8 @@ public class SplitRdbVisitor extends AbstractRdbVisitor {
 
     public SplitRdbVisitor(Replicator replicator, Configure configure, Action.Arg arg, Supplier<OutputStream> supplier) {
         super(replicator, configure, arg.db, arg.regexs, arg.types, supplier);
+        this.keyset = arg.keys;
+        this.slots = arg.slots;
         this.replicator.addEventListener((rep, event) -> {
             if (event instanceof PreRdbSyncEvent) {
                 listener.reset(supplier.get());
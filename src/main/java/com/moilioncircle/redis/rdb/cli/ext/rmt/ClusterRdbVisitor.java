@@ -17,9 +17,8 @@
 package com.moilioncircle.redis.rdb.cli.ext.rmt;
 
 import static com.moilioncircle.redis.rdb.cli.conf.NodeConfParser.slot;
-import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.REPLACE;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.RESTORE_ASKING;
-import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ZERO;
+import static com.moilioncircle.redis.rdb.cli.util.ByteBuffers.wrap;
 import static com.moilioncircle.redis.replicator.Configuration.defaultSetting;
 import static java.util.Collections.singletonList;
 
@@ -31,13 +30,17 @@ import org.slf4j.LoggerFactory;
 
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosedCommand;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosingCommand;
-import com.moilioncircle.redis.rdb.cli.api.sink.listener.AsyncEventListener;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.ext.AbstractMigrateRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.CheckpointEvent;
+import com.moilioncircle.redis.rdb.cli.ext.OrderedEventListener;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DumpKeyValuePairEx;
 import com.moilioncircle.redis.rdb.cli.glossary.DataType;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorManager;
 import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.net.Endpoints;
+import com.moilioncircle.redis.rdb.cli.net.impl.NioEndpoints;
 import com.moilioncircle.redis.rdb.cli.net.impl.XEndpoints;
 import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
 import com.moilioncircle.redis.replicator.Configuration;
@@ -45,7 +48,6 @@ import com.moilioncircle.redis.replicator.Replicator;
 import com.moilioncircle.redis.replicator.event.Event;
 import com.moilioncircle.redis.replicator.event.EventListener;
 import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
-import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
 
 /**
  * @author Baoyi Chen
@@ -57,7 +59,8 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
 
     private final List<String> lines;
     private final Configuration configuration;
-    private ThreadLocal<XEndpoints> endpoints = new ThreadLocal<>();
+    private NioEndpoints shared;
+    private ThreadLocal<Endpoints> endpoints = new ThreadLocal<>();
     
     public ClusterRdbVisitor(Replicator replicator,
                              Configure configure,
@@ -68,29 +71,40 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
         super(replicator, configure, singletonList(0L), regexs, types, replace);
         this.lines = lines;
         this.configuration = configure.merge(defaultSetting(), false);
-        this.replicator.addEventListener(new AsyncEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker")));
+        this.dispatcher = new OrderedEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker"));
+        this.replicator.addEventListener(dispatcher);
     }
 
     @Override
     public void onEvent(Replicator replicator, Event event) {
         try {
             if (event instanceof PreRdbSyncEvent) {
-                XEndpoints prev = this.endpoints.get();
-                XEndpoints.closeQuietly(prev);
-                List<String> nodes = prev != null ? prev.getClusterNodes() : lines;
-                int pipe = configure.getMigrateBatchSize();
-                try {
-                    this.endpoints.set(new XEndpoints(nodes, pipe, true, configuration, configure));
-                } catch (Throwable e) {
-                    // unrecoverable error
-                    System.out.println("failed to connect cluster nodes, reason : " + e.getMessage());
-                    System.exit(-1);
+                Endpoints prev = this.endpoints.get();
+                if (prev instanceof NioEndpoints) {
+                    // shared by all sync workers, keep the connections.
+                    prev.flushQuietly();
+                } else {
+                    Endpoints.closeQuietly(prev);
+                    List<String> nodes = prev != null ? prev.getClusterNodes() : lines;
+                    try {
+                        this.endpoints.set(connect(nodes));
+                    } catch (Throwable e) {
+                        // unrecoverable error
+                        System.out.println("failed to connect cluster nodes, reason : " + e.getMessage());
+                        System.exit(-1);
+                    }
                 }
-            } else if (event instanceof DumpKeyValuePair) {
-                retry((DumpKeyValuePair)event, configure.getMigrateRetries());
+            } else if (event instanceof DumpKeyValuePairEx) {
+                try (DumpKeyValuePairEx dkv = (DumpKeyValuePairEx) event) {
+                    retry(dkv, configure.getMigrateRetries());
+                }
+            } else if (event instanceof CheckpointEvent) {
+                // all commands before the checkpoint are replied after flush
+                this.endpoints.get().flushQuietly();
+                checkpoint.ack((CheckpointEvent) event, this.endpoints.get().getFailures());
             } else if (event instanceof ClosingCommand) {
                 this.endpoints.get().flushQuietly();
-                XEndpoints.closeQuietly(this.endpoints.get());
+                Endpoints.closeQuietly(this.endpoints.get());
             } else if (event instanceof ClosedCommand) {
                 MonitorManager.closeQuietly(manager);
             }
@@ -102,31 +116,44 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
         }
     }
 
-    public void retry(DumpKeyValuePair dkv, int times) {
+    private Endpoints connect(List<String> nodes) {
+        int pipe = configure.getMigrateBatchSize();
+        if (!configure.isMigrateNio() || configuration.isSsl()) {
+            return new XEndpoints(nodes, pipe, true, configuration, configure);
+        }
+        synchronized (this) {
+            if (shared == null) shared = new NioEndpoints(nodes, pipe, true, configuration, configure);
+            return shared.retain();
+        }
+    }
+
+    public void retry(DumpKeyValuePairEx dkv, int times) {
         logger.trace("sync rdb event [{}], times {}", new String(dkv.getKey()), times);
         short slot = slot(dkv.getKey());
         try {
-            byte[] expire = ZERO;
-            if (dkv.getExpiredMs() != null) {
-                long ms = dkv.getExpiredMs() - System.currentTimeMillis();
-                if (ms <= 0) {
-                    monitor.add("failure_expired", 1);
-                    logger.error("failure[expired] [{}]", new String(dkv.getKey()));
-                    return;
-                }
-                expire = String.valueOf(ms).getBytes();
+            byte[] expire = ttl(dkv);
+            if (expire == null) {
+                monitor.add("failure_expired", 1);
+                logger.error("failure[expired] [{}]", new String(dkv.getKey()));
+                return;
             }
 
+            if (splitter.split(dkv, replace, (command, args) -> endpoints.get().call(slot, command, args), (command, args) -> endpoints.get().batch(flush, slot, command, args))) {
+                return;
+            }
             if (!replace) {
-                endpoints.get().batch(flush, slot, RESTORE_ASKING, dkv.getKey(), expire, dkv.getValue());
+                endpoints.get().batch(flush, slot, wrap(RESTORE_ASKING), restore(dkv, expire, false));
             } else {
                 // https://github.com/leonchen83/redis-rdb-cli/issues/6 --no need to use lua script
-                endpoints.get().batch(flush, slot, RESTORE_ASKING, dkv.getKey(), expire, dkv.getValue(), REPLACE);
+                endpoints.get().batch(flush, slot, wrap(RESTORE_ASKING), restore(dkv, expire, true));
             }
         } catch (Throwable e) {
+            // the commands in flight may be lost by the reconnection
+            if (checkpoint != null) checkpoint.fail();
             times--;
             if (times >= 0 && flush) {
                 this.endpoints.get().updateQuietly(slot);
+                dkv.getBuffers().reset(); // rewind payload
                 retry(dkv, times);
             } else {
                 monitor.add("failure_failed", 1);
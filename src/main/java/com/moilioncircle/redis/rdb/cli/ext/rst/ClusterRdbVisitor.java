@@ -17,15 +17,18 @@
 package com.moilioncircle.redis.rdb.cli.ext.rst;
 
 import static com.moilioncircle.redis.rdb.cli.conf.NodeConfParser.slot;
-import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.REPLACE;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.EVAL;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.RESTORE_ASKING;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ZERO;
+import static com.moilioncircle.redis.rdb.cli.util.ByteBuffers.wrap;
 import static com.moilioncircle.redis.replicator.Configuration.defaultSetting;
 import static java.util.Collections.singletonList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,12 +36,16 @@ import org.slf4j.LoggerFactory;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosedCommand;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosingCommand;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.CombineCommand;
-import com.moilioncircle.redis.rdb.cli.api.sink.listener.AsyncEventListener;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.ext.AbstractMigrateRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.BarrierEvent;
+import com.moilioncircle.redis.rdb.cli.ext.OrderedEventListener;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DumpKeyValuePairEx;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorManager;
 import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.net.Endpoints;
+import com.moilioncircle.redis.rdb.cli.net.impl.NioEndpoints;
 import com.moilioncircle.redis.rdb.cli.net.impl.XEndpoints;
 import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
 import com.moilioncircle.redis.replicator.Configuration;
@@ -74,7 +81,6 @@ import com.moilioncircle.redis.replicator.event.EventListener;
 import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreCommandSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
-import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
 
 /**
  * @author Baoyi Chen
@@ -83,12 +89,23 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
 
     private static final Logger logger = LoggerFactory.getLogger(ClusterRdbVisitor.class);
     private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    // redis 7+, keys of different slots are allowed if they live on the same node.
+    // the keys are passed in ARGV, declared KEYS of different slots are rejected with CROSSSLOT before the script runs.
+    static final byte[] MSETNX_SCRIPT = ("#!lua flags=allow-cross-slot-keys\n" +
+            "return redis.call('msetnx', unpack(ARGV))").getBytes();
+    
+    // redis 6 and below can't parse the shebang.
+    private static final byte[] SHEBANG_SCRIPT = "#!lua flags=no-writes,allow-cross-slot-keys\nreturn 1".getBytes();
+    private volatile Boolean shebang;
 
-    private int db;
+    // the SELECT is broadcast to all sync workers, each worker filters its queued commands by its own db.
+    private ThreadLocal<Integer> db = ThreadLocal.withInitial(() -> 0);
     private long ping = 0;
     private final List<String> lines;
     private final Configuration configuration;
-    private ThreadLocal<XEndpoints> endpoints = new ThreadLocal<>();
+    private NioEndpoints shared;
+    private ThreadLocal<Endpoints> endpoints = new ThreadLocal<>();
     
     public ClusterRdbVisitor(Replicator replicator,
                              Configure configure,
@@ -97,7 +114,7 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
         super(replicator, configure, singletonList(0L), new ArrayList<>(), new ArrayList<>(), replace);
         this.lines = lines;
         this.configuration = configure.merge(defaultSetting(), false);
-        this.replicator.addEventListener(new AsyncEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker")));
+        this.replicator.addEventListener(new OrderedEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker")));
     }
 
     @Override
@@ -106,7 +123,7 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
     }
 
     @Override
-    protected boolean containsKey(String key) {
+    protected boolean containsKey(byte[] key) {
         return true;
     }
 
@@ -114,33 +131,42 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
     public void onEvent(Replicator replicator, Event event) {
         try {
             if (event instanceof PreRdbSyncEvent) {
-                XEndpoints prev = this.endpoints.get();
-                XEndpoints.closeQuietly(prev);
-                List<String> nodes = prev != null ? prev.getClusterNodes() : lines;
-                int pipe = configure.getMigrateBatchSize();
-                try {
-                    this.endpoints.set(new XEndpoints(nodes, pipe, true, configuration, configure));
-                } catch (Throwable e) {
-                    // unrecoverable error
-                    System.out.println("failed to connect cluster nodes, reason : " + e.getMessage());
-                    System.exit(-1);
+                Endpoints prev = this.endpoints.get();
+                if (prev instanceof NioEndpoints) {
+                    // shared by all sync workers, keep the connections.
+                    prev.flushQuietly();
+                } else {
+                    Endpoints.closeQuietly(prev);
+                    List<String> nodes = prev != null ? prev.getClusterNodes() : lines;
+                    try {
+                        this.endpoints.set(connect(nodes));
+                    } catch (Throwable e) {
+                        // unrecoverable error
+                        System.out.println("failed to connect cluster nodes, reason : " + e.getMessage());
+                        System.exit(-1);
+                    }
+                }
+            } else if (event instanceof DumpKeyValuePairEx) {
+                try (DumpKeyValuePairEx dkv = (DumpKeyValuePairEx) event) {
+                    retry(dkv, configure.getMigrateRetries());
                 }
-            } else if (event instanceof DumpKeyValuePair) {
-                retry((DumpKeyValuePair)event, configure.getMigrateRetries());
             } else if (event instanceof PostRdbSyncEvent) {
                 this.endpoints.get().flushQuietly();
             } else if (event instanceof PreCommandSyncEvent) {
                 this.endpoints.get().flushQuietly();
+            } else if (event instanceof BarrierEvent) {
+                // the commands before the barrier are replied after flush
+                this.endpoints.get().flushQuietly();
             } else if (event instanceof SelectCommand) {
                 SelectCommand select = (SelectCommand)event;
-                this.db = select.getIndex();
+                this.db.set(select.getIndex());
             } else if (event instanceof CombineCommand) {
-                if (containsDB(db)) {
+                if (containsDB(db.get())) {
                     retry((CombineCommand)event, configure.getMigrateRetries());
                 }
             } else if (event instanceof ClosingCommand) {
                 this.endpoints.get().flushQuietly();
-                XEndpoints.closeQuietly(this.endpoints.get());
+                Endpoints.closeQuietly(this.endpoints.get());
                 MonitorManager.closeQuietly(manager);
             } else if (event instanceof ClosedCommand) {
                 MonitorManager.closeQuietly(manager);
@@ -153,31 +179,42 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
         }
     }
 
-    public void retry(DumpKeyValuePair dkv, int times) {
+    private Endpoints connect(List<String> nodes) {
+        int pipe = configure.getMigrateBatchSize();
+        if (!configure.isMigrateNio() || configuration.isSsl()) {
+            return new XEndpoints(nodes, pipe, true, configuration, configure);
+        }
+        synchronized (this) {
+            if (shared == null) shared = new NioEndpoints(nodes, pipe, true, configuration, configure);
+            return shared.retain();
+        }
+    }
+
+    public void retry(DumpKeyValuePairEx dkv, int times) {
         logger.trace("sync rdb event [{}], times {}", new String(dkv.getKey()), times);
         short slot = slot(dkv.getKey());
         try {
-            byte[] expire = ZERO;
-            if (dkv.getExpiredMs() != null) {
-                long ms = dkv.getExpiredMs() - System.currentTimeMillis();
-                if (ms <= 0) {
-                    monitor.add("failure_expired", 1);
-                    logger.error("failure[expired] [{}]", new String(dkv.getKey()));
-                    return;
-                }
-                expire = String.valueOf(ms).getBytes();
+            byte[] expire = ttl(dkv);
+            if (expire == null) {
+                monitor.add("failure_expired", 1);
+                logger.error("failure[expired] [{}]", new String(dkv.getKey()));
+                return;
             }
 
+            if (splitter.split(dkv, replace, (command, args) -> endpoints.get().call(slot, command, args), (command, args) -> endpoints.get().batch(flush, slot, command, args))) {
+                return;
+            }
             if (!replace) {
-                endpoints.get().batch(flush, slot, RESTORE_ASKING, dkv.getKey(), expire, dkv.getValue());
+                endpoints.get().batch(flush, slot, wrap(RESTORE_ASKING), restore(dkv, expire, false));
             } else {
                 // https://github.com/leonchen83/redis-rdb-cli/issues/6 --no need to use lua script
-                endpoints.get().batch(flush, slot, RESTORE_ASKING, dkv.getKey(), expire, dkv.getValue(), REPLACE);
+                endpoints.get().batch(flush, slot, wrap(RESTORE_ASKING), restore(dkv, expire, true));
             }
         } catch (Throwable e) {
             times--;
             if (times >= 0 && flush) {
                 this.endpoints.get().updateQuietly(slot);
+                dkv.getBuffers().reset(); // rewind payload
                 retry(dkv, times);
             } else {
                 monitor.add("failure_failed", 1);
@@ -187,14 +224,18 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
     }
     
     public void retry(CombineCommand command, short slot, int times) {
+        DefaultCommand dcmd = command.getDefaultCommand();
+        retry(command, slot, dcmd.getCommand(), dcmd.getArgs(), times);
+    }
+    
+    public void retry(CombineCommand command, short slot, byte[] cmd, byte[][] args, int times) {
         try {
-            DefaultCommand dcmd = command.getDefaultCommand();
-            endpoints.get().batch(flush, slot, dcmd.getCommand(), dcmd.getArgs());
+            endpoints.get().batch(flush, slot, cmd, args);
         } catch (Throwable e) {
             times--;
             if (times >= 0 && flush) {
                 this.endpoints.get().updateQuietly(slot);
-                retry(command, slot, times);
+                retry(command, slot, cmd, args, times);
             } else {
                 monitor.add("failure_failed", 1);
                 logger.error("failure[failed] [{}], reason: {}", command, e.getMessage());
@@ -263,6 +304,9 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
             short slot = slot0(keys);
             if (slot != -1) {
                 retry(command, slot, times);
+            } else if (endpoints.get().isSameNode(slots(keys)) && shebang(slot(keys[0]))) {
+                // msetnx is all or nothing, it can't be split. no declared keys, route to the owner explicitly.
+                retry(command, slot(keys[0]), EVAL, msetnx(command.getDefaultCommand().getArgs()), times);
             } else {
                 monitor.add("failure_slot", 1);
                 logger.error("failure[slot] [{}]", command);
@@ -292,26 +336,23 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
             if (slot != -1) {
                 retry(command, slot, times);
             } else {
-                monitor.add("failure_slot", 1);
-                logger.error("failure[slot] [{}]", command);
+                split(command, 2, times);
             }
         } else if (parsedCommand instanceof UnLinkCommand) {
             UnLinkCommand cmd = (UnLinkCommand) parsedCommand;
             short slot = slot0(cmd.getKeys());
             if (slot != -1) {
-                retry(command, slot(cmd.getKeys()[0]), times);
+                retry(command, slot, times);
             } else {
-                monitor.add("failure_slot", 1);
-                logger.error("failure[slot] [{}]", command);
+                split(command, 1, times);
             }
         } else if (parsedCommand instanceof DelCommand) {
             DelCommand cmd = (DelCommand) parsedCommand;
             short slot = slot0(cmd.getKeys());
             if (slot != -1) {
-                retry(command, slot(cmd.getKeys()[0]), times);
+                retry(command, slot, times);
             } else {
-                monitor.add("failure_slot", 1);
-                logger.error("failure[slot] [{}]", command);
+                split(command, 1, times);
             }
         } else if (parsedCommand instanceof ZUnionStoreCommand) {
             ZUnionStoreCommand cmd = (ZUnionStoreCommand) parsedCommand;
@@ -432,6 +473,62 @@ public class ClusterRdbVisitor extends AbstractMigrateRdbVisitor implements Even
         }
     }
 
+    /**
+     * split a multi-key command into one sub-command per slot. only for commands that
+     * act on every key independently, e.g. DEL, UNLINK, MSET.
+     *
+     * @param step arguments per key, 1 for DEL, 2 for MSET
+     */
+    public void split(CombineCommand command, int step, int times) {
+        DefaultCommand dcmd = command.getDefaultCommand();
+        byte[][] args = dcmd.getArgs();
+        Map<Short, List<byte[]>> slots = new LinkedHashMap<>();
+        for (int i = 0; i + step <= args.length; i += step) {
+            List<byte[]> list = slots.computeIfAbsent(slot(args[i]), k -> new ArrayList<>());
+            for (int j = 0; j < step; j++) list.add(args[i + j]);
+        }
+        monitor.add("split_slot", 1);
+        for (Map.Entry<Short, List<byte[]>> entry : slots.entrySet()) {
+            retry(command, entry.getKey(), dcmd.getCommand(), entry.getValue().toArray(new byte[0][]), times);
+        }
+    }
+    
+    /*
+     * EVAL script 0 k1 v1 ... kn vn
+     */
+    static byte[][] msetnx(byte[][] args) {
+        byte[][] r = new byte[args.length + 2][];
+        r[0] = MSETNX_SCRIPT;
+        r[1] = ZERO;
+        System.arraycopy(args, 0, r, 2, args.length);
+        return r;
+    }
+    
+    /*
+     * probe the target once, all nodes of a cluster are expected to run the same version.
+     */
+    private boolean shebang(short slot) {
+        Boolean r = shebang;
+        if (r != null) return r;
+        try {
+            String error = endpoints.get().call(slot, EVAL, SHEBANG_SCRIPT, ZERO);
+            if (error != null) logger.warn("cross slot msetnx is not supported by target, reason: {}", error);
+            shebang = r = error == null;
+            return r;
+        } catch (Throwable e) {
+            // probe again next time
+            return false;
+        }
+    }
+    
+    public static short[] slots(byte[]... keys) {
+        short[] slots = new short[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            slots[i] = slot(keys[i]);
+        }
+        return slots;
+    }
+
     public static short slot0(byte[]... keys) {
         short slot = slot(keys[0]);
         for (int i = 1; i < keys.length; i++) {
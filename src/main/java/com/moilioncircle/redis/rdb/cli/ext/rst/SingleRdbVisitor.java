@@ -20,10 +20,9 @@ package com.moilioncircle.redis.rdb.cli.ext.rst;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.EVALSHA;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.LOAD;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ONE;
-import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.REPLACE;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.RESTORE;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.SCRIPT;
-import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ZERO;
+import static com.moilioncircle.redis.rdb.cli.util.ByteBuffers.wrap;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,14 +33,17 @@ import org.slf4j.LoggerFactory;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosedCommand;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.ClosingCommand;
 import com.moilioncircle.redis.rdb.cli.api.sink.cmd.CombineCommand;
-import com.moilioncircle.redis.rdb.cli.api.sink.listener.AsyncEventListener;
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.ext.AbstractMigrateRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.BarrierEvent;
+import com.moilioncircle.redis.rdb.cli.ext.OrderedEventListener;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DumpKeyValuePairEx;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
 import com.moilioncircle.redis.rdb.cli.monitor.MonitorManager;
 import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
 import com.moilioncircle.redis.rdb.cli.net.impl.XEndpoint;
 import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
 import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
 import com.moilioncircle.redis.replicator.Configuration;
 import com.moilioncircle.redis.replicator.RedisURI;
@@ -55,7 +57,6 @@ import com.moilioncircle.redis.replicator.event.PostRdbSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreCommandSyncEvent;
 import com.moilioncircle.redis.replicator.event.PreRdbSyncEvent;
 import com.moilioncircle.redis.replicator.rdb.datatype.DB;
-import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
 
 /**
  * @author Baoyi Chen
@@ -65,7 +66,8 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
     private static final Logger logger = LoggerFactory.getLogger(SingleRdbVisitor.class);
     private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
 
-    private int db;
+    // the SELECT is broadcast to all sync workers, each worker filters its queued commands by its own db.
+    private ThreadLocal<Integer> db = ThreadLocal.withInitial(() -> 0);
     private long ping = 0;
     private final RedisURI uri;
     private final boolean legacy;
@@ -82,8 +84,9 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
         super(replicator, configure, db, new ArrayList<>(), new ArrayList<>(), replace);
         this.uri = uri;
         this.legacy = legacy;
+        this.absttl = absttl && !legacy; // ABSTTL since redis 5.0
         this.conf = configure.merge(this.uri, false);
-        this.replicator.addEventListener(new AsyncEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker")));
+        this.replicator.addEventListener(new OrderedEventListener(this, replicator, configure.getMigrateThreads(), new XThreadFactory("sync-worker")));
     }
 
     @Override
@@ -92,7 +95,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
     }
 
     @Override
-    protected boolean containsKey(String key) {
+    protected boolean containsKey(byte[] key) {
         return true;
     }
     
@@ -109,19 +112,24 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
                     System.out.println("failed to connect " + uri.getHost() + ":" + uri.getPort() + ", reason : " + e.getMessage());
                     System.exit(-1);
                 }
-            } else if (event instanceof DumpKeyValuePair) {
-                retry((DumpKeyValuePair)event, configure.getMigrateRetries());
+            } else if (event instanceof DumpKeyValuePairEx) {
+                try (DumpKeyValuePairEx dkv = (DumpKeyValuePairEx) event) {
+                    retry(dkv, configure.getMigrateRetries());
+                }
             } else if (event instanceof PostRdbSyncEvent) {
                 this.endpoint.get().flushQuietly();
             } else if (event instanceof PreCommandSyncEvent) {
                 this.endpoint.get().flushQuietly();
+            } else if (event instanceof BarrierEvent) {
+                // the commands before the barrier are replied after flush
+                this.endpoint.get().flushQuietly();
             } else if (event instanceof SelectCommand) {
                 SelectCommand select = (SelectCommand)event;
-                this.db = select.getIndex();
-                if (containsDB(db)) {
+                this.db.set(select.getIndex());
+                if (containsDB(select.getIndex())) {
                     DefaultCommand command = new DefaultCommand();
                     command.setCommand("SELECT".getBytes());
-                    command.setArgs(new byte[][]{String.valueOf(db).getBytes()});
+                    command.setArgs(new byte[][]{String.valueOf(select.getIndex()).getBytes()});
                     retry(command, configure.getMigrateRetries());
                 }
             } else if (event instanceof CombineCommand) {
@@ -136,7 +144,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
                         retry(command.getDefaultCommand(), configure.getMigrateRetries());
                         ping = System.currentTimeMillis();
                     }
-                } else if (containsDB(db)) {
+                } else if (containsDB(db.get())) {
                     retry(command.getDefaultCommand(), configure.getMigrateRetries());
                 }
             } else if (event instanceof ClosingCommand) {
@@ -160,7 +168,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
         } catch (Throwable e) {
             times--;
             if (times >= 0 && flush) {
-                XEndpoint next = XEndpoint.valueOfQuietly(endpoint.get(), db);
+                XEndpoint next = XEndpoint.valueOfQuietly(endpoint.get(), endpoint.get().getDB());
                 if (next != null) endpoint.set(next);
                 retry(command, times);
             } else {
@@ -170,7 +178,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
         }
     }
     
-    public void retry(DumpKeyValuePair dkv, int times) {
+    public void retry(DumpKeyValuePairEx dkv, int times) {
         logger.trace("sync rdb event [{}], times {}", new String(dkv.getKey()), times);
         try {
             DB db = dkv.getDb();
@@ -180,29 +188,29 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
                 endpoint.get().select(true, index);
             }
     
-            byte[] expire = ZERO;
-            if (dkv.getExpiredMs() != null) {
-                long ms = dkv.getExpiredMs() - System.currentTimeMillis();
-                if (ms <= 0) {
-                    monitor.add("failure_expired", 1);
-                    logger.error("failure[expired] [{}].", new String(dkv.getKey()));
-                    return;
-                }
-                expire = String.valueOf(ms).getBytes();
+            byte[] expire = ttl(dkv);
+            if (expire == null) {
+                monitor.add("failure_expired", 1);
+                logger.error("failure[expired] [{}].", new String(dkv.getKey()));
+                return;
+            }
+            if (splitter.split(dkv, replace, (command, args) -> endpoint.get().call(command, args), (command, args) -> endpoint.get().batch(flush, command, args))) {
+                return;
             }
             if (!replace) {
-                endpoint.get().batch(flush, RESTORE, dkv.getKey(), expire, dkv.getValue());
+                endpoint.get().batch(flush, wrap(RESTORE), restore(dkv, expire, false));
             } else if (legacy) {
                 // https://github.com/leonchen83/redis-rdb-cli/issues/6
-                eval(dkv.getKey(), dkv.getValue(), expire);
+                eval(dkv.getKey(), dkv.getBuffers(), expire);
             } else {
-                endpoint.get().batch(flush, RESTORE, dkv.getKey(), expire, dkv.getValue(), REPLACE);
+                endpoint.get().batch(flush, wrap(RESTORE), restore(dkv, expire, true));
             }
         } catch (Throwable e) {
             times--;
             if (times >= 0 && flush) {
-                XEndpoint next = XEndpoint.valueOfQuietly(endpoint.get(), db);
+                XEndpoint next = XEndpoint.valueOfQuietly(endpoint.get(), endpoint.get().getDB());
                 if (next != null) endpoint.set(next);
+                dkv.getBuffers().reset(); // rewind payload
                 retry(dkv, times);
             } else {
                 monitor.add("failure_failed", 1);
@@ -219,7 +227,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
     private static final byte[] LUA_SCRIPT =
             ("redis.call('del',KEYS[1]);return redis.call('restore',KEYS[1],ARGV[1],ARGV[2]);").getBytes();
     
-    protected void eval(byte[] key, byte[] value, byte[] expire) {
+    protected void eval(byte[] key, ByteBuffers value, byte[] expire) {
         if (evalSha == null) {
             RedisObject r = endpoint.get().send(SCRIPT, LOAD, LUA_SCRIPT);
             byte[] evalSha = r.getBytes();
@@ -227,7 +235,7 @@ public class SingleRdbVisitor extends AbstractMigrateRdbVisitor implements Event
             this.evalSha = evalSha;
             eval(key, value, expire);
         } else {
-            endpoint.get().batch(flush, EVALSHA, evalSha, ONE, key, expire, value);
+            endpoint.get().batch(flush, wrap(EVALSHA), wrap(evalSha), wrap(ONE), wrap(key), wrap(expire), value);
         }
     }
 }
@@ -24,6 +24,7 @@ import java.io.FileInputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
@@ -32,6 +33,7 @@ import com.moilioncircle.redis.rdb.cli.ext.rdt.BackupRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rdt.MergeRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rdt.SplitRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.io.ShardableFileOutputStream;
+import com.moilioncircle.redis.rdb.cli.util.KeySet;
 import com.moilioncircle.redis.rdb.cli.util.OutputStreams;
 import com.moilioncircle.redis.rdb.cli.util.Strings;
 import com.moilioncircle.redis.replicator.RedisURI;
@@ -63,6 +65,8 @@ public enum Action {
     
         public List<Long> db;
         public List<String> regexs;
+        public KeySet keys;
+        public BitSet slots;
         public List<DataType> types;
     }
     
@@ -107,7 +111,7 @@ public enum Action {
                 return list;
             case BACKUP:
                 r = new CliRedisReplicator(arg.backup, configure);
-                r.setRdbVisitor(new BackupRdbVisitor(r, configure, arg, () -> OutputStreams.newCRCOutputStream(arg.output, configure.getOutputBufferSize())));
+                r.setRdbVisitor(new BackupRdbVisitor(r, configure, arg, () -> OutputStreams.newCRCOutputStream(new File(arg.output), configure)));
                 list.add(Tuples.of(r, null));
                 return list;
             case NONE:
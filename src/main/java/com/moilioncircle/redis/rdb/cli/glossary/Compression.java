@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.glossary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.io.AsyncInputStream;
+import com.moilioncircle.redis.rdb.cli.io.ZstdFramesInputStream;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream.BLOCKSIZE;
+import net.jpountz.lz4.LZ4FrameOutputStream.FLG;
+import net.jpountz.xxhash.XXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * @author Baoyi Chen
+ */
+public enum Compression {
+    
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst"),
+    LZ4(".lz4");
+    
+    private static final int CHUNK = 1024 * 1024;
+    
+    private String suffix;
+    
+    Compression(String suffix) {
+        this.suffix = suffix;
+    }
+    
+    public String getSuffix() {
+        return this.suffix;
+    }
+    
+    public static Compression parse(String value) {
+        if (value.equals("none")) return NONE;
+        else if (value.equals("gzip")) return GZIP;
+        else if (value.equals("zstd")) return ZSTD;
+        else if (value.equals("lz4")) return LZ4;
+        else throw new UnsupportedOperationException(value);
+    }
+    
+    /**
+     * compresses a block as a standalone gzip member, zstd frame or lz4 frame, the concatenation of
+     * them is a valid stream of the codec.
+     *
+     * @param level -1 is the default level of the codec.
+     */
+    public byte[] compress(byte[] b, int off, int len, int level) throws IOException {
+        switch (this) {
+            case GZIP:
+                ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 64);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024) {{ def.setLevel(level); }}) {
+                    gzip.write(b, off, len);
+                }
+                return out.toByteArray();
+            case ZSTD:
+                byte[] src = off == 0 && len == b.length ? b : Arrays.copyOfRange(b, off, off + len);
+                return Zstd.compress(src, level < 0 ? 3 : level);
+            case LZ4:
+                out = new ByteArrayOutputStream(len / 2 + 64);
+                LZ4Factory factory = LZ4Factory.fastestInstance();
+                LZ4Compressor compressor = level <= 0 ? factory.fastCompressor() : factory.highCompressor(level);
+                XXHash32 checksum = XXHashFactory.fastestInstance().hash32();
+                try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(out, BLOCKSIZE.SIZE_4MB, -1L, compressor, checksum, FLG.Bits.BLOCK_INDEPENDENCE)) {
+                    lz4.write(b, off, len);
+                }
+                return out.toByteArray();
+            default:
+                throw new UnsupportedOperationException(this.toString());
+        }
+    }
+    
+    public static Compression detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) return GZIP;
+        if (length < 4) return NONE;
+        int v = (magic[0] & 0xFF) | (magic[1] & 0xFF) << 8 | (magic[2] & 0xFF) << 16 | (magic[3] & 0xFF) << 24;
+        if (v == 0xFD2FB528 || (v & 0xFFFFFFF0) == 0x184D2A50) return ZSTD;
+        if (v == 0x184D2204) return LZ4;
+        return NONE;
+    }
+    
+    /**
+     * @return the decompressed stream of {@code in} if it is compressed, the decompression runs on
+     * background threads ahead of the reader.
+     */
+    public static InputStream decompress(InputStream in, Configure configure) throws IOException {
+        PushbackInputStream pin = new PushbackInputStream(in, 4);
+        byte[] magic = new byte[4];
+        int length = 0;
+        for (int n; length < magic.length && (n = pin.read(magic, length, magic.length - length)) > 0; ) length += n;
+        pin.unread(magic, 0, length);
+        switch (detect(magic, length)) {
+            case GZIP:
+                return new AsyncInputStream(new GZIPInputStream(pin, 64 * 1024), CHUNK, 16);
+            case ZSTD:
+                if (configure.getDecompressThreads() > 1) {
+                    return new ZstdFramesInputStream(pin, configure.getDecompressThreads());
+                }
+                return new AsyncInputStream(new ZstdInputStream(pin), CHUNK, 16);
+            case LZ4:
+                return new AsyncInputStream(new LZ4FrameInputStream(pin), CHUNK, 16);
+            default:
+                return pin;
+        }
+    }
+    
+    /**
+     * @return the compression suffix of the source path, {@code ""} if none.
+     */
+    public static String suffix(String source) {
+        int idx = source.indexOf('?');
+        String path = idx < 0 ? source : source.substring(0, idx);
+        for (Compression c : values()) {
+            if (c != NONE && path.endsWith(c.suffix)) return c.suffix;
+        }
+        return "";
+    }
+    
+    /**
+     * RedisURI takes the file type from the path suffix, e.g. {@code dump.rdb.zst} is parsed as
+     * {@code dump.rdb}, the compression itself is detected by magic bytes.
+     *
+     * @return the source without the compression suffix.
+     */
+    public static String strip(String source) {
+        String suffix = suffix(source);
+        if (suffix.isEmpty()) return source;
+        int idx = source.indexOf('?');
+        int end = idx < 0 ? source.length() : idx;
+        return source.substring(0, end - suffix.length()) + source.substring(end);
+    }
+}
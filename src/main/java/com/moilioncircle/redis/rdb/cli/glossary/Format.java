@@ -34,6 +34,7 @@ import com.moilioncircle.redis.rdb.cli.ext.rct.CountRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.DiffRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.DumpRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.FormatterRdbVisitor;
+import com.moilioncircle.redis.rdb.cli.ext.rct.HllRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.JsonRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.JsonlRdbVisitor;
 import com.moilioncircle.redis.rdb.cli.ext.rct.KeyRdbVisitor;
@@ -58,7 +59,7 @@ public class Format {
         while (it.hasNext()) this.formatters.add(it.next());
     }
 
-    public void dress(Replicator r, File output, List<Long> db, List<String> regexs, Long largest, Long bytes, List<DataType> types, String escaper, boolean replace) {
+    public void dress(Replicator r, File output, List<Long> db, List<String> regexs, Long largest, Long bytes, Integer prefix, String sort, List<File> merge, List<DataType> types, String escaper, boolean replace) {
         // self define formatter has highest priority
         boolean found = false;
         for (FormatterService formatter : formatters) {
@@ -90,7 +91,10 @@ public class Format {
                 r.setRdbVisitor(new KeyValRdbVisitor(r, configure, output, db, regexs, types, getEscaper(escaper)));
                 break;
             case "mem":
-                r.setRdbVisitor(new MemRdbVisitor(r, configure, output, db, regexs, types, getEscaper(escaper), largest, bytes));
+                r.setRdbVisitor(new MemRdbVisitor(r, configure, output, db, regexs, types, getEscaper(escaper), largest, bytes, prefix, sort));
+                break;
+            case "hll":
+                r.setRdbVisitor(new HllRdbVisitor(r, configure, output, db, regexs, types, getEscaper(escaper), prefix, merge));
                 break;
             case "json":
                 r.setRdbVisitor(new JsonRdbVisitor(r, configure, output, db, regexs, types, getEscaper(escaper, () -> new JsonEscaper())));
@@ -103,6 +107,29 @@ public class Format {
         }
     }
 
+    /**
+     * whether the outputs of ranges of a rdb file can be merged into the output of the whole file.
+     */
+    public boolean isMergeable(Long largest, Integer prefix, String sort) {
+        for (FormatterService formatter : formatters) {
+            if (value.equals(formatter.format())) return false;
+        }
+        switch (value) {
+            case "dump":
+            case "resp":
+            case "key":
+            case "keyval":
+            case "json":
+            case "jsonl":
+                return true;
+            case "mem":
+                // top n keys of each range are not the top n keys of the file, neither are the prefixes, histograms and sorted rows.
+                return largest == null && prefix == null && sort == null && !configure.isExportMemSummary();
+            default:
+                return false;
+        }
+    }
+
     public Escaper getEscaper(String escaper, Supplier<Escaper> defaultValue) {
         return Escapers.parse(escaper, defaultValue, configure.getDelimiter(), configure.getQuote());
     }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteArrayPool;
+import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
+
+/**
+ * Reads the underlying stream on a background thread into a bounded queue of chunks, so a slow
+ * source, e.g. a decompressor, runs ahead of the parser instead of in turn with it.
+ *
+ * @author Baoyi Chen
+ */
+public class AsyncInputStream extends InputStream {
+    
+    private static final Chunk EOF = new Chunk(null, 0);
+    
+    private Chunk chunk;
+    private int position;
+    private final InputStream in;
+    private final Thread thread;
+    private final ByteArrayPool pool;
+    private volatile IOException error;
+    private final BlockingQueue<Chunk> queue;
+    
+    public AsyncInputStream(InputStream in, int size, int capacity) {
+        this.in = in;
+        this.pool = ByteArrayPool.valueOf(size);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new XThreadFactory("read-ahead", true).newThread(this::run);
+        this.thread.start();
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!next()) return -1;
+        return chunk.ary[position++] & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!next()) return -1;
+        int min = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.ary, position, b, off, min);
+        position += min;
+        return min;
+    }
+    
+    @Override
+    public int available() {
+        return chunk == null || chunk == EOF ? 0 : chunk.length - position;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        in.close();
+    }
+    
+    private boolean next() throws IOException {
+        if (chunk == EOF) return false;
+        if (chunk != null && position < chunk.length) return true;
+        if (chunk != null) pool.release(chunk.ary);
+        try {
+            chunk = queue.take();
+            position = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (chunk != EOF) return true;
+        if (error != null) throw error;
+        return false;
+    }
+    
+    private void run() {
+        try {
+            while (true) {
+                byte[] ary = pool.borrow();
+                int length = 0, n = 0;
+                while (length < ary.length && (n = in.read(ary, length, ary.length - length)) >= 0) length += n;
+                if (length > 0) queue.put(new Chunk(ary, length));
+                else pool.release(ary);
+                if (n < 0) break;
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        }
+        try {
+            queue.put(EOF);
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+    
+    private static class Chunk {
+        private final byte[] ary;
+        private final int length;
+        
+        private Chunk(byte[] ary, int length) {
+            this.ary = ary;
+            this.length = length;
+        }
+    }
+}
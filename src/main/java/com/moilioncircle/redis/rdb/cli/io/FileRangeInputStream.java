@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the range {@code [start, end)} of a file with positional reads, so several streams can
+ * share one channel. {@link #skip(long)} always skips {@code n} bytes without reading them.
+ *
+ * @author Baoyi Chen
+ */
+public class FileRangeInputStream extends InputStream {
+    
+    private long position;
+    private final long end;
+    private final ByteBuffer buf;
+    private final FileChannel channel;
+    
+    public FileRangeInputStream(FileChannel channel, long start, long end, int size) {
+        this.end = end;
+        this.position = start;
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(size);
+        this.buf.limit(0);
+    }
+    
+    /**
+     * @return the file offset of the next byte to read.
+     */
+    public long position() {
+        return position;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!buf.hasRemaining() && !fill()) return -1;
+        position++;
+        return buf.get() & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!buf.hasRemaining() && !fill()) return -1;
+        int min = Math.min(len, buf.remaining());
+        buf.get(b, off, min);
+        position += min;
+        return min;
+    }
+    
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        if (n <= buf.remaining()) {
+            buf.position(buf.position() + (int) n);
+        } else {
+            buf.limit(0);
+        }
+        position += n;
+        return n;
+    }
+    
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+    
+    private boolean fill() throws IOException {
+        if (position >= end) return false;
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - position));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) break;
+        }
+        buf.flip();
+        return buf.hasRemaining();
+    }
+}
@@ -16,7 +16,6 @@
 
 package com.moilioncircle.redis.rdb.cli.io;
 
-import static com.moilioncircle.redis.rdb.cli.util.Iterators.iterator;
 import static java.io.File.createTempFile;
 import static java.nio.ByteBuffer.allocate;
 import static java.nio.channels.FileChannel.open;
@@ -32,11 +31,14 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.OpenOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.util.ByteArrayPool;
 import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
-import com.moilioncircle.redis.replicator.io.ByteBufferOutputStream;
 
 /**
  * @author Baoyi Chen
@@ -48,19 +50,22 @@ public class LayeredOutputStream extends OutputStream {
     protected static final OpenOption[] OPTIONS = new OpenOption[]{READ, WRITE, TRUNCATE_EXISTING, CREATE, DELETE_ON_CLOSE};
     
     protected long size;
+    protected int offset;
+    protected long memory;
     protected final int max;
     protected final int init;
     protected FileChannel file;
     protected final String path;
     protected final String prefix;
-    protected ByteBufferOutputStream buffer;
+    protected final ByteArrayPool pool;
+    protected final List<byte[]> chunks = new ArrayList<>();
     
     public LayeredOutputStream(Configure configure) {
         this.init = configure.getOutputBufferSize();
         this.max = configure.getMaxOutputBufferSize();
         this.path = configure.getTempFilePath();
         this.prefix = configure.getTempFilePrefix();
-        this.buffer = new ByteBufferOutputStream(init);
+        this.pool = ByteArrayPool.valueOf(init);
     }
     
     public LayeredOutputStream(int init, int max) {
@@ -68,17 +73,18 @@ public class LayeredOutputStream extends OutputStream {
         this.max = max;
         this.path = null;
         this.prefix = "rct";
-        this.buffer = new ByteBufferOutputStream(init);
+        this.pool = ByteArrayPool.valueOf(init);
     }
     
     @Override
     public void write(int b) throws IOException {
-        if (this.buffer.size() + 1 < max) {
-            this.buffer.write(b);
-        } else {
-            flushToFile();
-            this.buffer.write(b);
+        if (memory + 1 > max) flushToFile();
+        if (chunks.isEmpty() || offset == init) {
+            chunks.add(pool.borrow());
+            offset = 0;
         }
+        chunks.get(chunks.size() - 1)[offset++] = (byte) b;
+        memory++;
         size++;
     }
     
@@ -89,37 +95,30 @@ public class LayeredOutputStream extends OutputStream {
     
     @Override
     public void write(byte b[], int off, int len) throws IOException {
-        if (this.buffer.size() + len < max) {
-            this.buffer.write(b);
-        } else {
-            flushToFile();
-            if (len < max) {
-                this.buffer.write(b, off, len);
-            } else {
-                int tmp = len;
-                while (tmp >= max) {
-                    this.buffer.write(b, off, max);
-                    tmp -= max;
-                    off += max;
-                    flushToFile();
-                }
-                if (tmp > 0) {
-                    this.buffer.write(b, off, tmp);
-                }
+        size += len;
+        while (len > 0) {
+            if (memory >= max) flushToFile();
+            if (chunks.isEmpty() || offset == init) {
+                chunks.add(pool.borrow());
+                offset = 0;
             }
+            int min = (int) Math.min(Math.min(len, init - offset), max - memory);
+            System.arraycopy(b, off, chunks.get(chunks.size() - 1), offset, min);
+            offset += min;
+            memory += min;
+            off += min;
+            len -= min;
         }
-        size += len;
     }
     
     @Override
     public void flush() throws IOException {
-        this.buffer.flush();
         if (file != null) file.force(false);
     }
     
     @Override
     public void close() throws IOException {
-        this.buffer.close();
+        release();
         if (file != null) this.file.close();
     }
     
@@ -128,18 +127,34 @@ public class LayeredOutputStream extends OutputStream {
     }
     
     public ByteBuffers toByteBuffers() {
-        Iterator<ByteBuffer> it;
-        if (size < max) {
-            it = iterator(buffer.toByteBuffer());
-        } else {
-            it = new Iter();
-        }
         ByteBuffers buffers = new ByteBuffers(this);
-        buffers.setBuffers(it);
+        buffers.setBuffers(iterator());
         buffers.setSize(this.size);
         return buffers;
     }
     
+    /**
+     * @return a new iterator of the written bytes, iterators do not share positions.
+     */
+    public Iterator<ByteBuffer> iterator() {
+        if (file == null) {
+            return new MemoryIter();
+        } else {
+            return new FileIter();
+        }
+    }
+    
+    private int limit(int index) {
+        return index == chunks.size() - 1 ? offset : init;
+    }
+    
+    private void release() {
+        for (byte[] chunk : chunks) pool.release(chunk);
+        chunks.clear();
+        offset = 0;
+        memory = 0;
+    }
+    
     private void flushToFile() throws IOException {
         if (file == null) {
             File path;
@@ -151,42 +166,59 @@ public class LayeredOutputStream extends OutputStream {
             File temp = createTempFile(prefix, null, path);
             file = open(temp.toPath(), OPTIONS);
         }
-        ByteBuffer buf = this.buffer.toByteBuffer();
-        while (buf.remaining() >= init) {
-            ByteBuffer tmp = (ByteBuffer) buf.slice().limit(init);
-            buf.position(buf.position() + init);
-            file.write(tmp);
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuffer buf = ByteBuffer.wrap(chunks.get(i), 0, limit(i));
+            while (buf.hasRemaining()) file.write(buf);
         }
-        if (buf.hasRemaining()) file.write(buf);
-        this.buffer.reset();
+        release();
     }
     
-    private class Iter implements Iterator<ByteBuffer> {
+    private class MemoryIter implements Iterator<ByteBuffer> {
+        
+        private int index;
         
-        private Iter() {
+        @Override
+        public boolean hasNext() {
+            return index < chunks.size();
+        }
+        
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            int i = index++;
+            return ByteBuffer.wrap(chunks.get(i), 0, limit(i));
+        }
+    }
+    
+    private class FileIter implements Iterator<ByteBuffer> {
+        
+        private long position;
+        
+        private FileIter() {
             try {
                 flushToFile();
-                file.position(0);
             } catch (IOException e) {
             }
         }
         
         @Override
         public boolean hasNext() {
-            try {
-                return file.position() < size;
-            } catch (IOException e) {
-                return false;
-            }
+            return position < size;
         }
         
         @Override
         public ByteBuffer next() {
             try {
                 ByteBuffer r = allocate(init);
-                file.read(r);
+                int len = file.read(r, position);
+                if (len <= 0) {
+                    position = size;
+                    return EMPTY;
+                }
+                position += len;
                 return (ByteBuffer) r.flip();
             } catch (IOException e) {
+                position = size;
                 return EMPTY;
             }
         }
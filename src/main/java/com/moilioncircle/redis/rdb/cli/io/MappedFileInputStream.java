@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a local file through read-only mappings of {@code window} bytes, one window at a time, so
+ * a read is a copy out of the page cache instead of a {@code read(2)} per buffer. The JDK has no
+ * {@code madvise}, the sequential read-ahead is left to the kernel's fault-around of the mapping.
+ *
+ * @author Baoyi Chen
+ */
+public class MappedFileInputStream extends InputStream {
+    
+    private long base;
+    private final long size;
+    private final int window;
+    private MappedByteBuffer buf;
+    private final FileChannel channel;
+    
+    public MappedFileInputStream(File file, int window) throws IOException {
+        this.window = window;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!next()) return -1;
+        return buf.get() & 0xFF;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!next()) return -1;
+        int min = Math.min(len, buf.remaining());
+        buf.get(b, off, min);
+        return min;
+    }
+    
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long position = position();
+        n = Math.min(n, size - position);
+        if (buf != null && n <= buf.remaining()) {
+            buf.position(buf.position() + (int) n);
+        } else {
+            // unmapped by gc, the next read maps the window of the new position.
+            buf = null;
+            base = position + n;
+        }
+        return n;
+    }
+    
+    @Override
+    public int available() {
+        return buf == null ? 0 : buf.remaining();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        buf = null;
+        channel.close();
+    }
+    
+    private long position() {
+        return buf == null ? base : base + buf.position();
+    }
+    
+    private boolean next() throws IOException {
+        if (buf != null && buf.hasRemaining()) return true;
+        long position = position();
+        if (position >= size) return false;
+        base = position;
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(window, size - base));
+        return true;
+    }
+}
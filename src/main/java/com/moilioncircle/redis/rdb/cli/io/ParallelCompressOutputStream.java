@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
+import com.moilioncircle.redis.rdb.cli.util.ByteArrayPool;
+import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
+
+/**
+ * Cuts the output into fixed size blocks, compresses the blocks by a pool of workers and writes
+ * them in order on a writer thread, pigz style. the writer only blocks when {@code threads * 2}
+ * blocks are pending. every block is a standalone gzip member, zstd frame or lz4 frame, so the
+ * output is a standard stream of the codec. {@link #flush()} does not cut a block.
+ *
+ * @author Baoyi Chen
+ */
+public class ParallelCompressOutputStream extends OutputStream {
+    
+    private static final Future<byte[]> EOF = CompletableFuture.completedFuture(null);
+    
+    private int count;
+    private byte[] buf;
+    private boolean closed;
+    private final int level;
+    private final OutputStream out;
+    private final Thread writer;
+    private final ByteArrayPool pool;
+    private volatile IOException error;
+    private final Compression compression;
+    private final ExecutorService executor;
+    private final BlockingQueue<Future<byte[]>> queue;
+    
+    public ParallelCompressOutputStream(OutputStream out, Compression compression, int level, int size, int threads) {
+        this.out = out;
+        this.level = level;
+        this.compression = compression;
+        this.pool = ByteArrayPool.valueOf(size);
+        this.buf = pool.borrow();
+        this.queue = new ArrayBlockingQueue<>(threads * 2);
+        this.executor = Executors.newFixedThreadPool(threads, new XThreadFactory("compress-worker", true));
+        this.writer = new XThreadFactory("compress-writer", true).newThread(this::drain);
+        this.writer.start();
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buf.length) submit();
+        buf[count++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buf.length) submit();
+            int min = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, min);
+            count += min;
+            off += min;
+            len -= min;
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        check();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (count > 0) submit();
+            put(EOF);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            writer.interrupt();
+            executor.shutdownNow();
+            pool.release(buf);
+            out.close();
+        }
+        check();
+    }
+    
+    private void check() throws IOException {
+        // a new exception every time, the same one may be thrown by write and close.
+        if (error != null) throw new IOException(error.getMessage(), error);
+    }
+    
+    private void submit() throws IOException {
+        check();
+        byte[] block = buf;
+        int length = count;
+        put(executor.submit(() -> {
+            try {
+                return compression.compress(block, 0, length, level);
+            } finally {
+                pool.release(block);
+            }
+        }));
+        buf = pool.borrow();
+        count = 0;
+    }
+    
+    private void put(Future<byte[]> future) throws InterruptedIOException {
+        try {
+            queue.put(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+    
+    private void drain() {
+        try {
+            while (true) {
+                byte[] block = queue.take().get();
+                if (block == null) break;
+                out.write(block);
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            // closed
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (IOException e) {
+            error = e;
+        }
+        if (error != null) {
+            // unblock the producer, the error is thrown on its next block or close.
+            queue.clear();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (queue.take() == EOF) break;
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+}
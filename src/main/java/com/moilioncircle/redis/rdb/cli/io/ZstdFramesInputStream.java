@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.moilioncircle.redis.rdb.cli.util.XThreadFactory;
+
+/**
+ * Decompresses the frames of a zstd stream by a pool of workers and returns them in order. the
+ * frames are split by walking the frame and block headers, without decompressing them. a stream of
+ * independent frames (e.g. written by pzstd) is decompressed in parallel, a frame larger than
+ * {@link #MAX_FRAME} falls back to streaming decompression for the rest of the stream.
+ *
+ * @author Baoyi Chen
+ */
+public class ZstdFramesInputStream extends InputStream {
+    
+    private static final int MAGIC = 0xFD2FB528;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int CHUNK = 1024 * 1024;
+    private static final int MAX_FRAME = 4 * 1024 * 1024;
+    private static final Future<InputStream> EOF = CompletableFuture.completedFuture(null);
+    
+    private boolean eof;
+    private InputStream current;
+    private final InputStream in;
+    private final Thread splitter;
+    private final byte[] scratch = new byte[128 * 1024];
+    private final ExecutorService executor;
+    private final BlockingQueue<Future<InputStream>> queue;
+    
+    public ZstdFramesInputStream(InputStream in, int threads) {
+        this.in = new BufferedInputStream(in, 64 * 1024);
+        this.queue = new ArrayBlockingQueue<>(threads * 2);
+        this.executor = Executors.newFixedThreadPool(threads, new XThreadFactory("zstd-worker", true));
+        this.splitter = new XThreadFactory("zstd-splitter", true).newThread(this::split);
+        this.splitter.start();
+    }
+    
+    @Override
+    public int read() throws IOException {
+        while (next()) {
+            int r = current.read();
+            if (r >= 0) return r;
+            current = null;
+        }
+        return -1;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (next()) {
+            int r = current.read(b, off, len);
+            if (r >= 0) return r;
+            current = null;
+        }
+        return -1;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        splitter.interrupt();
+        executor.shutdownNow();
+        if (current != null) current.close();
+        in.close();
+    }
+    
+    private boolean next() throws IOException {
+        if (current != null) return true;
+        if (eof) return false;
+        try {
+            current = queue.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        eof = current == null;
+        return !eof;
+    }
+    
+    private void split() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_FRAME);
+            while (true) {
+                out.reset();
+                int r = frame(out);
+                if (r < 0) break;
+                if (r == 0) continue;
+                byte[] frame = out.toByteArray();
+                if (r == 1) {
+                    queue.put(executor.submit(() -> decompress(frame)));
+                } else {
+                    // same as Compression.decompress, the decompressor still runs ahead of the parser.
+                    InputStream rest = new SequenceInputStream(new ByteArrayInputStream(frame), in);
+                    queue.put(CompletableFuture.completedFuture(new AsyncInputStream(new ZstdInputStream(rest), CHUNK, 16)));
+                    break;
+                }
+            }
+            queue.put(EOF);
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Throwable e) {
+            CompletableFuture<InputStream> error = new CompletableFuture<>();
+            error.completeExceptionally(e);
+            try {
+                queue.put(error);
+            } catch (InterruptedException ignore) {
+                // closed
+            }
+        }
+    }
+    
+    private static InputStream decompress(byte[] frame) throws IOException {
+        long size = Zstd.decompressedSize(frame);
+        if (size > 0 && size <= Integer.MAX_VALUE - 8) {
+            return new ByteArrayInputStream(Zstd.decompress(frame, (int) size));
+        }
+        // the content size is not in the frame header.
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length * 4);
+        try (InputStream in = new ZstdInputStream(new ByteArrayInputStream(frame))) {
+            byte[] buf = new byte[64 * 1024];
+            for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+    
+    /**
+     * copies the next frame to {@code out}.
+     *
+     * @return -1 at the end of the stream, 0 if a skippable frame is skipped, 1 if a frame is copied,
+     * 2 if the frame is larger than {@link #MAX_FRAME}, {@code out} has the bytes of it read so far.
+     */
+    private int frame(ByteArrayOutputStream out) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) return -1;
+        out.write(b0);
+        int magic = b0 | (int) le(out, 3) << 8;
+        if ((magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+            long size = le(out, 4);
+            while (size > 0) {
+                int n = in.read(scratch, 0, (int) Math.min(size, scratch.length));
+                if (n < 0) throw new EOFException();
+                size -= n;
+            }
+            return 0;
+        }
+        if (magic != MAGIC) throw new IOException("invalid zstd frame magic: " + Integer.toHexString(magic));
+        int descriptor = (int) le(out, 1);
+        int single = (descriptor >>> 5) & 1;
+        int fcs = descriptor >>> 6;
+        int length = (single == 0 ? 1 : 0) + new int[]{0, 1, 2, 4}[descriptor & 3] + (fcs == 0 ? single : 1 << fcs);
+        copy(out, length);
+        while (true) {
+            int header = (int) le(out, 3);
+            int type = (header >>> 1) & 3;
+            if (type == 3) throw new IOException("invalid zstd block type");
+            copy(out, type == 1 ? 1 : header >>> 3);
+            if ((header & 1) != 0) break;
+            if (out.size() > MAX_FRAME) return 2;
+        }
+        if ((descriptor & 4) != 0) copy(out, 4);
+        return 1;
+    }
+    
+    private long le(ByteArrayOutputStream out, int length) throws IOException {
+        long r = 0;
+        for (int i = 0; i < length; i++) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            out.write(b);
+            r |= (long) b << (i * 8);
+        }
+        return r;
+    }
+    
+    private void copy(ByteArrayOutputStream out, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(scratch, 0, Math.min(length, scratch.length));
+            if (n < 0) throw new EOFException();
+            out.write(scratch, 0, n);
+            length -= n;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net;
+
+import java.io.Closeable;
+import java.util.List;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+
+/**
+ * @author Baoyi Chen
+ */
+public interface Endpoints extends Closeable {
+    
+    List<String> getClusterNodes();
+    
+    void ping(boolean force);
+    
+    void batch(boolean force, short slot, byte[] command, byte[]... args);
+    
+    void batch(boolean force, short slot, ByteBuffers command, ByteBuffers... args);
+    
+    /**
+     * send the command and wait for its reply, the commands batched before are replied first.
+     *
+     * @return the error reply, or null if the command succeeded
+     */
+    String call(short slot, byte[] command, byte[]... args);
+    
+    void flushQuietly();
+    
+    /**
+     * @return the number of error replies and lost commands of the connected nodes
+     */
+    long getFailures();
+    
+    /**
+     * @return true if all slots are currently served by the same node
+     */
+    boolean isSameNode(short... slots);
+    
+    void updateQuietly(short slot);
+    
+    static void closeQuietly(Endpoints endpoints) {
+        if (endpoints == null) return;
+        try {
+            endpoints.close();
+        } catch (Throwable e) {
+        }
+    }
+}
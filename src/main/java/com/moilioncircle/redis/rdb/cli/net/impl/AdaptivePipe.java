@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+
+/**
+ * AIMD controller of the pipeline depth, driven by the latency and the error replies of every round.
+ *
+ * @author Baoyi Chen
+ */
+public class AdaptivePipe {
+    
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    private final int min;
+    private final int max;
+    private final long target;
+    private final String name;
+    private final boolean adaptive;
+    private volatile int depth;
+    
+    // guarded by this
+    private long errors;
+    private long replies;
+    private long latency;
+    
+    public AdaptivePipe(String address, int pipe, Configure configure) {
+        // pipe <= 1 means synchronous endpoint, never adapt it.
+        this.adaptive = configure.isMigrateAdaptive() && pipe > 1;
+        this.min = Math.max(2, configure.getMigrateBatchSizeMin());
+        this.max = Math.max(min, configure.getMigrateBatchSizeMax());
+        this.target = TimeUnit.MILLISECONDS.toNanos(configure.getMigrateLatencyTarget());
+        this.name = "pipe_" + address;
+        this.depth = adaptive ? Math.min(max, Math.max(min, pipe)) : pipe;
+        if (adaptive) monitor.set(name, depth);
+    }
+    
+    public int get() {
+        return depth;
+    }
+    
+    /**
+     * @param rtt   nanoseconds between sending the command and receiving its reply
+     * @param error the reply is an error
+     */
+    public synchronized void update(long rtt, boolean error) {
+        if (!adaptive) return;
+        replies++;
+        latency += rtt;
+        if (error) errors++;
+        if (replies < depth) return;
+        
+        long avg = latency / replies;
+        int next = depth;
+        if (errors > 0) {
+            next = depth / 2; // multiplicative decrease
+        } else if (avg > target) {
+            next = depth - depth / 4;
+        } else {
+            next = depth + min; // additive increase
+        }
+        next = Math.min(max, Math.max(min, next));
+        errors = 0;
+        replies = 0;
+        latency = 0;
+        if (next != depth) {
+            depth = next;
+            monitor.set(name, next);
+        }
+    }
+}
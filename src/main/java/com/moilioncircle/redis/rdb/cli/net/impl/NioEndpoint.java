@@ -0,0 +1,633 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ASKING;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.AUTH;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.PING;
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.SELECT;
+import static com.moilioncircle.redis.replicator.Constants.COLON;
+import static com.moilioncircle.redis.replicator.Constants.DOLLAR;
+import static com.moilioncircle.redis.replicator.Constants.MINUS;
+import static com.moilioncircle.redis.replicator.Constants.PLUS;
+import static com.moilioncircle.redis.replicator.Constants.STAR;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.io.BufferedOutputStream;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.net.AbstractEndpoint;
+import com.moilioncircle.redis.rdb.cli.net.protocol.Protocol;
+import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
+import com.moilioncircle.redis.rdb.cli.net.protocol.Request;
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.rdb.cli.util.TokenBucket;
+import com.moilioncircle.redis.replicator.Configuration;
+import com.moilioncircle.redis.replicator.io.RedisInputStream;
+
+/**
+ * Non-blocking endpoint shared by all sync workers. Producers offer their requests as frames to a
+ * lock-free submission queue, the {@link NioReactor} thread writes the chunks of the frames with
+ * gathering writes and consumes the replies.
+ *
+ * @author Baoyi Chen
+ */
+public class NioEndpoint extends AbstractEndpoint implements Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NioEndpoint.class);
+    
+    private static final int GATHER = 64;
+    private static final int BUFFER = 64 * 1024;
+    
+    private final int pipe;
+    private final int window;
+    private final String address;
+    private final Monitor monitor;
+    private final AdaptivePipe depth;
+    private final Throttle throttle;
+    private final TokenBucket[] limits;
+    private final Configuration conf;
+    private final boolean statistics;
+    private final Configure configure;
+    private final NioReactor reactor;
+    private final SocketChannel channel;
+    
+    // producer side
+    private final Queue<Frame> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final LongAdder failures = new LongAdder();
+    // the sequence of the last frame submitted by each sync worker
+    private final ThreadLocal<long[]> last = ThreadLocal.withInitial(() -> new long[1]);
+    
+    // guarded by lock
+    private long inflight;
+    private long inflightBytes;
+    private long submitted;
+    private long replied;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private volatile Redirect.Listener listener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition condition = lock.newCondition();
+    
+    // reactor thread only
+    private SelectionKey key;
+    private Iterator<ByteBuffer> chunks;
+    private final Scanner scanner = new Scanner();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    private final ArrayDeque<Frame> sent = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+    
+    public NioEndpoint(String host, int port, int pipe, boolean statistics, Configuration conf, Configure configure, NioReactor reactor) {
+        this.host = host;
+        this.port = port;
+        this.pipe = pipe;
+        this.conf = conf;
+        this.reactor = reactor;
+        this.configure = configure;
+        this.statistics = statistics;
+        this.window = configure.getMigrateWindowBytes();
+        this.monitor = MonitorFactory.getMonitor("endpoint_statistics");
+        this.address = this.toString().replaceAll("\\.", "_").replaceAll(":", "_");
+        this.depth = new AdaptivePipe(address, pipe, configure);
+        this.throttle = Throttle.valueOf(configure);
+        this.limits = throttle.node(host, port);
+        try {
+            this.channel = SocketChannel.open();
+            Socket socket = channel.socket();
+            socket.setReuseAddress(true);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            if (conf.getSendBufferSize() > 0) socket.setSendBufferSize(conf.getSendBufferSize());
+            if (conf.getReceiveBufferSize() > 0) socket.setReceiveBufferSize(conf.getReceiveBufferSize());
+            socket.setSoTimeout(conf.getReadTimeout());
+            socket.connect(new InetSocketAddress(host, port), conf.getConnectionTimeout());
+            handshake(socket);
+            channel.configureBlocking(false);
+            logger.debug("connected to {}:{}", host, port);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private void handshake(Socket socket) throws IOException {
+        // blocking mode, do not close these streams, they close the channel.
+        RedisInputStream in = new RedisInputStream(socket.getInputStream(), 1024);
+        BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        Protocol protocol = new Protocol(in, out);
+        if (conf.getAuthPassword() != null) {
+            if (conf.getAuthUser() != null) {
+                // redis6 acl
+                protocol.emit(AUTH, conf.getAuthUser().getBytes(), conf.getAuthPassword().getBytes());
+            } else {
+                protocol.emit(AUTH, conf.getAuthPassword().getBytes());
+            }
+        } else {
+            protocol.emit(PING);
+        }
+        protocol.emit(SELECT, "0".getBytes());
+        out.flush();
+        for (int i = 0; i < 2; i++) {
+            RedisObject r = protocol.parse();
+            if (r != null && r.type.isError()) throw new RuntimeException(r.getString());
+        }
+    }
+    
+    /**
+     * cluster endpoints only, MOVED and ASK replies are handed to the listener on the reactor thread
+     * instead of being counted as failures. the listener must not block.
+     */
+    public void setRedirectListener(Redirect.Listener listener) {
+        this.listener = listener;
+    }
+    
+    public boolean isAlive() {
+        return !closed && failure == null;
+    }
+    
+    public void batch(boolean force, byte[] command, byte[]... args) {
+        long mark = System.nanoTime();
+        submit(new Frame(1, Request.valueOf(command, args)), true);
+        if (force && statistics) monitor.add("send_" + address, 1, System.nanoTime() - mark);
+    }
+    
+    public void batch(boolean force, ByteBuffers command, ByteBuffers... args) {
+        long mark = System.nanoTime();
+        submit(new Frame(1, Request.valueOf(command, args)), true);
+        if (force && statistics) monitor.add("send_" + address, 1, System.nanoTime() - mark);
+    }
+    
+    /**
+     * send the command and wait for its reply, the commands submitted before are replied first.
+     * the reply is never redirected, a MOVED or ASK is returned as an error.
+     *
+     * @return the error reply, or null if the command succeeded
+     */
+    public String call(byte[] command, byte[]... args) {
+        Frame frame = new Frame(1, Request.valueOf(command, args));
+        frame.sync = true;
+        submit(frame, true);
+        lock.lock();
+        try {
+            while (!frame.done && failure == null && !closed) condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (!frame.done) {
+            if (failure != null) throw new RuntimeException(failure);
+            throw new RuntimeException("endpoint " + this + " closed");
+        }
+        return frame.error;
+    }
+    
+    /**
+     * @return the number of error replies and lost commands of this connection
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+    
+    /**
+     * resend a redirected request, called on the redirector thread. it does not wait for the window,
+     * the request was already admitted once.
+     */
+    public void resubmit(Redirect redirect) {
+        if (redirect.isAsk()) {
+            submit(new Frame(2, Request.valueOf(ASKING), redirect.getRequest()), false);
+        } else {
+            submit(new Frame(1, redirect.getRequest()), false);
+        }
+    }
+    
+    public void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable e) {
+            logger.error("failed to flush. host:{}, port:{}, reason:{}", host, port, e.getMessage());
+        }
+    }
+    
+    /**
+     * wait until the commands submitted by the current thread are replied. the commands of
+     * the other sync workers sharing this connection are not waited for.
+     */
+    public void flush() {
+        flush(last.get()[0]);
+    }
+    
+    public void flushQuietly(long sequence) {
+        try {
+            flush(sequence);
+        } catch (Throwable e) {
+            logger.error("failed to flush. host:{}, port:{}, reason:{}", host, port, e.getMessage());
+        }
+    }
+    
+    /**
+     * wait until the commands submitted up to the sequence are replied, frames are replied in
+     * the order of their sequences.
+     */
+    public void flush(long sequence) {
+        lock.lock();
+        try {
+            while (replied < sequence && failure == null && !closed) condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (failure != null) throw new RuntimeException(failure);
+    }
+    
+    /**
+     * @return the sequence of the last submitted frame
+     */
+    public long sequence() {
+        lock.lock();
+        try {
+            return submitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void submit(Frame frame, boolean wait) {
+        long bytes = frame.size;
+        if (wait) throttle.acquire(limits, address, bytes);
+        lock.lock();
+        try {
+            while (wait && isFull(bytes) && failure == null && !closed) condition.await();
+            if (failure != null) throw new RuntimeException(failure);
+            if (closed) throw new RuntimeException("endpoint " + this + " closed");
+            inflight++;
+            inflightBytes += bytes;
+            // offered under the lock, so the queue is in the order of the sequences
+            long sequence = ++submitted;
+            if (wait) last.get()[0] = sequence;
+            queue.offer(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (scheduled.compareAndSet(false, true)) reactor.schedule(this);
+    }
+    
+    private boolean isFull(long bytes) {
+        if (inflight >= depth.get()) return true;
+        return window > 0 && inflightBytes > 0 && inflightBytes + bytes > window;
+    }
+    
+    /**
+     * reactor thread
+     */
+    void write() {
+        scheduled.set(false);
+        if (!isAlive()) return;
+        try {
+            if (key == null) key = channel.register(reactor.selector(), OP_READ, this);
+            while (true) {
+                while (writing.size() < GATHER) {
+                    if (chunks != null && chunks.hasNext()) {
+                        writing.offer(chunks.next());
+                        continue;
+                    }
+                    Frame frame = queue.poll();
+                    if (frame == null) break;
+                    // the frame is kept for redirects, its chunks are read as they are written
+                    frame.mark = System.nanoTime();
+                    sent.offer(frame);
+                    chunks = frame.chunks();
+                }
+                if (writing.isEmpty()) {
+                    interest(OP_READ);
+                    return;
+                }
+                channel.write(writing.toArray(new ByteBuffer[writing.size()]));
+                while (!writing.isEmpty() && !writing.peek().hasRemaining()) writing.poll();
+                if (!writing.isEmpty()) {
+                    // socket send buffer is full, wait for OP_WRITE
+                    interest(OP_READ | OP_WRITE);
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+    
+    /**
+     * reactor thread
+     */
+    void read() {
+        try {
+            buffer.clear();
+            int len = channel.read(buffer);
+            if (len < 0) throw new EOFException("connection reset by " + this);
+            buffer.flip();
+            scanner.scan(buffer);
+            if (scanner.replies == 0) return;
+            lock.lock();
+            try {
+                inflight -= scanner.replies;
+                inflightBytes -= scanner.bytes;
+                replied += scanner.replies;
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            scanner.replies = 0;
+            scanner.bytes = 0;
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+    
+    private void interest(int ops) {
+        if (key.interestOps() != ops) key.interestOps(ops);
+    }
+    
+    private void respond(String error) {
+        if (error != null) {
+            logger.error(error);
+            failures.increment();
+            if (statistics) monitor.add("failure_respond", 1);
+        } else {
+            if (statistics) monitor.add("success_respond", 1);
+        }
+    }
+    
+    private void redirect(Redirect redirect) {
+        if (statistics) monitor.add(redirect.isAsk() ? "redirect_ask" : "redirect_moved", 1);
+        try {
+            listener.onRedirect(redirect);
+        } catch (Throwable e) {
+            logger.error("failed to redirect [{}]. reason:{}", redirect, e.getMessage());
+            redirect.getRequest().close();
+            failures.increment();
+            if (statistics) monitor.add("failure_respond", 1);
+        }
+    }
+    
+    private void fail(Throwable e) {
+        if (!closed) {
+            logger.error("connection failed. host:{}, port:{}, lost {} in flight commands, reason:{}", host, port, inflight, e.getMessage());
+            failures.add(Math.max(1, inflight));
+            failure = e;
+        }
+        closeQuietly(this);
+        Frame frame;
+        while ((frame = sent.poll()) != null) frame.close(true);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            // release the payloads that are never written
+            Frame frame;
+            while ((frame = queue.poll()) != null) frame.close(true);
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "<" + host + ":" + port + ">";
+    }
+    
+    public static void closeQuietly(NioEndpoint endpoint) {
+        if (endpoint == null) return;
+        try {
+            endpoint.close();
+        } catch (Throwable e) {
+        }
+    }
+    
+    public static NioEndpoint valueOf(String host, int port, NioEndpoint endpoint) {
+        if (endpoint.statistics) endpoint.monitor.add("reconnect_" + endpoint.address, 1);
+        closeQuietly(endpoint);
+        NioEndpoint v = new NioEndpoint(host, port, endpoint.pipe, endpoint.statistics, endpoint.conf, endpoint.configure, endpoint.reactor);
+        v.setSlots(new ArrayList<>(endpoint.getSlots()));
+        v.setRedirectListener(endpoint.listener);
+        return v;
+    }
+    
+    /**
+     * incremental RESP scanner, only counts replies and keeps the first error of every reply.
+     */
+    private class Scanner {
+        private static final int TYPE = 0;
+        private static final int LINE = 1;
+        private static final int BULK = 2;
+        
+        private int state = TYPE;
+        private byte type;
+        private long skip;
+        private boolean cr;
+        private long remaining;
+        private String error;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        
+        private long replies;
+        private long bytes;
+        
+        private void scan(ByteBuffer buf) {
+            while (buf.hasRemaining()) {
+                switch (state) {
+                    case TYPE:
+                        if (remaining == 0) {
+                            remaining = 1;
+                            error = null;
+                        }
+                        type = buf.get();
+                        line.reset();
+                        cr = false;
+                        state = LINE;
+                        break;
+                    case LINE:
+                        byte b = buf.get();
+                        if (cr && b == '\n') {
+                            line();
+                        } else if (b == '\r') {
+                            if (cr) line.write('\r');
+                            cr = true;
+                        } else {
+                            if (cr) line.write('\r');
+                            cr = false;
+                            line.write(b);
+                        }
+                        break;
+                    case BULK:
+                        int n = (int) Math.min(skip, buf.remaining());
+                        buf.position(buf.position() + n);
+                        skip -= n;
+                        if (skip == 0) {
+                            state = TYPE;
+                            complete();
+                        }
+                        break;
+                    default:
+                        throw new AssertionError(state);
+                }
+            }
+        }
+        
+        private void line() {
+            String value = new String(line.toByteArray());
+            state = TYPE;
+            switch (type) {
+                case PLUS:
+                case COLON:
+                    complete();
+                    break;
+                case MINUS:
+                    if (error == null) error = value;
+                    complete();
+                    break;
+                case DOLLAR:
+                    long len = Long.parseLong(value);
+                    if (len < 0) {
+                        complete();
+                    } else {
+                        skip = len + 2;
+                        state = BULK;
+                    }
+                    break;
+                case STAR:
+                    len = Long.parseLong(value);
+                    if (len > 0) remaining += len;
+                    complete();
+                    break;
+                default:
+                    throw new RuntimeException("expect [$,:,*,+,-] but: " + (char) type);
+            }
+        }
+        
+        private void complete() {
+            if (--remaining > 0) return;
+            Frame frame = sent.peek();
+            if (frame == null) throw new IllegalStateException("unexpected reply from " + NioEndpoint.this);
+            // the reply of the ASKING prefix
+            if (--frame.replies > 0) return;
+            sent.poll();
+            Redirect redirect = listener == null || frame.sync ? null : Redirect.valueOf(error, frame.payload(), host);
+            if (redirect != null) redirect(redirect);
+            else if (!frame.sync) respond(error);
+            if (frame.sync) {
+                // signaled by read()
+                if (error != null) failures.increment();
+                frame.error = error;
+                frame.done = true;
+            }
+            // a redirected payload is closed by the node it is resent to
+            frame.close(redirect == null);
+            depth.update(System.nanoTime() - frame.mark, error != null && redirect == null);
+            replies++;
+            bytes += frame.size;
+        }
+    }
+    
+    /**
+     * requests written back to back, e.g. ASKING and the redirected request. the last one is the payload.
+     */
+    private static class Frame {
+        private long mark;
+        private int replies;
+        private boolean sync;
+        private String error;
+        private volatile boolean done;
+        private final long size;
+        private final Request[] requests;
+        
+        private Frame(int replies, Request... requests) {
+            this.replies = replies;
+            this.requests = requests;
+            long size = 0;
+            for (Request request : requests) size += request.size();
+            this.size = size;
+        }
+        
+        private Request payload() {
+            return requests[requests.length - 1];
+        }
+        
+        private Iterator<ByteBuffer> chunks() {
+            return new Iterator<ByteBuffer>() {
+                private int index;
+                private Iterator<ByteBuffer> it = requests[0].chunks();
+                
+                @Override
+                public boolean hasNext() {
+                    while (!it.hasNext()) {
+                        if (++index >= requests.length) return false;
+                        it = requests[index].chunks();
+                    }
+                    return true;
+                }
+                
+                @Override
+                public ByteBuffer next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return it.next();
+                }
+            };
+        }
+        
+        private void close(boolean payload) {
+            for (int i = 0; i < requests.length - 1; i++) requests[i].close();
+            if (payload) payload().close();
+        }
+    }
+}
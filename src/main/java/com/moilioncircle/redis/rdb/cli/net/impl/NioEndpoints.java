@@ -0,0 +1,430 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.conf.NodeConfParser;
+import com.moilioncircle.redis.rdb.cli.net.Endpoints;
+import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.rdb.cli.util.CloseableThread;
+import com.moilioncircle.redis.replicator.Configuration;
+
+/**
+ * One non-blocking connection per master, shared by all sync workers. the connection count
+ * is independent of the number of sync workers.
+ *
+ * @author Baoyi Chen
+ */
+public class NioEndpoints implements Endpoints {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NioEndpoints.class);
+    
+    private static final int MAX_REDIRECTS = 5;
+    
+    private final int pipe;
+    private final boolean statistics;
+    private final Configure configure;
+    private final NioReactor[] reactors;
+    private final Configuration configuration;
+    private final AtomicInteger refs = new AtomicInteger();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong redirections = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+    private final LongAdder failures = new LongAdder();
+    private final CloseableThread redirector;
+    private final BlockingQueue<Redirect> redirects = new LinkedBlockingQueue<>();
+    private final Redirect.Listener listener = this::redirect;
+    private volatile List<String> clusterNodes = new ArrayList<>();
+    private volatile Set<NioEndpoint> index1 = new HashSet<>();
+    private volatile NioEndpoint[] index2 = new NioEndpoint[16384];
+    
+    public NioEndpoints(List<String> lines, int pipe, boolean statistics, Configuration configuration, Configure configure) {
+        this.pipe = pipe;
+        this.configure = configure;
+        this.statistics = statistics;
+        this.configuration = configuration;
+        Set<DummyEndpoint> next1 = new HashSet<>();
+        Map<Short, DummyEndpoint> next2 = new HashMap<>(16384);
+        new NodeConfParser<DummyEndpoint>(tuple -> {
+            return new DummyEndpoint(tuple.getV1(), tuple.getV2());
+        }).parse(lines, next1, next2);
+        int threads = configure.getMigrateNioThreads();
+        if (threads <= 0) threads = Math.min(Runtime.getRuntime().availableProcessors(), next1.size());
+        this.reactors = new NioReactor[Math.max(1, threads)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new NioReactor("nio-reactor-" + i);
+        }
+        this.redirector = CloseableThread.open("nio-redirector", this::resend, true, true);
+        try {
+            merge(next1, lines);
+        } catch (Throwable e) {
+            shutdown();
+            throw e;
+        }
+    }
+    
+    /**
+     * every sync worker retains the shared endpoints, the last {@link #close()} releases the connections.
+     */
+    public NioEndpoints retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+    
+    @Override
+    public List<String> getClusterNodes() {
+        return clusterNodes;
+    }
+    
+    @Override
+    public void ping(boolean force) {
+        for (NioEndpoint prev : index1) {
+            try {
+                prev.batch(force, "PING".getBytes());
+            } catch (Throwable e) {
+                updateQuietly(prev);
+                break;
+            }
+        }
+    }
+    
+    @Override
+    public void batch(boolean force, short slot, byte[] command, byte[]... args) {
+        endpoint(slot).batch(force, command, args);
+    }
+    
+    @Override
+    public void batch(boolean force, short slot, ByteBuffers command, ByteBuffers... args) {
+        endpoint(slot).batch(force, command, args);
+    }
+    
+    @Override
+    public String call(short slot, byte[] command, byte[]... args) {
+        return endpoint(slot).call(command, args);
+    }
+    
+    @Override
+    public void flushQuietly() {
+        long mark = redirections.get();
+        for (NioEndpoint endpoint : index1) {
+            endpoint.flushQuietly();
+        }
+        // a redirected frame may be resent to an endpoint that is already flushed. it is
+        // queued before its reply is counted, wait until it is resent and covered by the
+        // current sequences.
+        for (int i = 0; redirections.get() != mark; i++) {
+            mark = redirections.get();
+            while (resent.get() < mark && redirector.isAlive()) {
+                LockSupport.parkNanos(100000L);
+            }
+            for (NioEndpoint endpoint : index1) {
+                endpoint.flushQuietly(endpoint.sequence());
+            }
+            if (i >= MAX_REDIRECTS) {
+                logger.error("too many redirections, stop waiting for redirected commands");
+                break;
+            }
+        }
+    }
+    
+    @Override
+    public long getFailures() {
+        long r = failures.sum();
+        for (NioEndpoint endpoint : index1) r += endpoint.getFailures();
+        return r;
+    }
+    
+    @Override
+    public boolean isSameNode(short... slots) {
+        NioEndpoint[] index2 = this.index2;
+        NioEndpoint endpoint = index2[slots[0]];
+        for (int i = 1; i < slots.length; i++) {
+            if (endpoint == null || endpoint != index2[slots[i]]) return false;
+        }
+        return endpoint != null;
+    }
+    
+    /*
+     * a slot without owner, e.g. in the middle of resharding, is sent to any node
+     * and fixed by the MOVED reply.
+     */
+    private NioEndpoint endpoint(short slot) {
+        NioEndpoint endpoint = index2[slot];
+        return endpoint != null ? endpoint : index1.iterator().next();
+    }
+    
+    /*
+     * reactor thread, must not block. the redirect is resent by the redirector thread,
+     * a new master is connected there.
+     */
+    private void redirect(Redirect redirect) {
+        redirections.incrementAndGet();
+        redirects.offer(redirect);
+    }
+    
+    /*
+     * redirector thread. MOVED patches the slot table, ASK is a one-shot redirect.
+     */
+    private void resend() {
+        Redirect redirect;
+        try {
+            redirect = redirects.take();
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            NioEndpoint target;
+            synchronized (this) {
+                target = lookup(redirect.getHost(), redirect.getPort());
+                if (!redirect.isAsk()) move(redirect.getSlot(), target);
+            }
+            target.resubmit(redirect);
+        } catch (Throwable e) {
+            logger.error("failed to redirect [{}]. reason:{}", redirect, e.getMessage());
+            redirect.getRequest().close();
+            failures.increment();
+        } finally {
+            resent.incrementAndGet();
+        }
+    }
+    
+    private NioEndpoint lookup(String host, int port) {
+        for (NioEndpoint endpoint : index1) {
+            if (endpoint.getPort() == port && endpoint.getHost().equals(host)) return endpoint;
+        }
+        // new master, e.g. added by resharding
+        NioEndpoint endpoint = open(host, port);
+        Set<NioEndpoint> n1 = new HashSet<>(index1);
+        n1.add(endpoint);
+        this.index1 = n1;
+        return endpoint;
+    }
+    
+    private void move(short slot, NioEndpoint target) {
+        NioEndpoint prev = index2[slot];
+        if (prev == target) return;
+        if (prev != null) prev.getSlots().remove(Short.valueOf(slot));
+        target.addSlot(slot);
+        NioEndpoint[] n2 = index2.clone();
+        n2[slot] = target;
+        this.index2 = n2;
+        logger.debug("slot {} moved from {} to {}", slot, prev, target);
+    }
+    
+    private NioEndpoint open(String host, int port) {
+        NioReactor reactor = reactors[Math.floorMod(next.getAndIncrement(), reactors.length)];
+        NioEndpoint endpoint = new NioEndpoint(host, port, pipe, statistics, configuration, configure, reactor);
+        endpoint.setRedirectListener(listener);
+        return endpoint;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (refs.decrementAndGet() > 0) return;
+        shutdown();
+    }
+    
+    private void shutdown() {
+        CloseableThread.close(redirector);
+        Redirect redirect;
+        while ((redirect = redirects.poll()) != null) {
+            redirect.getRequest().close();
+        }
+        for (NioEndpoint endpoint : index1) {
+            NioEndpoint.closeQuietly(endpoint);
+        }
+        for (NioReactor reactor : reactors) {
+            NioReactor.closeQuietly(reactor);
+        }
+    }
+    
+    @Override
+    public void updateQuietly(short slot) {
+        updateQuietly(endpoint(slot));
+    }
+    
+    public void updateQuietly(NioEndpoint endpoint) {
+        try {
+            update(endpoint);
+        } catch (Throwable e) {
+        }
+    }
+    
+    public synchronized void update(NioEndpoint endpoint) {
+        // other sync workers share this endpoint, it may be already replaced.
+        if (endpoint.isAlive() || !contains(endpoint)) return;
+        logger.debug("update cluster view. failed node {}:{}, prev {}", endpoint.getHost(), endpoint.getPort(), index1);
+        try {
+            RedisObject r = send(endpoint.getHost(), endpoint.getPort(), "role".getBytes());
+            RedisObject[] array = r.getArray();
+            if (array[0].getString().equals("master")) {
+                // master
+                replace(endpoint, NioEndpoint.valueOf(endpoint.getHost(), endpoint.getPort(), endpoint));
+            } else {
+                // slave
+                String host = array[1].getString();
+                int port = array[2].getNumber().intValue();
+                replace(endpoint, NioEndpoint.valueOf(host, port, endpoint));
+            }
+        } catch (Throwable e) {
+            // FAILOVER PROCESS
+            logger.debug("FAILOVER PROCESS!");
+            
+            // 1 get cluster nodes view
+            List<String> lines = null;
+            for (NioEndpoint prev : index1) {
+                try {
+                    RedisObject r = send(prev.getHost(), prev.getPort(), "cluster".getBytes(), "nodes".getBytes());
+                    if (r.type.isError()) {
+                        // try next endpoint
+                        continue;
+                    }
+                    lines = Arrays.asList(r.getString().split("\n"));
+                    break;
+                } catch (Throwable error) {
+                }
+            }
+            
+            // 2 if all endpoints failed exit.
+            if (lines == null) {
+                logger.error("can't connect to any of cluster nodes");
+                return;
+            }
+            
+            // 3 parse nodes info
+            Set<DummyEndpoint> next1 = new HashSet<>();
+            Map<Short, DummyEndpoint> next2 = new HashMap<>(16384);
+            try {
+                new NodeConfParser<DummyEndpoint>(tuple -> {
+                    return new DummyEndpoint(tuple.getV1(), tuple.getV2());
+                }).parse(lines, next1, next2);
+            } catch (Throwable cause) {
+                return;
+            }
+            
+            // 4 update all cluster nodes view
+            merge(next1, lines);
+            logger.debug("merged cluster view. next {}", index1);
+        }
+    }
+    
+    private boolean contains(NioEndpoint endpoint) {
+        for (NioEndpoint prev : index1) {
+            if (prev == endpoint) return true;
+        }
+        return false;
+    }
+    
+    /*
+     * short-lived blocking connection, only used to query the cluster view.
+     */
+    private RedisObject send(String host, int port, byte[] command, byte[]... args) {
+        XEndpoint endpoint = null;
+        try {
+            endpoint = new XEndpoint(host, port, configuration, configure);
+            return endpoint.send(command, args);
+        } finally {
+            XEndpoint.closeQuietly(endpoint);
+        }
+    }
+    
+    private void merge(Set<DummyEndpoint> next1, List<String> lines) {
+        Map<DummyEndpoint, NioEndpoint> prev = new HashMap<>();
+        for (NioEndpoint endpoint : index1) {
+            if (endpoint.isAlive() && next1.contains(endpoint)) {
+                prev.put(new DummyEndpoint(endpoint.getHost(), endpoint.getPort()), endpoint);
+            } else {
+                NioEndpoint.closeQuietly(endpoint);
+            }
+        }
+        
+        Set<NioEndpoint> n1 = new HashSet<>();
+        NioEndpoint[] n2 = new NioEndpoint[16384];
+        for (DummyEndpoint dummy : next1) {
+            NioEndpoint endpoint = prev.get(dummy);
+            if (endpoint == null) {
+                endpoint = open(dummy.getHost(), dummy.getPort());
+            }
+            endpoint.setSlots(new ArrayList<>(dummy.getSlots()));
+            n1.add(endpoint);
+            for (Short slot : endpoint.getSlots()) {
+                n2[slot] = endpoint;
+            }
+        }
+        
+        int missing = 0;
+        for (NioEndpoint endpoint : n2) {
+            if (endpoint == null) missing++;
+        }
+        if (missing > 0) {
+            logger.warn("{} slots are not served by any node, wait for MOVED replies", missing);
+        }
+        
+        this.index1 = n1;
+        this.index2 = n2;
+        this.clusterNodes = lines;
+    }
+    
+    private void replace(NioEndpoint v1, NioEndpoint v2) {
+        Set<NioEndpoint> n1 = new HashSet<>(index1);
+        n1.remove(v1);
+        n1.add(v2);
+        NioEndpoint[] n2 = index2.clone();
+        for (short slot : v2.getSlots()) {
+            n2[slot] = v2;
+        }
+        this.index1 = n1;
+        this.index2 = n2;
+    }
+    
+    public static void closeQuietly(NioEndpoints endpoints) {
+        if (endpoints == null) return;
+        try {
+            endpoints.close();
+        } catch (Throwable e) {
+        }
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (NioEndpoint endpoint : index1) {
+            builder.append(endpoint.toString());
+            builder.append(",");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.util.CloseableThread;
+
+/**
+ * @author Baoyi Chen
+ */
+public class NioReactor implements Runnable, Closeable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NioReactor.class);
+    
+    private final Selector selector;
+    private final CloseableThread thread;
+    private final Queue<NioEndpoint> ready = new ConcurrentLinkedQueue<>();
+    
+    public NioReactor(String name) {
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.thread = CloseableThread.open(name, this, true, true);
+    }
+    
+    Selector selector() {
+        return selector;
+    }
+    
+    /**
+     * called by producers, the endpoint drains its submission queue in the reactor thread.
+     */
+    void schedule(NioEndpoint endpoint) {
+        ready.offer(endpoint);
+        selector.wakeup();
+    }
+    
+    @Override
+    public void run() {
+        try {
+            selector.select();
+            NioEndpoint endpoint;
+            while ((endpoint = ready.poll()) != null) {
+                endpoint.write();
+            }
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                endpoint = (NioEndpoint) key.attachment();
+                if (key.isValid() && key.isReadable()) endpoint.read();
+                if (key.isValid() && key.isWritable()) endpoint.write();
+            }
+        } catch (ClosedSelectorException e) {
+            CloseableThread.close(thread);
+        } catch (IOException e) {
+            logger.error("failed to select. reason:{}", e.getMessage());
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        CloseableThread.close(thread);
+        selector.close();
+    }
+    
+    public static void closeQuietly(NioReactor reactor) {
+        if (reactor == null) return;
+        try {
+            reactor.close();
+        } catch (Throwable e) {
+        }
+    }
+}
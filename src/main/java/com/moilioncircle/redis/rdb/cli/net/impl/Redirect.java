@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import com.moilioncircle.redis.rdb.cli.net.protocol.Request;
+
+/**
+ * A parsed {@code -MOVED} or {@code -ASK} reply together with the request that caused it. the
+ * request is handed over to the node it is resent to, and closed when that node replies.
+ *
+ * @author Baoyi Chen
+ */
+public class Redirect {
+    
+    private final boolean ask;
+    private final short slot;
+    private final String host;
+    private final int port;
+    private final Request request;
+    
+    private Redirect(boolean ask, short slot, String host, int port, Request request) {
+        this.ask = ask;
+        this.slot = slot;
+        this.host = host;
+        this.port = port;
+        this.request = request;
+    }
+    
+    public boolean isAsk() {
+        return ask;
+    }
+    
+    public short getSlot() {
+        return slot;
+    }
+    
+    public String getHost() {
+        return host;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public Request getRequest() {
+        return request;
+    }
+    
+    /**
+     * @param error the error reply, e.g. {@code MOVED 3999 127.0.0.1:6381}
+     * @param request the request that caused the error
+     * @param host  the host of the replying node, used when the reply has an empty host
+     * @return null if the error is not a redirect
+     */
+    public static Redirect valueOf(String error, Request request, String host) {
+        if (error == null || request == null) return null;
+        boolean ask;
+        if (error.startsWith("MOVED ")) ask = false;
+        else if (error.startsWith("ASK ")) ask = true;
+        else return null;
+        String[] ary = error.split(" ");
+        if (ary.length < 3) return null;
+        int idx = ary[2].lastIndexOf(':');
+        if (idx < 0) return null;
+        try {
+            short slot = Short.parseShort(ary[1]);
+            int port = Integer.parseInt(ary[2].substring(idx + 1));
+            String target = idx == 0 ? host : ary[2].substring(0, idx);
+            return new Redirect(ask, slot, target, port, request);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return (ask ? "ASK " : "MOVED ") + slot + " " + host + ":" + port;
+    }
+    
+    public interface Listener {
+        void onRedirect(Redirect redirect);
+    }
+}
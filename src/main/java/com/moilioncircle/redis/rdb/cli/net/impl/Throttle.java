@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.monitor.MonitorFactory;
+import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
+import com.moilioncircle.redis.rdb.cli.util.CloseableThread;
+import com.moilioncircle.redis.rdb.cli.util.TokenBucket;
+
+/**
+ * Global and per node throughput limiter of the migration endpoints.
+ *
+ * @author Baoyi Chen
+ */
+public class Throttle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(Throttle.class);
+    private static final Monitor monitor = MonitorFactory.getMonitor("endpoint_statistics");
+    
+    private static volatile Throttle instance;
+    
+    private final File file;
+    private long modified = -1;
+    private volatile Properties overrides = new Properties();
+    
+    private final Configure configure;
+    private final TokenBucket ops;
+    private final TokenBucket bytes;
+    private final Map<String, TokenBucket[]> nodes = new ConcurrentHashMap<>();
+    
+    private Throttle(Configure configure) {
+        this.configure = configure;
+        this.ops = new TokenBucket(configure.getMigrateRateOps());
+        this.bytes = new TokenBucket(configure.getMigrateRateBytes());
+        this.file = configure.getMigrateRateFile() == null ? null : new File(configure.getMigrateRateFile());
+        if (file != null) {
+            reload();
+            CloseableThread.open("throttle-reloader", () -> {
+                LockSupport.parkNanos(1000000000L);
+                reload();
+            }, true, true);
+        }
+    }
+    
+    public static Throttle valueOf(Configure configure) {
+        if (instance == null) {
+            synchronized (Throttle.class) {
+                if (instance == null) instance = new Throttle(configure);
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * block the caller until the limits allow sending 1 command of {@code size} bytes to the node.
+     */
+    public void acquire(TokenBucket[] node, String address, long size) {
+        long wait = Math.max(Math.max(ops.reserve(1), bytes.reserve(size)), Math.max(node[0].reserve(1), node[1].reserve(size)));
+        if (wait <= 0) return;
+        LockSupport.parkNanos(wait);
+        monitor.add("throttle_wait", 1, wait);
+        monitor.add("throttle_wait_" + address, 1, wait);
+    }
+    
+    /**
+     * the limiters of the node, endpoints of the same node share them.
+     */
+    public TokenBucket[] node(String host, int port) {
+        String key = host + "." + port;
+        TokenBucket[] r = nodes.get(key);
+        if (r != null) return r;
+        r = new TokenBucket[]{new TokenBucket(nodeRate("migrate_node_rate_ops", key)), new TokenBucket(nodeRate("migrate_node_rate_bytes", key))};
+        TokenBucket[] prev = nodes.putIfAbsent(key, r);
+        return prev != null ? prev : r;
+    }
+    
+    private long nodeRate(String name, String node) {
+        Properties p = overrides;
+        String v = p.getProperty(name + "." + node);
+        if (v == null) v = p.getProperty(name);
+        if (v != null) return Long.parseLong(v.trim());
+        return name.equals("migrate_node_rate_ops") ? configure.getMigrateNodeRateOps() : configure.getMigrateNodeRateBytes();
+    }
+    
+    private long rate(Properties p, String name, long value) {
+        String v = p.getProperty(name);
+        return v == null ? value : Long.parseLong(v.trim());
+    }
+    
+    private void reload() {
+        if (!file.exists() || file.lastModified() == modified) return;
+        modified = file.lastModified();
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+            this.overrides = p;
+            ops.setRate(rate(p, "migrate_rate_ops", configure.getMigrateRateOps()));
+            bytes.setRate(rate(p, "migrate_rate_bytes", configure.getMigrateRateBytes()));
+            for (Map.Entry<String, TokenBucket[]> entry : nodes.entrySet()) {
+                entry.getValue()[0].setRate(nodeRate("migrate_node_rate_ops", entry.getKey()));
+                entry.getValue()[1].setRate(nodeRate("migrate_node_rate_bytes", entry.getKey()));
+            }
+            logger.info("reloaded rate limits from {}, ops:{}, bytes:{}", file, ops.getRate(), bytes.getRate());
+        } catch (Throwable e) {
+            logger.error("failed to reload rate limits from {}, reason:{}", file, e.getMessage());
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.moilioncircle.redis.rdb.cli.net.impl;
 
+import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.ASKING;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.AUTH;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.PING;
 import static com.moilioncircle.redis.rdb.cli.ext.datatype.RedisConstants.SELECT;
@@ -25,8 +26,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,9 +47,12 @@ import com.moilioncircle.redis.rdb.cli.monitor.entity.Monitor;
 import com.moilioncircle.redis.rdb.cli.net.AbstractEndpoint;
 import com.moilioncircle.redis.rdb.cli.net.protocol.Protocol;
 import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
+import com.moilioncircle.redis.rdb.cli.net.protocol.Request;
 import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.rdb.cli.util.CloseableThread;
 import com.moilioncircle.redis.rdb.cli.util.OutputStreams;
 import com.moilioncircle.redis.rdb.cli.util.Sockets;
+import com.moilioncircle.redis.rdb.cli.util.TokenBucket;
 import com.moilioncircle.redis.replicator.Configuration;
 import com.moilioncircle.redis.replicator.io.RedisInputStream;
 import com.moilioncircle.redis.replicator.net.RedisSocketFactory;
@@ -67,6 +79,25 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
     private final RedisInputStream in;
 
     private final Monitor monitor;
+    private final AdaptivePipe depth;
+    private final Throttle throttle;
+    private final TokenBucket[] limits;
+    
+    // async reply reader, only if pipe > 1
+    private final int window;
+    private long inflight;
+    private long inflightBytes;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private CloseableThread reader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition condition = lock.newCondition();
+    private final Queue<Pending> pendings = new ConcurrentLinkedQueue<>();
+    private final LongAdder failures = new LongAdder();
+    
+    // cluster only, sent requests are kept until replied so that MOVED and ASK can be resent.
+    private volatile Redirect.Listener listener;
+    private final Queue<Request> requests = new ArrayDeque<>();
     
     public XEndpoint(String host, int port, Configuration conf, Configure configure) {
         this(host, port, 0, 1, false, conf, configure);
@@ -79,7 +110,12 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
         this.conf = conf;
         this.configure = configure;
         this.statistics = statistics;
+        this.window = configure.getMigrateWindowBytes();
         this.monitor = MonitorFactory.getMonitor("endpoint_statistics");
+        this.address = this.toString().replaceAll("\\.", "_").replaceAll(":", "_");
+        this.depth = new AdaptivePipe(address, pipe, configure);
+        this.throttle = Throttle.valueOf(configure);
+        this.limits = throttle.node(host, port);
         try {
             RedisSocketFactory factory = new RedisSocketFactory(conf);
             this.socket = factory.createSocket(host, port, conf.getConnectionTimeout());
@@ -102,8 +138,11 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
             RedisObject r = send(SELECT, String.valueOf(db).getBytes());
             if (r != null && r.type.isError()) throw new RuntimeException(r.getString());
             this.db = db;
-            this.address = this.toString().replaceAll("\\.", "_").replaceAll(":", "_");
             logger.debug("connected to {}:{}", host, port, db);
+            if (pipe > 1) {
+                this.reader = CloseableThread.open("reader-" + host + ":" + port, new Reader(), false, true);
+                this.reader.start();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -123,21 +162,53 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
         return builder.toString();
     }
     
+    /**
+     * MOVED and ASK replies of batched commands are handed to the listener instead of being
+     * counted as failures. the listener is called on the reader thread if pipe > 1.
+     */
+    public void setRedirectListener(Redirect.Listener listener) {
+        this.listener = listener;
+    }
+    
     public int getDB() {
         return db;
     }
     
     public RedisObject send(byte[] command, byte[]... ary) {
         try {
-            flush();
-            protocol.emit(command, ary);
-            out.flush();
-            return protocol.parse();
+            if (reader == null) {
+                flush();
+                protocol.emit(command, ary);
+                out.flush();
+                return protocol.parse();
+            } else {
+                Pending pending = acquire(0L, true, null);
+                protocol.emit(command, ary);
+                out.flush();
+                return await(pending);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    /**
+     * @return the error reply, or null if the command succeeded
+     */
+    public String call(byte[] command, byte[]... args) {
+        RedisObject r = send(command, args);
+        if (r == null || !r.type.isError()) return null;
+        failures.increment();
+        return r.getString();
+    }
+    
+    /**
+     * @return the number of error replies and lost commands of this connection
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+    
     public void select(boolean force, int db) {
         batch(force, SELECT, String.valueOf(db).getBytes());
         this.db = db;
@@ -145,14 +216,17 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
     
     public void batch(boolean force, byte[] command, byte[]... args) {
         try {
+            long bytes = command.length;
+            for (byte[] arg : args) bytes += arg.length;
+            throttle.acquire(limits, address, bytes);
+            if (listener != null) {
+                emit(force, Request.valueOf(command, args));
+                return;
+            }
+            if (reader != null) acquire(bytes, false, null);
             long mark = System.nanoTime();
             protocol.emit(command, args);
-            if (force) {
-                out.flush();
-                if (statistics) monitor.add("send_" + address, 1, System.nanoTime() - mark);
-            }
-            count++;
-            if (count == pipe) flush();
+            emitted(force, mark);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -160,19 +234,55 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
     
     public void batch(boolean force, ByteBuffers command, ByteBuffers... args) {
         try {
+            long bytes = command.getSize();
+            for (ByteBuffers arg : args) bytes += arg.getSize();
+            throttle.acquire(limits, address, bytes);
+            if (listener != null) {
+                emit(force, Request.valueOf(command, args));
+                return;
+            }
+            if (reader != null) acquire(bytes, false, null);
             long mark = System.nanoTime();
             protocol.emit(command, args);
-            if (force) {
-                out.flush();
-                if (statistics) monitor.add("send_" + address, 1, System.nanoTime() - mark);
-            }
-            count++;
-            if (count == pipe) flush();
+            emitted(force, mark);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
     
+    /**
+     * resend a request redirected by another node, ASK is preceded by ASKING.
+     */
+    public void resend(boolean force, Redirect redirect) {
+        try {
+            if (redirect.isAsk()) emit(force, Request.valueOf(ASKING));
+            emit(force, redirect.getRequest());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private void emit(boolean force, Request request) throws IOException {
+        if (reader != null) acquire(request.size(), false, request);
+        else requests.offer(request);
+        long mark = System.nanoTime();
+        Iterator<ByteBuffer> it = request.chunks();
+        while (it.hasNext()) {
+            ByteBuffer chunk = it.next();
+            out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        }
+        emitted(force, mark);
+    }
+    
+    private void emitted(boolean force, long mark) throws IOException {
+        if (force) {
+            out.flush();
+            if (statistics) monitor.add("send_" + address, 1, System.nanoTime() - mark);
+        }
+        count++;
+        if (count >= depth.get()) flush0();
+    }
+    
     public void flushQuietly() {
         try {
             flush();
@@ -183,29 +293,204 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
     
     public void flush() {
         try {
-            if (count > 0) {
+            if (reader != null) {
+                OutputStreams.flush(out);
+                count = 0;
+                // wait until all in flight replies are consumed.
+                lock.lock();
+                try {
+                    while (inflight > 0 && failure == null && !closed) condition.await();
+                } finally {
+                    lock.unlock();
+                }
+                if (failure != null) throw new RuntimeException(failure);
+            } else if (count > 0) {
                 OutputStreams.flush(out);
                 for (int i = 0; i < count; i++) {
-                    RedisObject r = protocol.parse();
-                    if (r != null && r.type.isError()) {
-                        logger.error(r.getString());
-                        if (statistics) monitor.add("failure_respond", 1);
-                    } else {
-                        if (statistics) monitor.add("success_respond", 1);
-                    }
+                    respond(protocol.parse(), requests.poll());
                 }
                 count = 0;
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
     }
     
+    private void flush0() {
+        if (reader == null) {
+            flush();
+        } else {
+            // replies are consumed by reader, no need to wait.
+            OutputStreams.flush(out);
+            count = 0;
+        }
+    }
+    
+    /**
+     * @return true if the reply is a redirect
+     */
+    private boolean respond(RedisObject r, Request request) {
+        Redirect.Listener listener = this.listener;
+        if (listener != null && request != null && r != null && r.type.isError()) {
+            Redirect redirect = Redirect.valueOf(r.getString(), request, host);
+            if (redirect != null) {
+                if (statistics) monitor.add(redirect.isAsk() ? "redirect_ask" : "redirect_moved", 1);
+                // the request is closed by the node it is resent to
+                listener.onRedirect(redirect);
+                return true;
+            }
+        }
+        respond(r);
+        if (request != null) request.close();
+        return false;
+    }
+    
+    private void respond(RedisObject r) {
+        if (r != null && r.type.isError()) {
+            logger.error(r.getString());
+            failures.increment();
+            if (statistics) monitor.add("failure_respond", 1);
+        } else {
+            if (statistics) monitor.add("success_respond", 1);
+        }
+    }
+    
+    private Pending acquire(long bytes, boolean sync, Request request) {
+        if (isFull(bytes)) {
+            // must flush buffered commands before waiting, otherwise the window never drains.
+            OutputStreams.flush(out);
+            lock.lock();
+            try {
+                while (isFull(bytes) && failure == null && !closed) condition.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (failure != null) throw new RuntimeException(failure);
+        if (closed) throw new RuntimeException("endpoint " + this + " closed");
+        Pending pending = new Pending(bytes, sync, request);
+        lock.lock();
+        try {
+            inflight++;
+            inflightBytes += bytes;
+        } finally {
+            lock.unlock();
+        }
+        pendings.offer(pending);
+        return pending;
+    }
+    
+    private boolean isFull(long bytes) {
+        lock.lock();
+        try {
+            if (inflight >= depth.get()) return true;
+            return window > 0 && inflightBytes > 0 && inflightBytes + bytes > window;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private RedisObject await(Pending pending) {
+        lock.lock();
+        try {
+            while (!pending.done && failure == null && !closed) condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+        if (!pending.done) {
+            if (failure != null) throw new RuntimeException(failure);
+            throw new RuntimeException("endpoint " + this + " closed");
+        }
+        return pending.reply;
+    }
+    
     @Override
     public void close() throws IOException {
+        closed = true;
         Sockets.closeQuietly(in);
         Sockets.closeQuietly(out);
         Sockets.closeQuietly(socket);
+        if (reader != null) {
+            CloseableThread.close(reader);
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        // release the payloads that are never replied
+        Request request;
+        while ((request = requests.poll()) != null) request.close();
+        Pending pending;
+        while ((pending = pendings.poll()) != null) {
+            if (pending.request != null) pending.request.close();
+        }
+    }
+    
+    private static class Pending {
+        private final long mark;
+        private final long bytes;
+        private final boolean sync;
+        private final Request request;
+        private RedisObject reply;
+        private boolean done;
+        
+        private Pending(long bytes, boolean sync, Request request) {
+            this.bytes = bytes;
+            this.sync = sync;
+            this.request = request;
+            this.mark = System.nanoTime();
+        }
+    }
+    
+    private class Reader implements Runnable {
+        @Override
+        public void run() {
+            try {
+                RedisObject r = protocol.parse();
+                Pending pending = pendings.poll();
+                if (pending == null) {
+                    throw new IllegalStateException("unexpected reply from " + XEndpoint.this);
+                }
+                boolean redirected = !pending.sync && respond(r, pending.request);
+                depth.update(System.nanoTime() - pending.mark, !redirected && r != null && r.type.isError());
+                lock.lock();
+                try {
+                    inflight--;
+                    inflightBytes -= pending.bytes;
+                    if (pending.sync) {
+                        pending.reply = r;
+                        pending.done = true;
+                    }
+                    condition.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (Throwable e) {
+                if (!closed) {
+                    logger.error("failed to read reply. host:{}, port:{}, reason:{}", host, port, e.getMessage());
+                    failures.increment();
+                    failure = e;
+                }
+                lock.lock();
+                try {
+                    condition.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                CloseableThread.close(reader);
+            }
+        }
     }
     
     public static void close(XEndpoint endpoint) {
@@ -255,6 +540,7 @@ public class XEndpoint extends AbstractEndpoint implements Closeable {
         closeQuietly(endpoint);
         XEndpoint v = new XEndpoint(host, port, db, endpoint.pipe, endpoint.statistics, endpoint.conf, endpoint.configure);
         v.setSlots(new ArrayList<>(endpoint.slots));
+        v.setRedirectListener(endpoint.listener);
         return v;
     }
     
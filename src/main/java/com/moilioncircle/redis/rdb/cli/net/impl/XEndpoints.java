@@ -18,7 +18,6 @@ package com.moilioncircle.redis.rdb.cli.net.impl;
 
 import static com.moilioncircle.redis.rdb.cli.conf.NodeConfParser.slot;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,7 +25,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
@@ -34,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import com.moilioncircle.redis.rdb.cli.conf.Configure;
 import com.moilioncircle.redis.rdb.cli.conf.NodeConfParser;
+import com.moilioncircle.redis.rdb.cli.net.AbstractEndpoint;
+import com.moilioncircle.redis.rdb.cli.net.Endpoints;
 import com.moilioncircle.redis.rdb.cli.net.protocol.RedisObject;
 import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
 import com.moilioncircle.redis.replicator.Configuration;
@@ -42,30 +45,49 @@ import com.moilioncircle.redis.replicator.util.type.Tuple3;
 /**
  * @author Baoyi Chen
  */
-public class XEndpoints implements Closeable {
+public class XEndpoints implements Endpoints {
     
     private static final Logger logger = LoggerFactory.getLogger(XEndpoints.class);
+    
+    private static final int MAX_REDIRECTS = 5;
 
+    private final int pipe;
+    private final boolean statistics;
     private final Configure configure;
     private final Configuration configuration;
     private Set<XEndpoint> index1 = new HashSet<>();
     private List<String> clusterNodes = new ArrayList<>();
-    private Map<Short, XEndpoint> index2 = new HashMap<>(16384);
+    private XEndpoint[] index2 = new XEndpoint[16384];
+    
+    // offered by reader threads, drained by the owner thread.
+    private final Queue<Redirect> redirects = new ConcurrentLinkedQueue<>();
+    private final Redirect.Listener listener = redirects::offer;
+    private long failures; // dropped redirects, owner thread only
 
     public XEndpoints(List<String> lines, int pipe, boolean statistics, Configuration configuration, Configure configure) {
+        this.pipe = pipe;
+        this.statistics = statistics;
         this.clusterNodes = lines;
         this.configure = configure;
         this.configuration = configuration;
         Function<Tuple3<String, Integer, String>, XEndpoint> mapper = t -> {
-            return new XEndpoint(t.getV1(), t.getV2(), 0, pipe, statistics, configuration, configure);
+            XEndpoint endpoint = new XEndpoint(t.getV1(), t.getV2(), 0, pipe, statistics, configuration, configure);
+            endpoint.setRedirectListener(listener);
+            return endpoint;
         };
-        new NodeConfParser<>(mapper).parse(lines, index1, index2);
+        Map<Short, XEndpoint> slots = new HashMap<>(16384);
+        new NodeConfParser<>(mapper).parse(lines, index1, slots);
+        for (Map.Entry<Short, XEndpoint> entry : slots.entrySet()) {
+            index2[entry.getKey()] = entry.getValue();
+        }
     }
     
+    @Override
     public List<String> getClusterNodes() {
         return clusterNodes;
     }
     
+    @Override
     public void ping(boolean force) {
         for (XEndpoint prev : new HashSet<>(index1)) {
             try {
@@ -79,21 +101,108 @@ public class XEndpoints implements Closeable {
     
     public RedisObject send(byte[] command, byte[]... args) {
         short slot = slot(args[0]);
-        return index2.get(slot).send(command, args);
+        return endpoint(slot).send(command, args);
     }
 
+    @Override
     public void batch(boolean force, short slot, byte[] command, byte[]... args) {
-        index2.get(slot).batch(force, command, args);
+        if (!redirects.isEmpty()) redirect(force);
+        endpoint(slot).batch(force, command, args);
     }
     
+    @Override
     public void batch(boolean force, short slot, ByteBuffers command, ByteBuffers... args) {
-        index2.get(slot).batch(force, command, args);
+        if (!redirects.isEmpty()) redirect(force);
+        endpoint(slot).batch(force, command, args);
+    }
+
+    @Override
+    public String call(short slot, byte[] command, byte[]... args) {
+        if (!redirects.isEmpty()) redirect(true);
+        return endpoint(slot).call(command, args);
     }
 
+    @Override
     public void flushQuietly() {
+        for (int i = 0; ; i++) {
+            for (XEndpoint endpoint : index1) {
+                endpoint.flushQuietly();
+            }
+            if (redirects.isEmpty()) break;
+            if (i >= MAX_REDIRECTS) {
+                Redirect redirect;
+                while ((redirect = redirects.poll()) != null) {
+                    logger.error("too many redirections, drop [{}]", redirect);
+                    redirect.getRequest().close();
+                    failures++;
+                }
+                break;
+            }
+            redirect(true);
+        }
+    }
+    
+    @Override
+    public long getFailures() {
+        long r = failures;
+        for (XEndpoint endpoint : index1) r += endpoint.getFailures();
+        return r;
+    }
+    
+    @Override
+    public boolean isSameNode(short... slots) {
+        XEndpoint endpoint = index2[slots[0]];
+        for (int i = 1; i < slots.length; i++) {
+            if (endpoint == null || endpoint != index2[slots[i]]) return false;
+        }
+        return endpoint != null;
+    }
+    
+    /*
+     * a slot without owner, e.g. in the middle of resharding, is sent to any node
+     * and fixed by the MOVED reply.
+     */
+    private XEndpoint endpoint(short slot) {
+        XEndpoint endpoint = index2[slot];
+        return endpoint != null ? endpoint : index1.iterator().next();
+    }
+    
+    /*
+     * owner thread only. MOVED patches the slot table, ASK is a one-shot redirect.
+     */
+    private void redirect(boolean force) {
+        Redirect redirect;
+        while ((redirect = redirects.poll()) != null) {
+            try {
+                XEndpoint target = lookup(redirect.getHost(), redirect.getPort());
+                if (!redirect.isAsk()) move(redirect.getSlot(), target);
+                target.resend(force, redirect);
+            } catch (Throwable e) {
+                logger.error("failed to redirect [{}]. reason:{}", redirect, e.getMessage());
+                redirect.getRequest().close();
+                failures++;
+            }
+        }
+    }
+    
+    private XEndpoint lookup(String host, int port) {
         for (XEndpoint endpoint : index1) {
-            endpoint.flushQuietly();
+            if (endpoint.getPort() == port && endpoint.getHost().equals(host)) return endpoint;
         }
+        // new master, e.g. added by resharding
+        XEndpoint endpoint = new XEndpoint(host, port, 0, pipe, statistics, configuration, configure);
+        endpoint.setRedirectListener(listener);
+        index1.add(endpoint);
+        return endpoint;
+    }
+    
+    private void move(short slot, XEndpoint target) {
+        XEndpoint prev = index2[slot];
+        if (prev == target) return;
+        if (prev != null) prev.getSlots().remove(Short.valueOf(slot));
+        target.addSlot(slot);
+        index2[slot] = target;
+        logger.debug("slot {} moved from {} to {}", slot, prev, target);
     }
 
     @Override
@@ -103,6 +212,7 @@ public class XEndpoints implements Closeable {
         }
     }
 
+    @Override
     public void updateQuietly(short slot) {
         try {
             update(slot);
@@ -111,7 +221,7 @@ public class XEndpoints implements Closeable {
     }
 
     public void update(short slot) {
-        update(index2.get(slot));
+        update(endpoint(slot));
     }
     
     public void updateQuietly(XEndpoint endpoint) {
@@ -178,38 +288,43 @@ public class XEndpoints implements Closeable {
             }
             
             // 4 update all cluster nodes view
-            merge(next1, next2, lines);
+            merge(next1, lines);
             logger.debug("merged cluster view. next {}", index1);
         }
     }
 
-    private void merge(Set<DummyEndpoint> next1, Map<Short, DummyEndpoint> next2, List<String> lines) {
+    private void merge(Set<DummyEndpoint> next1, List<String> lines) {
         Set<XEndpoint> n1 = new HashSet<>();
-        Map<Short, XEndpoint> n2 = new HashMap<>(16384);
+        XEndpoint[] n2 = new XEndpoint[16384];
         
+        Map<AbstractEndpoint, XEndpoint> prev = new HashMap<>();
         for (XEndpoint endpoint : index1) {
             if (next1.contains(endpoint)) {
-                n1.add(endpoint); // reuse old endpoint
+                prev.put(endpoint, endpoint);
             } else {
                 XEndpoint.closeQuietly(endpoint);
             }
         }
         for (DummyEndpoint dummy : next1) {
-            if (!n1.contains(dummy)) {
-                n1.add(DummyEndpoint.valueOf(dummy, configuration, configure)); // new endpoint
+            XEndpoint endpoint = prev.get(dummy);
+            if (endpoint == null) {
+                endpoint = DummyEndpoint.valueOf(dummy, configuration, configure); // new endpoint
+                endpoint.setRedirectListener(listener);
+            } else {
+                endpoint.setSlots(new ArrayList<>(dummy.getSlots())); // reuse old endpoint
             }
-        }
-        
-        for (XEndpoint endpoint : n1) {
-            for(Short slot : endpoint.getSlots()) {
-                n2.put(slot, endpoint);
+            n1.add(endpoint);
+            for (Short slot : endpoint.getSlots()) {
+                n2[slot] = endpoint;
             }
         }
         
-        if (n2.size() != 16384) {
-            // unrecoverable error
-            System.out.println("unsupported migrating importing slot");
-            System.exit(-1);
+        int missing = 0;
+        for (XEndpoint endpoint : n2) {
+            if (endpoint == null) missing++;
+        }
+        if (missing > 0) {
+            logger.warn("{} slots are not served by any node, wait for MOVED replies", missing);
         }
         
         this.index1 = n1;
@@ -238,7 +353,7 @@ public class XEndpoints implements Closeable {
         index1.remove(v1);
         index1.add(v2);
         for (short slot : slots) {
-            index2.put(slot, v2);
+            index2[slot] = v2;
         }
     }
     
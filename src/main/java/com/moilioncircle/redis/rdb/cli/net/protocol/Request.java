@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.net.protocol;
+
+import static com.moilioncircle.redis.replicator.Constants.DOLLAR;
+import static com.moilioncircle.redis.replicator.Constants.STAR;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+import com.moilioncircle.redis.rdb.cli.util.Iterators;
+
+/**
+ * A command kept by a cluster endpoint until it is replied, so that it can be resent on MOVED and ASK.
+ * The arguments are retained instead of being encoded into one frame, {@link #chunks()} encodes the
+ * command again from the pooled chunks of the payload every time it is written.
+ *
+ * @author Baoyi Chen
+ */
+public class Request implements Closeable {
+    
+    private static final byte[] CRLF = new byte[]{'\r', '\n'};
+    
+    private final long size;
+    private final ByteBuffers[] parts;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    
+    private Request(ByteBuffers[] parts) {
+        this.parts = parts;
+        long size = head(STAR, parts.length, false).remaining() + CRLF.length;
+        for (int i = 0; i < parts.length; i++) {
+            size += head(DOLLAR, parts[i].getSize(), i > 0).remaining() + parts[i].getSize();
+        }
+        this.size = size;
+    }
+    
+    public static Request valueOf(byte[] command, byte[]... args) {
+        ByteBuffers[] parts = new ByteBuffers[args.length + 1];
+        parts[0] = ByteBuffers.wrap(command);
+        for (int i = 0; i < args.length; i++) parts[i + 1] = ByteBuffers.wrap(args[i]);
+        return new Request(parts);
+    }
+    
+    /**
+     * the arguments are retained until {@link #close()}, the caller may close them after this call.
+     */
+    public static Request valueOf(ByteBuffers command, ByteBuffers... args) {
+        ByteBuffers[] parts = new ByteBuffers[args.length + 1];
+        parts[0] = command.retain();
+        for (int i = 0; i < args.length; i++) parts[i + 1] = args[i].retain();
+        return new Request(parts);
+    }
+    
+    /**
+     * @return the size of the RESP encoded command
+     */
+    public long size() {
+        return size;
+    }
+    
+    /**
+     * @return the RESP encoded command, the chunks of the payload are views of the retained buffers.
+     */
+    public Iterator<ByteBuffer> chunks() {
+        return new Chunks();
+    }
+    
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        for (ByteBuffers part : parts) part.close();
+    }
+    
+    /*
+     * the CRLF of the previous bulk string is prepended to the bulk header of the next one.
+     */
+    private static ByteBuffer head(byte prefix, long len, boolean crlf) {
+        byte[] digits = String.valueOf(len).getBytes();
+        ByteBuffer r = ByteBuffer.allocate((crlf ? 2 : 0) + digits.length + 3);
+        if (crlf) r.put(CRLF);
+        r.put(prefix).put(digits).put(CRLF);
+        r.flip();
+        return r;
+    }
+    
+    private class Chunks implements Iterator<ByteBuffer> {
+        
+        private int step;
+        private Iterator<ByteBuffer> it = Iterators.iterator(head(STAR, parts.length, false));
+        
+        @Override
+        public boolean hasNext() {
+            while (!it.hasNext()) {
+                if (step > parts.length * 2) return false;
+                it = next(step++);
+            }
+            return true;
+        }
+        
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return it.next();
+        }
+        
+        /*
+         * bulk header, payload, bulk header, payload ... and the last CRLF.
+         */
+        private Iterator<ByteBuffer> next(int step) {
+            if (step == parts.length * 2) return Iterators.iterator(ByteBuffer.wrap(CRLF));
+            ByteBuffers part = parts[step / 2];
+            if (step % 2 == 0) return Iterators.iterator(head(DOLLAR, part.getSize(), step > 0));
+            return part.views();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Baoyi Chen
+ */
+public class ByteArrayPool {
+
+    private static final int CAPACITY = 64 * 1024 * 1024;
+    private static final ConcurrentMap<Integer, ByteArrayPool> POOLS = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int capacity;
+    private final AtomicInteger count = new AtomicInteger();
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+
+    private ByteArrayPool(int size) {
+        this.size = size;
+        this.capacity = Math.max(1, CAPACITY / size);
+    }
+
+    public static ByteArrayPool valueOf(int size) {
+        return POOLS.computeIfAbsent(size, ByteArrayPool::new);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] borrow() {
+        byte[] r = queue.poll();
+        if (r == null) return new byte[size];
+        count.decrementAndGet();
+        return r;
+    }
+
+    public void release(byte[] ary) {
+        if (ary == null || ary.length != size) return;
+        if (count.incrementAndGet() > capacity) {
+            // pool is full, let gc reclaim it
+            count.decrementAndGet();
+            return;
+        }
+        queue.offer(ary);
+    }
+}
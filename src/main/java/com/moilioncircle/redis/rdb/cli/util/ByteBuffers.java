@@ -20,6 +20,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.moilioncircle.redis.rdb.cli.io.LayeredOutputStream;
 
@@ -29,13 +30,16 @@ import com.moilioncircle.redis.rdb.cli.io.LayeredOutputStream;
 public class ByteBuffers implements Closeable {
     private long size;
     private LayeredOutputStream out;
+    private ByteBuffer source;
     private Iterator<ByteBuffer> buffers;
+    private final AtomicInteger refs = new AtomicInteger(1);
     
     public ByteBuffers(LayeredOutputStream out) {
         this.out = out;
     }
     
     private ByteBuffers(ByteBuffer buf) {
+        this.source = buf;
         this.size = buf.remaining();
         this.buffers = Iterators.iterator(buf);
     }
@@ -64,6 +68,24 @@ public class ByteBuffers implements Closeable {
         this.buffers = buffers;
     }
     
+    /**
+     * @return a new iterator from the first buffer, the iterator of {@link #getBuffers()} is not consumed.
+     */
+    public Iterator<ByteBuffer> views() {
+        if (out != null) return out.iterator();
+        if (source != null) return Iterators.iterator(source.duplicate());
+        return buffers;
+    }
+    
+    /**
+     * keep the pooled buffers until {@link #close()} is called once more, e.g. by an endpoint
+     * that may resend them after the caller closed them.
+     */
+    public ByteBuffers retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+    
     public void reset() {
         if (out != null) {
             ByteBuffers that = out.toByteBuffers();
@@ -74,6 +96,7 @@ public class ByteBuffers implements Closeable {
     
     @Override
     public void close() {
+        if (refs.decrementAndGet() > 0) return;
         try {
             if (out != null) out.close();
         } catch (IOException ignore) {
@@ -75,6 +75,7 @@ public class CmpHeap<T extends Comparable<T>> {
         }
         if (ary.size() < n) {
             ary.add(t);
+            if (ary.size() == n) build(ary);
             return;
         }
         if (ary.size() == n) {
@@ -86,6 +87,14 @@ public class CmpHeap<T extends Comparable<T>> {
         }
     }
     
+    /**
+     * @return the smallest element once the heap is full, {@code null} if any element would still be kept.
+     */
+    public T min() {
+        if (n <= 0 || ary.size() < n) return null;
+        return ary.get(0);
+    }
+    
     public List<T> get(boolean sort) {
         if (sort) ary.sort(Comparator.reverseOrder());
         return ary;
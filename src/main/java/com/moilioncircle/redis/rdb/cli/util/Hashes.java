@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+/**
+ * 64 bits FNV-1a with a murmur3 finalizer, used by the off heap key tables.
+ *
+ * @author Baoyi Chen
+ */
+public abstract class Hashes {
+    
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    public static final long FNV_PRIME = 0x100000001b3L;
+    
+    public static long hash64(byte[] key) {
+        return hash64(key, 0, key.length);
+    }
+    
+    public static long hash64(byte[] key, int offset, int length) {
+        long h = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) h = (h ^ (key[i] & 0xFF)) * FNV_PRIME;
+        return mix64(h);
+    }
+    
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
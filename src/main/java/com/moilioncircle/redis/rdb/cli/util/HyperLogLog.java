@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+/**
+ * HyperLogLog of 64 bits hashes with {@code 2^p} byte registers. the relative standard error of
+ * {@link #estimate()} is about {@code 1.04 / sqrt(2^p)}, the sketches of the same precision can be
+ * merged by the max of their registers.
+ *
+ * @author Baoyi Chen
+ * @see <a href="http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf">HyperLogLog</a>
+ */
+public class HyperLogLog {
+    
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    
+    private final int p;
+    private final byte[] registers;
+    
+    public HyperLogLog(int p) {
+        if (p < MIN_PRECISION || p > MAX_PRECISION) throw new IllegalArgumentException("precision " + p);
+        this.p = p;
+        this.registers = new byte[1 << p];
+    }
+    
+    private HyperLogLog(int p, byte[] registers) {
+        this.p = p;
+        this.registers = registers;
+    }
+    
+    public static HyperLogLog valueOf(byte[] registers) {
+        int p = Integer.numberOfTrailingZeros(registers.length);
+        if (registers.length != 1 << p || p < MIN_PRECISION || p > MAX_PRECISION) {
+            throw new IllegalArgumentException("registers " + registers.length);
+        }
+        return new HyperLogLog(p, registers);
+    }
+    
+    public int getPrecision() {
+        return p;
+    }
+    
+    public byte[] getRegisters() {
+        return registers;
+    }
+    
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // the guard bit caps the rank at 64 - p + 1
+        int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+    
+    public void merge(HyperLogLog that) {
+        if (that.p != p) throw new IllegalArgumentException("precision " + that.p + " != " + p);
+        for (int i = 0; i < registers.length; i++) {
+            if (that.registers[i] > registers[i]) registers[i] = that.registers[i];
+        }
+    }
+    
+    public long estimate() {
+        int m = registers.length;
+        int zeros = 0;
+        double sum = 0;
+        for (byte r : registers) {
+            if (r == 0) zeros++;
+            sum += 1d / (1L << r);
+        }
+        double alpha;
+        switch (m) {
+            case 16:
+                alpha = 0.673;
+                break;
+            case 32:
+                alpha = 0.697;
+                break;
+            case 64:
+                alpha = 0.709;
+                break;
+            default:
+                alpha = 0.7213 / (1 + 1.079 / m);
+                break;
+        }
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches raw keys against the {@code -k} arguments without decoding them to strings.
+ * <p>
+ * Every argument matches the key equal to it, or the whole key as a java regex. An argument
+ * with the {@code glob:} prefix is a redis style glob instead, e.g. {@code glob:user:*}.
+ * <p>
+ * Literal arguments are looked up in a hash table, {@code prefix.*} regexes and {@code prefix*}
+ * globs in a byte trie. Only the remaining patterns are combined into one regex, that regex
+ * runs on a char view of the key when the key is ascii.
+ *
+ * @author Baoyi Chen
+ */
+public class KeyMatcher {
+    
+    private static final String GLOB = "glob:";
+    private static final String META = "\\^$.|?*+()[]{}";
+    
+    private final boolean empty;
+    private final ByteSet literals;
+    private final Node prefixes = new Node();
+    private final List<Pattern> regexs = new ArrayList<>();
+    
+    private KeyMatcher(List<String> args) {
+        this.empty = args.isEmpty();
+        List<byte[]> literals = new ArrayList<>();
+        List<String> combined = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(GLOB)) {
+                glob(arg.substring(GLOB.length()), literals, combined);
+            } else {
+                regex(arg, literals, combined);
+            }
+        }
+        this.literals = new ByteSet(literals);
+        if (!combined.isEmpty()) {
+            this.regexs.add(0, Pattern.compile(String.join("|", combined)));
+        }
+    }
+    
+    public static KeyMatcher compile(List<String> args) {
+        return new KeyMatcher(args);
+    }
+    
+    public boolean isEmpty() {
+        return empty;
+    }
+    
+    public boolean matches(byte[] key) {
+        if (empty) return true;
+        if (literals.contains(key)) return true;
+        if (prefix(key)) return true;
+        if (regexs.isEmpty()) return false;
+        CharSequence chars = chars(key);
+        for (Pattern regex : regexs) {
+            if (regex.matcher(chars).matches()) return true;
+        }
+        return false;
+    }
+    
+    private void regex(String arg, List<byte[]> literals, List<String> combined) {
+        // same as before, the argument is a key and a regex at the same time.
+        Pattern pattern = Pattern.compile(arg);
+        String body = arg;
+        if (body.startsWith("^")) body = body.substring(1);
+        if (body.endsWith("$") && !body.endsWith("\\$")) body = body.substring(0, body.length() - 1);
+        literals.add(arg.getBytes(UTF_8));
+        if (isLiteral(body)) {
+            if (!body.equals(arg)) literals.add(body.getBytes(UTF_8));
+            return;
+        }
+        if (body.endsWith(".*") && isLiteral(body.substring(0, body.length() - 2))) {
+            // '.' does not match line terminators, keys that contain them are checked by the regex.
+            insert(body.substring(0, body.length() - 2).getBytes(UTF_8), pattern);
+        } else if (arg.matches(".*\\\\([1-9]|k<).*")) {
+            // back references can't be combined, group numbers would shift.
+            regexs.add(pattern);
+        } else {
+            combined.add("(?:" + arg + ")");
+        }
+    }
+    
+    private void glob(String glob, List<byte[]> literals, List<String> combined) {
+        int star = glob.indexOf('*');
+        if (isGlobLiteral(glob)) {
+            literals.add(glob.getBytes(UTF_8));
+        } else if (star == glob.length() - 1 && isGlobLiteral(glob.substring(0, star))) {
+            insert(glob.substring(0, star).getBytes(UTF_8), null);
+        } else {
+            combined.add("(?s:" + toRegex(glob) + ")");
+        }
+    }
+    
+    private static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (META.indexOf(s.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+    
+    private static boolean isGlobLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '\\') return false;
+        }
+        return true;
+    }
+    
+    /*
+     * redis glob, see stringmatchlen in util.c
+     */
+    static String toRegex(String glob) {
+        StringBuilder r = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    r.append(".*");
+                    break;
+                case '?':
+                    r.append('.');
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        r.append(Pattern.quote("["));
+                        break;
+                    }
+                    r.append('[');
+                    int j = i + 1;
+                    if (glob.charAt(j) == '^') {
+                        r.append('^');
+                        j++;
+                    }
+                    for (; j < end; j++) {
+                        char e = glob.charAt(j);
+                        if (e == '\\' && j + 1 < end) e = glob.charAt(++j);
+                        if (e == '-' && j > i + 1 && j + 1 < end) r.append('-');
+                        else if (Character.isLetterOrDigit(e)) r.append(e);
+                        else r.append('\\').append(e);
+                    }
+                    r.append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) c = glob.charAt(++i);
+                    r.append(Pattern.quote(String.valueOf(c)));
+                    break;
+                default:
+                    r.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return r.toString();
+    }
+    
+    private boolean prefix(byte[] key) {
+        Node node = prefixes;
+        for (int i = 0; ; i++) {
+            if (node.glob) return true;
+            if (node.regex != null && (safe(key, i) || node.regex.matcher(chars(key)).matches())) return true;
+            if (i == key.length || node.next == null) return false;
+            node = node.next[key[i] & 0xFF];
+            if (node == null) return false;
+        }
+    }
+    
+    private void insert(byte[] prefix, Pattern regex) {
+        Node node = prefixes;
+        for (byte b : prefix) {
+            if (node.next == null) node.next = new Node[256];
+            int i = b & 0xFF;
+            if (node.next[i] == null) node.next[i] = new Node();
+            node = node.next[i];
+        }
+        if (regex == null) node.glob = true;
+        else if (node.regex == null) node.regex = regex;
+    }
+    
+    /*
+     * true if the suffix has no line terminator, so that '.*' matches it.
+     */
+    private static boolean safe(byte[] key, int from) {
+        for (int i = from; i < key.length; i++) {
+            byte b = key[i];
+            if (b == '\n' || b == '\r' || b < 0) return false;
+        }
+        return true;
+    }
+    
+    private static CharSequence chars(byte[] key) {
+        for (byte b : key) {
+            if (b < 0) return new String(key, UTF_8);
+        }
+        return new AsciiSequence(key, 0, key.length);
+    }
+    
+    private static class Node {
+        private Node[] next;
+        private boolean glob;
+        private Pattern regex;
+    }
+    
+    /**
+     * open addressing, lookups allocate nothing.
+     */
+    private static class ByteSet {
+        private final int mask;
+        private final byte[][] table;
+        
+        private ByteSet(List<byte[]> values) {
+            int capacity = 2;
+            while (capacity < values.size() * 2) capacity <<= 1;
+            this.mask = capacity - 1;
+            this.table = new byte[capacity][];
+            for (byte[] value : values) {
+                int i = hash(value) & mask;
+                while (table[i] != null && !Arrays.equals(table[i], value)) i = (i + 1) & mask;
+                table[i] = value;
+            }
+        }
+        
+        private boolean contains(byte[] key) {
+            int i = hash(key) & mask;
+            while (table[i] != null) {
+                if (Arrays.equals(table[i], key)) return true;
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+        
+        private static int hash(byte[] key) {
+            int h = Arrays.hashCode(key);
+            return h ^ (h >>> 16);
+        }
+    }
+    
+    private static class AsciiSequence implements CharSequence {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        
+        private AsciiSequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            return (char) bytes[offset + index];
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+        
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, UTF_8);
+        }
+    }
+}
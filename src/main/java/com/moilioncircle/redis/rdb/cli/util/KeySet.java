@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+
+/**
+ * A read only set of the keys listed in a file, one key per line.
+ * <p>
+ * The key file is mapped and never copied to the heap. The hash table lives in a mapped temp
+ * file in {@code temp_file_path} too, every slot is a long of the line offset and a 24 bits
+ * hash tag. a lookup hashes the key, probes the table and compares the bytes of the line,
+ * nothing is allocated.
+ * <p>
+ * A trailing {@code \r} of a line is ignored and empty lines are skipped, keys that contain a
+ * line terminator can't be listed.
+ *
+ * @author Baoyi Chen
+ */
+public class KeySet {
+    
+    private static final Logger logger = LoggerFactory.getLogger(KeySet.class);
+    
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int SLOT_SHIFT = SEGMENT_SHIFT - 3;
+    private static final long SLOT_MASK = (1L << SLOT_SHIFT) - 1;
+    private static final long MAX_OFFSET = (1L << 40) - 1;
+    
+    private long size;
+    private final long mask;
+    private final long length;
+    private final MappedByteBuffer[] lines;
+    private final MappedByteBuffer[] slots;
+    
+    private KeySet(File file, Configure configure) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            this.length = raf.length();
+            if (length > MAX_OFFSET) throw new IOException("key file " + file + " is too large");
+            this.lines = map(raf.getChannel(), FileChannel.MapMode.READ_ONLY, length);
+        }
+        long capacity = 16;
+        long count = count();
+        // load factor 0.5, a miss usually ends at the first empty slot.
+        while (capacity < count * 2) capacity <<= 1;
+        this.mask = capacity - 1;
+        String path = configure.getTempFilePath();
+        File table = File.createTempFile(configure.getTempFilePrefix(), ".keyset", path == null ? null : new File(path));
+        try (RandomAccessFile raf = new RandomAccessFile(table, "rw")) {
+            raf.setLength(capacity << 3);
+            this.slots = map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, capacity << 3);
+        }
+        if (!table.delete()) table.deleteOnExit();
+        load();
+    }
+    
+    public static KeySet valueOf(File file, Configure configure) {
+        try {
+            long now = System.currentTimeMillis();
+            KeySet set = new KeySet(file, configure);
+            logger.info("loaded {} keys from {} in {} ms", set.size(), file, System.currentTimeMillis() - now);
+            return set;
+        } catch (IOException e) {
+            throw new RuntimeException("failed to load key file " + file + ", reason " + e.getMessage(), e);
+        }
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public boolean contains(byte[] key) {
+        if (key.length == 0) return false;
+        long h = Hashes.hash64(key);
+        long tag = h >>> 40;
+        for (long i = h & mask; ; i = (i + 1) & mask) {
+            long slot = slot(i);
+            if (slot == 0L) return false;
+            if ((slot & 0xFFFFFF) == tag && equals((slot >>> 24) - 1, key)) return true;
+        }
+    }
+    
+    private long count() {
+        long count = 0;
+        for (long i = 0; i < length; i++) if (line(i) == '\n') count++;
+        return count + 1;
+    }
+    
+    private void load() {
+        long start = 0;
+        for (long i = 0; i <= length; i++) {
+            if (i < length && line(i) != '\n') continue;
+            long end = i;
+            if (end > start && line(end - 1) == '\r') end--;
+            if (end > start) insert(start, end);
+            start = i + 1;
+        }
+    }
+    
+    private void insert(long start, long end) {
+        long h = Hashes.FNV_OFFSET;
+        for (long i = start; i < end; i++) h = (h ^ (line(i) & 0xFF)) * Hashes.FNV_PRIME;
+        h = Hashes.mix64(h);
+        long tag = h >>> 40;
+        for (long i = h & mask; ; i = (i + 1) & mask) {
+            long slot = slot(i);
+            if (slot == 0L) {
+                slot(i, ((start + 1) << 24) | tag);
+                size++;
+                return;
+            }
+            if ((slot & 0xFFFFFF) == tag && equals((slot >>> 24) - 1, start, end)) return;
+        }
+    }
+    
+    private boolean equals(long offset, byte[] key) {
+        int len = key.length;
+        if (offset + len > length) return false;
+        for (int i = 0; i < len; i++) {
+            byte b = line(offset + i);
+            if (b != key[i] || b == '\n') return false;
+        }
+        return terminated(offset + len, key[len - 1]);
+    }
+    
+    private boolean equals(long offset, long start, long end) {
+        long len = end - start;
+        if (offset + len > length) return false;
+        for (long i = 0; i < len; i++) {
+            if (line(offset + i) != line(start + i)) return false;
+        }
+        return terminated(offset + len, line(end - 1));
+    }
+    
+    /**
+     * @return true if the line that starts at offset ends exactly at {@code p}.
+     */
+    private boolean terminated(long p, byte last) {
+        if (p == length || line(p) == '\n') return last != '\r';
+        if (line(p) != '\r') return false;
+        return p + 1 == length || line(p + 1) == '\n';
+    }
+    
+    private byte line(long p) {
+        return lines[(int) (p >>> SEGMENT_SHIFT)].get((int) (p & SEGMENT_MASK));
+    }
+    
+    private long slot(long i) {
+        return slots[(int) (i >>> SLOT_SHIFT)].getLong((int) (i & SLOT_MASK) << 3);
+    }
+    
+    private void slot(long i, long value) {
+        slots[(int) (i >>> SLOT_SHIFT)].putLong((int) (i & SLOT_MASK) << 3, value);
+    }
+    
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long length) throws IOException {
+        int n = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] buffers = new MappedByteBuffer[Math.max(1, n)];
+        for (int i = 0; i < buffers.length; i++) {
+            long position = (long) i << SEGMENT_SHIFT;
+            buffers[i] = channel.map(mode, position, Math.min(length - position, 1L << SEGMENT_SHIFT));
+        }
+        return buffers;
+    }
+}
@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.Callable;
 
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
+import com.moilioncircle.redis.rdb.cli.io.ParallelCompressOutputStream;
 import com.moilioncircle.redis.replicator.io.CRCOutputStream;
 
 /**
@@ -160,4 +163,25 @@ public class OutputStreams {
     public static CRCOutputStream newCRCOutputStream(File file, int buf) {
         return call(() -> new CRCOutputStream(new BufferedOutputStream(new FileOutputStream(file), buf)));
     }
+    
+    /**
+     * compressed by {@link Configure#getCompress()}.
+     */
+    public static BufferedOutputStream newBufferedOutputStream(File file, Configure configure) {
+        return call(() -> new BufferedOutputStream(newOutputStream(file, configure), configure.getOutputBufferSize()));
+    }
+    
+    /**
+     * compressed by {@link Configure#getCompress()}, the crc is of the uncompressed bytes.
+     */
+    public static CRCOutputStream newCRCOutputStream(File file, Configure configure) {
+        return call(() -> new CRCOutputStream(new BufferedOutputStream(newOutputStream(file, configure), configure.getOutputBufferSize())));
+    }
+    
+    private static OutputStream newOutputStream(File file, Configure configure) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        Compression compress = configure.getCompress();
+        if (compress == Compression.NONE) return out;
+        return new ParallelCompressOutputStream(out, compress, configure.getCompressLevel(), configure.getCompressBlockSize(), configure.getCompressThreads());
+    }
 }
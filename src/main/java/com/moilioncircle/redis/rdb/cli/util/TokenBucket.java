@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket with 1 second burst. A caller pays its permits in advance and only
+ * waits for the debt of the previous callers, so a big request is never blocked forever.
+ *
+ * @author Baoyi Chen
+ */
+public class TokenBucket {
+    
+    private static final long BURST = TimeUnit.SECONDS.toNanos(1);
+    
+    private volatile long rate;
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+    
+    public TokenBucket(long rate) {
+        this.rate = rate;
+    }
+    
+    public long getRate() {
+        return rate;
+    }
+    
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+    
+    /**
+     * @param permits permits to acquire
+     * @return nanoseconds the caller has to wait, 0 if unlimited
+     */
+    public long reserve(long permits) {
+        long rate = this.rate;
+        if (rate <= 0 || permits <= 0) return 0L;
+        long cost = (long) (permits * (1000000000D / rate));
+        while (true) {
+            long now = System.nanoTime();
+            long prev = next.get();
+            long start = Math.max(prev, now - BURST);
+            if (next.compareAndSet(prev, start + cost)) {
+                return Math.max(0L, start - now);
+            }
+        }
+    }
+}
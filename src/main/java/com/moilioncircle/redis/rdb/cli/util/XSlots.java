@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018-2019 Baoyi Chen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.moilioncircle.redis.rdb.cli.util;
+
+import java.util.BitSet;
+import java.util.List;
+
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.ParameterException;
+
+/**
+ * @author Baoyi Chen
+ */
+public abstract class XSlots {
+	
+	private static final int SLOTS = 16384;
+	
+	/**
+	 * parse slot ranges like {@code 0-5460,10923}.
+	 *
+	 * @return null if no range specified
+	 */
+	public static BitSet parse(List<String> ranges, CommandSpec spec, String message) {
+		if (ranges == null || ranges.isEmpty()) return null;
+		BitSet slots = new BitSet(SLOTS);
+		try {
+			for (String range : ranges) {
+				for (String token : range.split(",")) {
+					token = token.trim();
+					if (token.isEmpty()) continue;
+					int idx = token.indexOf('-');
+					int st = Integer.parseInt(idx < 0 ? token : token.substring(0, idx).trim());
+					int ed = idx < 0 ? st : Integer.parseInt(token.substring(idx + 1).trim());
+					if (st < 0 || ed >= SLOTS || st > ed) throw new ParameterException(spec.commandLine(), message);
+					slots.set(st, ed + 1);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new ParameterException(spec.commandLine(), message);
+		}
+		if (slots.isEmpty()) throw new ParameterException(spec.commandLine(), message);
+		return slots;
+	}
+}
@@ -19,6 +19,7 @@ package com.moilioncircle.redis.rdb.cli.util;
 import java.io.File;
 import java.net.URISyntaxException;
 
+import com.moilioncircle.redis.rdb.cli.glossary.Compression;
 import com.moilioncircle.redis.rdb.cli.sentinel.RedisSentinelURI;
 import com.moilioncircle.redis.replicator.FileType;
 import com.moilioncircle.redis.replicator.RedisURI;
@@ -32,6 +33,13 @@ import picocli.CommandLine.ParameterException;
 public abstract class XUris {
 	
 	public static String normalize(String source, FileType type, CommandSpec spec, String message) throws URISyntaxException {
+		String suffix = Compression.suffix(source);
+		if (!suffix.isEmpty()) {
+			// e.g. dump.rdb.zst, validate it as dump.rdb and keep the suffix in the path.
+			String uri = normalize(Compression.strip(source), type, spec, message);
+			int idx = uri.indexOf('?');
+			return idx < 0 ? uri + suffix : uri.substring(0, idx) + suffix + uri.substring(idx);
+		}
 		try {
 			RedisSentinelURI uri = new RedisSentinelURI(source);
 			if (uri != null) return uri.toString();
@@ -0,0 +1,101 @@
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
+
+/**
+ * @author Baoyi Chen
+ */
+public class RdbIndexTest {
+    
+    private File source;
+    private File index;
+    
+    @Before
+    public void before() throws IOException {
+        // avoid log4j exception
+        ClassLoader loader = RdbIndexTest.class.getClassLoader();
+        this.source = new File(loader.getResource("dumpV8.rdb").getPath());
+        System.setProperty("cli.log.path", source.getParent());
+        this.index = File.createTempFile("dumpV8", ".idx");
+    }
+    
+    @After
+    public void after() {
+        index.delete();
+    }
+    
+    @Test
+    public void testLookup() throws IOException {
+        List<DumpKeyValuePair> expected;
+        try (InputStream in = new FileInputStream(source)) {
+            expected = RdbPartitionerTest.parse(in);
+        }
+        assertEquals(expected.size(), RdbIndex.build(source, index, 64 * 1024));
+        RdbIndex idx = RdbIndex.open(index, source);
+        assertEquals(expected.size(), idx.size());
+        
+        // every 997th key in reverse order, a key given twice and a missing key
+        List<byte[]> keys = new ArrayList<>();
+        List<DumpKeyValuePair> found = new ArrayList<>();
+        for (int i = expected.size() - 1; i >= 0; i -= 997) {
+            keys.add(expected.get(i).getKey());
+            found.add(expected.get(i));
+        }
+        keys.add(expected.get(expected.size() - 1).getKey());
+        keys.add("not:exist".getBytes());
+        Collections.reverse(found);
+        
+        List<DumpKeyValuePair> actual;
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            actual = RdbPartitionerTest.parse(idx.lookup(channel, keys, 64 * 1024));
+        }
+        // in file order, each key once
+        assertEquals(found.size(), actual.size());
+        for (int i = 0; i < found.size(); i++) {
+            DumpKeyValuePair e = found.get(i), a = actual.get(i);
+            assertArrayEquals(e.getKey(), a.getKey());
+            assertArrayEquals(e.getValue(), a.getValue());
+            assertEquals(e.getValueRdbType(), a.getValueRdbType());
+            assertEquals(e.getExpiredType(), a.getExpiredType());
+            assertEquals(e.getExpiredValue(), a.getExpiredValue());
+        }
+        
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            actual = RdbPartitionerTest.parse(idx.lookup(channel, Collections.singletonList("not:exist".getBytes()), 64 * 1024));
+        }
+        assertTrue(actual.isEmpty());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testStale() throws IOException {
+        RdbIndex.build(source, index, 64 * 1024);
+        File copy = File.createTempFile("dumpV8", ".rdb");
+        try {
+            Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.write(copy.toPath(), new byte[]{0}, StandardOpenOption.APPEND);
+            RdbIndex.open(index, copy);
+        } finally {
+            copy.delete();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.RdbPartitioner.Partition;
+import com.moilioncircle.redis.replicator.Replicator;
+import com.moilioncircle.redis.replicator.rdb.dump.DumpRdbVisitor;
+import com.moilioncircle.redis.replicator.rdb.dump.datatype.DumpKeyValuePair;
+
+/**
+ * @author Baoyi Chen
+ */
+public class RdbPartitionerTest {
+    
+    private File source;
+    
+    @Before
+    public void before() {
+        // avoid log4j exception
+        ClassLoader loader = RdbPartitionerTest.class.getClassLoader();
+        this.source = new File(loader.getResource("dumpV8.rdb").getPath());
+        System.setProperty("cli.log.path", source.getParent());
+    }
+    
+    @Test
+    public void testScan() throws IOException {
+        List<DumpKeyValuePair> expected;
+        try (InputStream in = new FileInputStream(source)) {
+            expected = parse(in);
+        }
+        assertFalse(expected.isEmpty());
+        
+        List<byte[]> keys = new ArrayList<>();
+        long[] prev = new long[1];
+        RdbScanner scanner = new RdbScanner(source, 64 * 1024);
+        assertTrue(scanner.scan(true, (start, end, db, type, key) -> {
+            assertTrue(start >= prev[0]);
+            assertTrue(end > start);
+            assertEquals(0, db);
+            prev[0] = end;
+            keys.add(key);
+        }));
+        assertEquals(8, scanner.getVersion());
+        assertEquals(source.length(), scanner.getSize());
+        assertTrue(prev[0] < source.length());
+        
+        assertEquals(expected.size(), keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(expected.get(i).getKey(), keys.get(i));
+        }
+    }
+    
+    @Test
+    public void testSplit() throws IOException {
+        List<DumpKeyValuePair> expected;
+        try (InputStream in = new FileInputStream(source)) {
+            expected = parse(in);
+        }
+        for (int parts : new int[]{1, 2, 3, 8, 64}) {
+            List<Partition> partitions = new RdbPartitioner(source, 64 * 1024).split(parts);
+            // the keys of the fixture are small, every split point falls on a key boundary
+            assertEquals(parts, partitions.size());
+            assertEquals(0, partitions.get(0).getStart());
+            assertEquals(source.length(), partitions.get(parts - 1).getEnd());
+            
+            List<DumpKeyValuePair> actual = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                for (int i = 0; i < parts; i++) {
+                    Partition partition = partitions.get(i);
+                    if (i > 0) assertEquals(partitions.get(i - 1).getEnd(), partition.getStart());
+                    // every range is a valid rdb by itself
+                    List<DumpKeyValuePair> list = parse(partition.open(channel, 64 * 1024));
+                    assertFalse(list.isEmpty());
+                    actual.addAll(list);
+                }
+            }
+            
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                DumpKeyValuePair e = expected.get(i), a = actual.get(i);
+                assertArrayEquals(e.getKey(), a.getKey());
+                assertArrayEquals(e.getValue(), a.getValue());
+                assertEquals(e.getValueRdbType(), a.getValueRdbType());
+                assertEquals(e.getDb().getDbNumber(), a.getDb().getDbNumber());
+            }
+        }
+    }
+    
+    static List<DumpKeyValuePair> parse(InputStream in) throws IOException {
+        List<DumpKeyValuePair> list = new ArrayList<>();
+        Replicator r = new CliRedisReplicator(in, Configure.bind());
+        r.setRdbVisitor(new DumpRdbVisitor(r));
+        r.addExceptionListener((rep, tx, e) -> {
+            throw new RuntimeException(tx.getMessage(), tx);
+        });
+        r.addEventListener((rep, event) -> {
+            if (event instanceof DumpKeyValuePair) list.add((DumpKeyValuePair) event);
+        });
+        r.open();
+        return list;
+    }
+}
@@ -0,0 +1,306 @@
+package com.moilioncircle.redis.rdb.cli.ext;
+
+import static com.moilioncircle.redis.replicator.Constants.RDB_OPCODE_EOF;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_HASH_ZIPMAP;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_QUICKLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_LIST_ZIPLIST;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_MODULE_2;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_SET_INTSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_STREAM_LISTPACKS;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_STRING;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_2;
+import static com.moilioncircle.redis.replicator.Constants.RDB_TYPE_ZSET_ZIPLIST;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Every value is followed by an EOF opcode, the skipper must stop exactly on it.
+ *
+ * @author Baoyi Chen
+ */
+public class ValueSkipperTest {
+
+    // LZF of "hello", a literal run
+    private static final byte[] LZF_LITERAL = {4, 'h', 'e', 'l', 'l', 'o'};
+    // LZF of "aaaaaa", a literal and a back reference
+    private static final byte[] LZF_REFERENCE = {0, 'a', 0x60, 0};
+
+    @Test
+    public void testString() throws IOException {
+        Rdb rdb = new Rdb();
+        rdb.string("value");
+        assertSkipped(RDB_TYPE_STRING, rdb);
+
+        // 14 bits and 32 bits lengths
+        for (int len : new int[]{64, 16383, 16384, 70000}) {
+            rdb = new Rdb();
+            rdb.string(new byte[len]);
+            assertSkipped(RDB_TYPE_STRING, rdb);
+        }
+
+        // 64 bits length
+        rdb = new Rdb();
+        rdb.write(0x81);
+        rdb.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 3});
+        rdb.write("abc".getBytes(UTF_8));
+        assertSkipped(RDB_TYPE_STRING, rdb);
+
+        // integer encoded
+        for (int enc = 0; enc < 3; enc++) {
+            rdb = new Rdb();
+            rdb.integer(enc);
+            assertSkipped(RDB_TYPE_STRING, rdb);
+        }
+
+        rdb = new Rdb();
+        rdb.lzf(LZF_LITERAL, 5);
+        assertSkipped(RDB_TYPE_STRING, rdb);
+        rdb = new Rdb();
+        rdb.lzf(LZF_REFERENCE, 6);
+        assertSkipped(RDB_TYPE_STRING, rdb);
+    }
+
+    @Test
+    public void testReadString() throws IOException {
+        Rdb rdb = new Rdb();
+        rdb.string("key");
+        rdb.integer(0);
+        rdb.integer(1);
+        rdb.integer(2);
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.lzf(LZF_REFERENCE, 6);
+        rdb.write(RDB_OPCODE_EOF);
+        ByteArrayInputStream in = new ByteArrayInputStream(rdb.toByteArray());
+        ValueSkipper skipper = new ValueSkipper(in);
+        assertArrayEquals("key".getBytes(UTF_8), skipper.readString());
+        assertArrayEquals("-12".getBytes(UTF_8), skipper.readString());
+        assertArrayEquals("-1234".getBytes(UTF_8), skipper.readString());
+        assertArrayEquals("-123456".getBytes(UTF_8), skipper.readString());
+        assertArrayEquals("hello".getBytes(UTF_8), skipper.readString());
+        assertArrayEquals("aaaaaa".getBytes(UTF_8), skipper.readString());
+        assertEquals(RDB_OPCODE_EOF, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testBlobs() throws IOException {
+        // ziplists, intsets and zipmaps are skipped as opaque strings
+        for (int type : new int[]{RDB_TYPE_HASH_ZIPMAP, RDB_TYPE_LIST_ZIPLIST, RDB_TYPE_SET_INTSET, RDB_TYPE_ZSET_ZIPLIST, RDB_TYPE_HASH_ZIPLIST}) {
+            Rdb rdb = new Rdb();
+            rdb.string(random(300));
+            assertSkipped(type, rdb);
+            rdb = new Rdb();
+            rdb.lzf(LZF_REFERENCE, 6);
+            assertSkipped(type, rdb);
+        }
+    }
+
+    @Test
+    public void testListAndSet() throws IOException {
+        for (int type : new int[]{RDB_TYPE_LIST, RDB_TYPE_SET}) {
+            Rdb rdb = new Rdb();
+            rdb.len(5);
+            rdb.string("a");
+            rdb.integer(0);
+            rdb.integer(2);
+            rdb.lzf(LZF_LITERAL, 5);
+            rdb.string(random(20000));
+            assertSkipped(type, rdb);
+
+            rdb = new Rdb();
+            rdb.len(0);
+            assertSkipped(type, rdb);
+        }
+    }
+
+    @Test
+    public void testQuicklist() throws IOException {
+        // every node is a ziplist, raw or LZF compressed
+        Rdb rdb = new Rdb();
+        rdb.len(3);
+        rdb.string(random(100));
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.string(random(16384));
+        assertSkipped(RDB_TYPE_LIST_QUICKLIST, rdb);
+    }
+
+    @Test
+    public void testZSet() throws IOException {
+        Rdb rdb = new Rdb();
+        rdb.len(5);
+        rdb.string("a");
+        rdb.score("1.5");
+        rdb.integer(1);
+        rdb.score("-3");
+        rdb.lzf(LZF_REFERENCE, 6);
+        rdb.write(253); // nan
+        rdb.string("b");
+        rdb.write(254); // +inf
+        rdb.string("c");
+        rdb.write(255); // -inf
+        assertSkipped(RDB_TYPE_ZSET, rdb);
+
+        rdb = new Rdb();
+        rdb.len(3);
+        rdb.string("a");
+        rdb.write(new byte[8]);
+        rdb.integer(2);
+        rdb.write(new byte[8]);
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.write(new byte[8]);
+        assertSkipped(RDB_TYPE_ZSET_2, rdb);
+    }
+
+    @Test
+    public void testHash() throws IOException {
+        Rdb rdb = new Rdb();
+        rdb.len(3);
+        rdb.string("f1");
+        rdb.string("v1");
+        rdb.integer(1);
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.lzf(LZF_REFERENCE, 6);
+        rdb.string(random(500));
+        assertSkipped(RDB_TYPE_HASH, rdb);
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        Rdb rdb = new Rdb();
+        // listpacks, a master id and a listpack each
+        rdb.len(2);
+        rdb.string(random(16));
+        rdb.string(random(200));
+        rdb.string(random(16));
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.len(10); // length
+        rdb.len(1600000000000L); // last id ms
+        rdb.len(3); // last id seq
+
+        rdb.len(2); // groups
+        rdb.string("group1");
+        rdb.len(1600000000000L);
+        rdb.len(1);
+        rdb.len(2); // pel
+        for (int i = 0; i < 2; i++) {
+            rdb.write(random(16)); // raw id
+            rdb.write(random(8)); // delivery time
+            rdb.len(i + 1); // delivery count
+        }
+        rdb.len(2); // consumers
+        rdb.string("consumer1");
+        rdb.write(random(8)); // seen time
+        rdb.len(1);
+        rdb.write(random(16));
+        rdb.lzf(LZF_LITERAL, 5);
+        rdb.write(random(8));
+        rdb.len(0);
+
+        rdb.string("group2");
+        rdb.len(0);
+        rdb.len(0);
+        rdb.len(0); // pel
+        rdb.len(0); // consumers
+        assertSkipped(RDB_TYPE_STREAM_LISTPACKS, rdb);
+
+        // no listpack and no group
+        rdb = new Rdb();
+        rdb.len(0);
+        rdb.len(0);
+        rdb.len(0);
+        rdb.len(0);
+        rdb.len(0);
+        assertSkipped(RDB_TYPE_STREAM_LISTPACKS, rdb);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testModule() throws IOException {
+        new ValueSkipper(new ByteArrayInputStream(new byte[16])).skip(RDB_TYPE_MODULE_2);
+    }
+
+    private static void assertSkipped(int type, Rdb rdb) throws IOException {
+        rdb.write(RDB_OPCODE_EOF);
+        ByteArrayInputStream in = new ByteArrayInputStream(rdb.toByteArray());
+        new ValueSkipper(in).skip(type);
+        assertEquals(RDB_OPCODE_EOF, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    private static byte[] random(int len) {
+        byte[] r = new byte[len];
+        new Random(len).nextBytes(r);
+        return r;
+    }
+
+    private static class Rdb extends ByteArrayOutputStream {
+
+        private void len(long len) {
+            if (len < (1 << 6)) {
+                write((int) len);
+            } else if (len < (1 << 14)) {
+                write((int) (0x40 | (len >> 8)));
+                write((int) (len & 0xFF));
+            } else if (len <= 0xFFFFFFFFL) {
+                write(0x80);
+                for (int i = 3; i >= 0; i--) write((int) (len >> (i * 8)));
+            } else {
+                write(0x81);
+                for (int i = 7; i >= 0; i--) write((int) (len >> (i * 8)));
+            }
+        }
+
+        private void string(String value) {
+            string(value.getBytes(UTF_8));
+        }
+
+        private void string(byte[] value) {
+            len(value.length);
+            write(value, 0, value.length);
+        }
+
+        /*
+         * -12, -1234 and -123456 in little endian
+         */
+        private void integer(int enc) {
+            write(0xC0 | enc);
+            switch (enc) {
+                case 0:
+                    write(-12);
+                    break;
+                case 1:
+                    write(-1234);
+                    write(-1234 >> 8);
+                    break;
+                default:
+                    for (int i = 0; i < 4; i++) write(-123456 >> (i * 8));
+                    break;
+            }
+        }
+
+        private void lzf(byte[] compressed, int ulen) {
+            write(0xC3);
+            len(compressed.length);
+            len(ulen);
+            write(compressed, 0, compressed.length);
+        }
+
+        private void score(String score) {
+            byte[] bytes = score.getBytes(UTF_8);
+            write(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.moilioncircle.redis.rdb.cli.cmd.XRct;
+import com.moilioncircle.redis.rdb.cli.io.MappedFileInputStream;
+
+import picocli.CommandLine;
+
+/**
+ * Compares rct throughput of the stream input and the memory mapped input, and the input layer
+ * alone drained in 8KB reads.
+ * <p>
+ * usage: MappedInputBenchmark /path/to/dump.rdb [rounds]
+ *
+ * @author Baoyi Chen
+ */
+public class MappedInputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File source = new File(args[0]);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        File target = File.createTempFile("rct", ".out");
+        target.deleteOnExit();
+        
+        // avoid log4j exception
+        System.setProperty("cli.log.path", target.getParent());
+        for (int i = 0; i < rounds; i++) {
+            double stream = drain(source, 0);
+            double mmap = drain(source, 256 * 1024 * 1024);
+            System.out.printf("input stream %8.1f MB/s, mmap %8.1f MB/s%n", stream, mmap);
+        }
+        for (String format : new String[]{"count", "mem"}) {
+            for (int i = 0; i < rounds; i++) {
+                double stream = run(source, target, format, 0);
+                double mmap = run(source, target, format, 256 * 1024 * 1024);
+                System.out.printf("%-5s stream %8.1f MB/s, mmap %8.1f MB/s%n", format, stream, mmap);
+            }
+        }
+    }
+    
+    private static double drain(File source, int window) throws IOException {
+        byte[] buf = new byte[8192];
+        long start = System.nanoTime();
+        // the stream input is what CliRedisReplicator opens when input_mmap_size is 0
+        try (InputStream in = window > 0 ? new MappedFileInputStream(source, window) : source.toURI().toURL().openStream()) {
+            while (in.read(buf, 0, buf.length) >= 0) ;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return source.length() / 1024d / 1024d / seconds;
+    }
+    
+    private static double run(File source, File target, String format, int window) {
+        System.setProperty("input_mmap_size", String.valueOf(window));
+        long start = System.nanoTime();
+        new CommandLine(new XRct()).execute("-f", format, "-s", source.getPath(), "-o", target.getPath());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return source.length() / 1024d / 1024d / seconds;
+    }
+}
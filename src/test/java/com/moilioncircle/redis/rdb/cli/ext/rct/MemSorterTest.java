@@ -0,0 +1,124 @@
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+import com.moilioncircle.redis.rdb.cli.ext.datatype.DummyKeyValuePair;
+import com.moilioncircle.redis.rdb.cli.ext.rct.MemSorter.Order;
+import com.moilioncircle.redis.replicator.rdb.datatype.DB;
+import com.moilioncircle.redis.replicator.rdb.datatype.ExpiredType;
+
+/**
+ * @author Baoyi Chen
+ */
+public class MemSorterTest {
+    
+    private static final int ROWS = 2000;
+    
+    @Test
+    public void testSize() throws Exception {
+        test(Order.SIZE, 256, Comparator.comparingLong(DummyKeyValuePair::getValue).reversed().thenComparing(MemSorterTest::compareKey));
+    }
+    
+    @Test
+    public void testElements() throws Exception {
+        test(Order.ELEMENTS, 256, Comparator.comparingLong(DummyKeyValuePair::getLength).reversed().thenComparing(MemSorterTest::compareKey));
+    }
+    
+    @Test
+    public void testKey() throws Exception {
+        test(Order.KEY, 256, MemSorterTest::compareKey);
+    }
+    
+    @Test
+    public void testInMemory() throws Exception {
+        test(Order.SIZE, 1024 * 1024, Comparator.comparingLong(DummyKeyValuePair::getValue).reversed().thenComparing(MemSorterTest::compareKey));
+    }
+    
+    private void test(Order order, int buffer, Comparator<DummyKeyValuePair> comparator) throws Exception {
+        File dir = Files.createTempDirectory("mem-sorter").toFile();
+        try {
+            Properties properties = new Properties();
+            properties.setProperty("export_sort_buffer_size", String.valueOf(buffer));
+            properties.setProperty("temp_file_path", dir.getPath());
+            Configure configure = Configure.bind(properties);
+            
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) ids.add(i);
+            Random random = new Random(order.ordinal());
+            Collections.shuffle(ids, random);
+            
+            List<DummyKeyValuePair> expected = new ArrayList<>();
+            List<DummyKeyValuePair> actual = new ArrayList<>();
+            try (MemSorter sorter = new MemSorter(order, configure)) {
+                for (int id : ids) {
+                    DummyKeyValuePair kv = new DummyKeyValuePair();
+                    // keys of different lengths, sizes and elements with many ties
+                    kv.setKey(("key:" + id).getBytes());
+                    kv.setValue((long) random.nextInt(64));
+                    kv.setLength(random.nextInt(64));
+                    kv.setMax(id);
+                    kv.setDb(new DB(id % 4));
+                    kv.setValueRdbType(id % 16);
+                    if (id % 3 == 0) {
+                        kv.setExpiredType(ExpiredType.MS);
+                        kv.setExpiredValue(1000L + id);
+                    } else {
+                        kv.setExpiredType(ExpiredType.NONE);
+                    }
+                    sorter.add(kv);
+                    expected.add(kv);
+                }
+                File[] runs = dir.listFiles();
+                if (buffer < 1024) {
+                    // a run holds about 4 rows, the runs are merged in more than one pass
+                    assertTrue(runs.length > 128);
+                } else {
+                    assertEquals(0, runs.length);
+                }
+                sorter.forEach(actual::add);
+            }
+            assertEquals(0, dir.listFiles().length);
+            
+            expected.sort(comparator);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                DummyKeyValuePair e = expected.get(i), a = actual.get(i);
+                assertArrayEquals(e.getKey(), a.getKey());
+                assertEquals(e.getValue(), a.getValue());
+                assertEquals(e.getLength(), a.getLength());
+                assertEquals(e.getMax(), a.getMax());
+                assertEquals(e.getDb().getDbNumber(), a.getDb().getDbNumber());
+                assertEquals(e.getValueRdbType(), a.getValueRdbType());
+                assertEquals(e.getExpiredType(), a.getExpiredType());
+                assertEquals(e.getExpiredValue(), a.getExpiredValue());
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) for (File file : files) file.delete();
+            dir.delete();
+        }
+    }
+    
+    private static int compareKey(DummyKeyValuePair a, DummyKeyValuePair b) {
+        byte[] x = a.getKey(), y = b.getKey();
+        for (int i = 0, n = Math.min(x.length, y.length); i < n; i++) {
+            int r = (x[i] & 0xFF) - (y[i] & 0xFF);
+            if (r != 0) return r;
+        }
+        return Integer.compare(x.length, y.length);
+    }
+}
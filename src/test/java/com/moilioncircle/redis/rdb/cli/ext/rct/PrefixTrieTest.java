@@ -0,0 +1,120 @@
+package com.moilioncircle.redis.rdb.cli.ext.rct;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Baoyi Chen
+ */
+public class PrefixTrieTest {
+    
+    @Test
+    public void testExact() {
+        PrefixTrie trie = new PrefixTrie(2, (byte) ':', 1024);
+        trie.add(0, "a:b:1".getBytes(), 10, 1, false);
+        trie.add(0, "a:b:2".getBytes(), 20, 2, true);
+        trie.add(0, "a:c".getBytes(), 30, 3, false);
+        trie.add(0, "d".getBytes(), 40, 4, false);
+        trie.add(1, "a:b:c:d".getBytes(), 50, 5, true);
+        
+        Map<String, PrefixTrie.Node> nodes = nodes(trie);
+        assertEquals(6, nodes.size());
+        assertNode(nodes.get("0:"), 100, 4, 10, 1, 0);
+        assertNode(nodes.get("0:a"), 60, 3, 6, 1, 0);
+        assertNode(nodes.get("0:a:b"), 30, 2, 3, 1, 0);
+        assertNode(nodes.get("1:"), 50, 1, 5, 1, 0);
+        assertNode(nodes.get("1:a"), 50, 1, 5, 1, 0);
+        // depth 2, a:b:c is not a prefix
+        assertNode(nodes.get("1:a:b"), 50, 1, 5, 1, 0);
+    }
+    
+    @Test
+    public void testOverflow() {
+        for (int capacity : new int[]{1, 4, 16, 64}) {
+            PrefixTrie trie = new PrefixTrie(3, (byte) ':', capacity);
+            Random random = new Random(capacity);
+            Map<String, long[]> exact = new HashMap<>();
+            long[] total = new long[4];
+            for (int i = 0; i < 20000; i++) {
+                long db = random.nextInt(2);
+                // a few large prefixes and a long tail of small ones
+                int a = random.nextInt(100) < 80 ? random.nextInt(4) : random.nextInt(500);
+                int b = random.nextInt(50);
+                String key = "p" + a + ":q" + b + ":r" + random.nextInt(20) + ":" + i;
+                long memory = a < 4 ? 100 + random.nextInt(100) : 1 + random.nextInt(10);
+                boolean expiry = random.nextBoolean();
+                trie.add(db, key.getBytes(ISO_8859_1), memory, 1, expiry);
+                total[(int) db] += memory;
+                total[(int) db + 2]++;
+                for (int to = key.indexOf(':'), n = 1; to >= 0 && n <= 3; to = key.indexOf(':', to + 1), n++) {
+                    exact.computeIfAbsent(db + ":" + key.substring(0, to), k -> new long[1])[0] += memory;
+                }
+            }
+            
+            Map<String, PrefixTrie.Node> nodes = nodes(trie);
+            // the roots are never evicted, their totals stay exact
+            for (int db = 0; db < 2; db++) {
+                PrefixTrie.Node root = nodes.get(db + ":");
+                assertNotNull(root);
+                assertEquals(total[db], root.getMemory());
+                assertEquals(total[db + 2], root.getKeys());
+                assertEquals(total[db + 2], root.getElements());
+                assertEquals(0, root.getError());
+            }
+            assertTrue(nodes.size() <= capacity + 2);
+            
+            long evicted = 0;
+            long[] children = new long[2];
+            for (Map.Entry<String, PrefixTrie.Node> e : nodes.entrySet()) {
+                PrefixTrie.Node node = e.getValue();
+                if (node.getLevel() == 0) continue;
+                if (node.getLevel() == 1) children[(int) node.getDb()] += node.getMemory();
+                if (node.getError() > 0) evicted++;
+                long m = exact.get(e.getKey())[0];
+                // the counted memory is exact since the prefix was added, the error bounds the memory before.
+                assertTrue(e.getKey(), node.getMemory() <= m);
+                assertTrue(e.getKey() + " " + m + " " + node.getMemory() + " " + node.getError(), m <= node.getMemory() + node.getError());
+            }
+            for (int db = 0; db < 2; db++) assertTrue(children[db] <= total[db]);
+            // the capacity overflowed and prefixes were added in place of evicted ones
+            assertTrue(evicted > 0);
+            
+            // like space-saving, a prefix with more than the total weight / capacity is never lost,
+            // every key is weighted by up to 3 prefixes.
+            long threshold = 3 * (total[0] + total[1]) / capacity;
+            for (Map.Entry<String, long[]> e : exact.entrySet()) {
+                if (e.getValue()[0] > threshold) assertNotNull(e.getKey(), nodes.get(e.getKey()));
+            }
+        }
+    }
+    
+    private static Map<String, PrefixTrie.Node> nodes(PrefixTrie trie) {
+        List<PrefixTrie.Node> list = new ArrayList<>();
+        trie.forEach(list::add);
+        Map<String, PrefixTrie.Node> nodes = new HashMap<>();
+        for (PrefixTrie.Node node : list) {
+            nodes.put(node.getDb() + ":" + new String(node.getPrefix(), ISO_8859_1), node);
+        }
+        assertEquals(list.size(), nodes.size());
+        return nodes;
+    }
+    
+    private static void assertNode(PrefixTrie.Node node, long memory, long keys, long elements, long expires, long error) {
+        assertNotNull(node);
+        assertEquals(memory, node.getMemory());
+        assertEquals(keys, node.getKeys());
+        assertEquals(elements, node.getElements());
+        assertEquals(expires, node.getExpires());
+        assertEquals(error, node.getError());
+    }
+}
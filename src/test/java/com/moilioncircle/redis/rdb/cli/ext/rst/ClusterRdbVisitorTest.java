@@ -0,0 +1,48 @@
+package com.moilioncircle.redis.rdb.cli.ext.rst;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.moilioncircle.redis.rdb.cli.conf.NodeConfParser;
+
+/**
+ * @author Baoyi Chen
+ */
+public class ClusterRdbVisitorTest {
+
+    @Test
+    public void testMSetNx() {
+        byte[][] args = bytes("k1", "v1", "k2", "v2", "k3", "v3");
+        assertNotEquals(NodeConfParser.slot(args[0]), NodeConfParser.slot(args[2]));
+
+        byte[][] r = ClusterRdbVisitor.msetnx(args);
+        assertEquals(8, r.length);
+        assertSame(ClusterRdbVisitor.MSETNX_SCRIPT, r[0]);
+        // numkeys must be 0, declared keys of different slots are rejected with CROSSSLOT
+        assertArrayEquals("0".getBytes(), r[1]);
+        for (int i = 0; i < args.length; i++) {
+            assertSame(args[i], r[i + 2]);
+        }
+    }
+
+    @Test
+    public void testMSetNxScript() {
+        String script = new String(ClusterRdbVisitor.MSETNX_SCRIPT, UTF_8);
+        assertTrue(script.startsWith("#!lua flags=allow-cross-slot-keys\n"));
+        assertTrue(script.contains("unpack(ARGV)"));
+        assertFalse(script.contains("KEYS"));
+    }
+
+    private static byte[][] bytes(String... strs) {
+        byte[][] r = new byte[strs.length][];
+        for (int i = 0; i < strs.length; i++) r[i] = strs[i].getBytes(UTF_8);
+        return r;
+    }
+}
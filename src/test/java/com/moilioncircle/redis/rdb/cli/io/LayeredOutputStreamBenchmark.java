@@ -0,0 +1,79 @@
+package com.moilioncircle.redis.rdb.cli.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+
+/**
+ * Compares the bytes allocated and the time per key of the migrate DUMP payload paths: the
+ * previous {@code ByteArrayOutputStream} + {@code toByteArray()}, and the pooled chunks of
+ * {@link LayeredOutputStream}. The payload is written in small slices like the rdb listener does.
+ * <p>
+ * usage: LayeredOutputStreamBenchmark [keys] [rounds]
+ *
+ * @author Baoyi Chen
+ */
+public class LayeredOutputStreamBenchmark {
+
+    private static final int INIT = 8192;
+    private static final int MAX = 512 * 1024 * 1024;
+    private static final int SLICE = 64;
+
+    public static void main(String[] args) throws IOException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        byte[] slice = new byte[SLICE];
+        new Random(0).nextBytes(slice);
+        for (int size : new int[]{1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024}) {
+            int n = (int) Math.max(4, Math.min(keys, 4L * 1024 * 1024 * 1024 / size / 8));
+            for (int i = 0; i < rounds; i++) {
+                long a1 = allocated();
+                long mark = System.nanoTime();
+                long x = 0;
+                for (int k = 0; k < n; k++) x += before(slice, size);
+                long t1 = System.nanoTime() - mark;
+                long a2 = allocated();
+
+                mark = System.nanoTime();
+                long y = 0;
+                for (int k = 0; k < n; k++) y += after(slice, size);
+                long t2 = System.nanoTime() - mark;
+                long a3 = allocated();
+
+                if (x != y) throw new AssertionError(x + " != " + y);
+                System.out.printf("%9d bytes/key, before %12d allocated bytes/key %10.1f us/key, after %12d allocated bytes/key %10.1f us/key%n",
+                        size, (a2 - a1) / n, t1 / 1000d / n, (a3 - a2) / n, t2 / 1000d / n);
+            }
+        }
+    }
+
+    private static long before(byte[] slice, int size) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream(INIT)) {
+            for (int i = 0; i < size; i += SLICE) out.write(slice, 0, Math.min(SLICE, size - i));
+            byte[] payload = out.toByteArray();
+            return payload.length;
+        }
+    }
+
+    private static long after(byte[] slice, int size) throws IOException {
+        LayeredOutputStream out = new LayeredOutputStream(INIT, MAX);
+        for (int i = 0; i < size; i += SLICE) out.write(slice, 0, Math.min(SLICE, size - i));
+        try (ByteBuffers payload = out.toByteBuffers()) {
+            long r = 0;
+            Iterator<ByteBuffer> it = payload.getBuffers();
+            while (it.hasNext()) r += it.next().remaining();
+            return r;
+        }
+    }
+
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,154 @@
+package com.moilioncircle.redis.rdb.cli.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.moilioncircle.redis.rdb.cli.util.ByteBuffers;
+
+/**
+ * @author Baoyi Chen
+ */
+public class LayeredOutputStreamTest {
+
+    @Test
+    public void testMemory() throws IOException {
+        try (LayeredOutputStream out = new LayeredOutputStream(16, 65536)) {
+            byte[] expect = write(out, 500);
+            assertNull(out.file);
+            assertEquals(expect.length, out.size());
+
+            // chunks are at most output_buffer_size, only the last one is partial
+            Iterator<ByteBuffer> it = out.iterator();
+            int count = 0;
+            while (it.hasNext()) {
+                ByteBuffer buf = it.next();
+                if (it.hasNext()) assertEquals(16, buf.remaining());
+                else assertTrue(buf.remaining() > 0 && buf.remaining() <= 16);
+                count++;
+            }
+            assertEquals((expect.length + 15) / 16, count);
+
+            // iterators do not share positions
+            Iterator<ByteBuffer> it1 = out.iterator();
+            it1.next();
+            assertArrayEquals(expect, drain(out.iterator()));
+            assertArrayEquals(expect, drain(out.toByteBuffers().getBuffers()));
+        }
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        try (LayeredOutputStream out = new LayeredOutputStream(16, 64)) {
+            byte[] expect = write(out, 1000);
+            assertNotNull(out.file);
+            assertTrue(out.memory <= 64);
+            assertEquals(expect.length, out.size());
+
+            Iterator<ByteBuffer> it1 = out.iterator();
+            Iterator<ByteBuffer> it2 = out.iterator();
+            it1.next();
+            assertArrayEquals(expect, drain(it2));
+            assertArrayEquals(expect, drain(out.iterator()));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (LayeredOutputStream out = new LayeredOutputStream(16, 64)) {
+            assertEquals(0, out.size());
+            assertFalse(out.iterator().hasNext());
+            assertEquals(0, drain(out.toByteBuffers().getBuffers()).length);
+        }
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        for (int max : new int[]{65536, 64}) {
+            LayeredOutputStream out = new LayeredOutputStream(16, max);
+            byte[] expect = write(out, 700);
+            ByteBuffers buffers = out.toByteBuffers();
+            assertEquals(expect.length, buffers.getSize());
+            assertArrayEquals(expect, drain(buffers.getBuffers()));
+            assertFalse(buffers.getBuffers().hasNext());
+
+            // rewind a consumed payload, e.g. on retry
+            buffers.reset();
+            assertEquals(expect.length, buffers.getSize());
+            assertArrayEquals(expect, drain(buffers.getBuffers()));
+            buffers.reset();
+            assertArrayEquals(expect, drain(buffers.getBuffers()));
+            buffers.close();
+        }
+    }
+
+    @Test
+    public void testOffLen() throws IOException {
+        byte[] b = new byte[100];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) i;
+        for (int max : new int[]{1024, 8}) {
+            try (LayeredOutputStream out = new LayeredOutputStream(4, max)) {
+                out.write(b, 3, 5);
+                out.write(b, 90, 10);
+                out.write(b, 0, 0);
+                out.write(b, 40, 23);
+                ByteArrayOutputStream expect = new ByteArrayOutputStream();
+                expect.write(b, 3, 5);
+                expect.write(b, 90, 10);
+                expect.write(b, 40, 23);
+                assertEquals(38, out.size());
+                assertArrayEquals(expect.toByteArray(), drain(out.iterator()));
+            }
+        }
+    }
+
+    /*
+     * mixed single bytes, whole arrays and slices, some larger than a chunk.
+     */
+    private static byte[] write(LayeredOutputStream out, int rounds) throws IOException {
+        Random random = new Random(rounds);
+        ByteArrayOutputStream expect = new ByteArrayOutputStream();
+        for (int i = 0; i < rounds; i++) {
+            byte[] b = new byte[random.nextInt(40)];
+            random.nextBytes(b);
+            switch (i % 3) {
+                case 0:
+                    if (b.length == 0) break;
+                    out.write(b[0]);
+                    expect.write(b[0]);
+                    break;
+                case 1:
+                    out.write(b);
+                    expect.write(b);
+                    break;
+                default:
+                    int off = b.length / 3;
+                    int len = b.length / 2;
+                    out.write(b, off, len);
+                    expect.write(b, off, len);
+                    break;
+            }
+        }
+        return expect.toByteArray();
+    }
+
+    private static byte[] drain(Iterator<ByteBuffer> it) {
+        ByteArrayOutputStream r = new ByteArrayOutputStream();
+        while (it.hasNext()) {
+            ByteBuffer buf = it.next();
+            while (buf.hasRemaining()) r.write(buf.get());
+        }
+        return r.toByteArray();
+    }
+}
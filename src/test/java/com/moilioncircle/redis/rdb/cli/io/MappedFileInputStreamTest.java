@@ -0,0 +1,71 @@
+package com.moilioncircle.redis.rdb.cli.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Baoyi Chen
+ */
+public class MappedFileInputStreamTest {
+    
+    @Test
+    public void testRead() throws IOException {
+        byte[] bytes = new byte[256 * 1024 + 13];
+        Random random = new Random(0);
+        random.nextBytes(bytes);
+        File file = File.createTempFile("mapped", ".bin");
+        try {
+            Files.write(file.toPath(), bytes);
+            for (int window : new int[]{4096, 65543, 1 << 30}) {
+                try (MappedFileInputStream in = new MappedFileInputStream(file, window)) {
+                    int position = 0;
+                    byte[] buf = new byte[8192];
+                    while (position < bytes.length) {
+                        switch (random.nextInt(3)) {
+                            case 0:
+                                assertEquals(bytes[position++] & 0xFF, in.read());
+                                break;
+                            case 1:
+                                int n = in.read(buf, 1, 1 + random.nextInt(buf.length - 1));
+                                // a read never crosses a window
+                                assertTrue(n > 0 && n <= window);
+                                for (int i = 0; i < n; i++) assertEquals(bytes[position++], buf[1 + i]);
+                                break;
+                            default:
+                                int skip = random.nextInt(Math.min(window, bytes.length) * 2);
+                                long skipped = in.skip(skip);
+                                assertEquals(Math.min(skip, bytes.length - position), skipped);
+                                position += skipped;
+                                break;
+                        }
+                    }
+                    assertEquals(-1, in.read());
+                    assertEquals(-1, in.read(buf, 0, buf.length));
+                    assertEquals(0, in.read(buf, 0, 0));
+                    assertEquals(0, in.skip(10));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testEmpty() throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        try (MappedFileInputStream in = new MappedFileInputStream(file, 4096)) {
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skip(1));
+            assertEquals(0, in.available());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.moilioncircle.redis.rdb.cli.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Baoyi Chen
+ */
+public class HyperLogLogTest {
+    
+    @Test
+    public void testEstimate() {
+        for (int n : new int[]{0, 10, 1000, 100000, 1000000}) {
+            HyperLogLog hll = new HyperLogLog(12);
+            for (int i = 0; i < n; i++) {
+                hll.add(Hashes.hash64(("key:" + i).getBytes()));
+                hll.add(Hashes.hash64(("key:" + i).getBytes()));
+            }
+            assertTrue(n + " " + hll.estimate(), Math.abs(hll.estimate() - n) <= Math.max(1, n * 0.05));
+        }
+    }
+    
+    @Test
+    public void testMerge() {
+        HyperLogLog union = new HyperLogLog(10);
+        HyperLogLog a = new HyperLogLog(10);
+        HyperLogLog b = HyperLogLog.valueOf(new byte[1 << 10]);
+        for (int i = 0; i < 50000; i++) {
+            long hash = Hashes.hash64(("key:" + i).getBytes());
+            if (i % 3 != 0) a.add(hash);
+            if (i % 2 != 0) b.add(hash);
+            if (i % 3 != 0 || i % 2 != 0) union.add(hash);
+        }
+        a.merge(b);
+        assertEquals(10, a.getPrecision());
+        assertArrayEquals(union.getRegisters(), a.getRegisters());
+        assertEquals(union.estimate(), a.estimate());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrecision() {
+        new HyperLogLog(12).merge(new HyperLogLog(14));
+    }
+}
@@ -0,0 +1,66 @@
+package com.moilioncircle.redis.rdb.cli.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the cost per key of {@link KeyMatcher} and the previous String + regex loop of
+ * {@code AbstractRdbVisitor.containsKey}, with prefix filters like {@code -k prefix1:.*}.
+ * <p>
+ * usage: KeyMatcherBenchmark [filters] [keys] [rounds]
+ *
+ * @author Baoyi Chen
+ */
+public class KeyMatcherBenchmark {
+    
+    public static void main(String[] args) {
+        int filters = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        
+        List<String> regexs = new ArrayList<>();
+        for (int i = 0; i < filters; i++) regexs.add("prefix" + i + ":.*");
+        
+        // half of the keys match one of the filters
+        Random random = new Random(0);
+        byte[][] keys = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            String prefix = random.nextBoolean() ? "prefix" : "other";
+            keys[i] = (prefix + random.nextInt(filters) + ":" + random.nextInt(100000)).getBytes(UTF_8);
+        }
+        
+        KeyMatcher matcher = KeyMatcher.compile(regexs);
+        Set<String> literals = new HashSet<>(regexs);
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexs) patterns.add(Pattern.compile(regex));
+        
+        for (int i = 0; i < rounds; i++) {
+            long mark = System.nanoTime();
+            long x = 0;
+            for (byte[] key : keys) if (matcher.matches(key)) x++;
+            double matched = (System.nanoTime() - mark) / (double) n;
+            
+            mark = System.nanoTime();
+            long y = 0;
+            for (byte[] key : keys) if (matches(new String(key, UTF_8), literals, patterns)) y++;
+            double looped = (System.nanoTime() - mark) / (double) n;
+            
+            if (x != y) throw new AssertionError(x + " != " + y);
+            System.out.printf("%d filters, KeyMatcher %8.1f ns/key, String + regex %8.1f ns/key%n", filters, matched, looped);
+        }
+    }
+    
+    private static boolean matches(String key, Set<String> literals, List<Pattern> patterns) {
+        if (literals.contains(key)) return true;
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(key).matches()) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package com.moilioncircle.redis.rdb.cli.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * @author Baoyi Chen
+ */
+public class KeyMatcherTest {
+    
+    @Test
+    public void testEmpty() {
+        KeyMatcher matcher = KeyMatcher.compile(Collections.emptyList());
+        assertTrue(matcher.isEmpty());
+    }
+    
+    @Test
+    public void testRegex() {
+        KeyMatcher matcher = KeyMatcher.compile(Arrays.asList("user:.*", "^order$", "a[0-9]+b", "(x)\\1"));
+        assertFalse(matcher.isEmpty());
+        assertTrue(matches(matcher, "user:"));
+        assertTrue(matches(matcher, "user:1"));
+        assertTrue(matches(matcher, "user:中国"));
+        assertTrue(matches(matcher, "order"));
+        assertTrue(matches(matcher, "a123b"));
+        assertTrue(matches(matcher, "xx"));
+        assertFalse(matches(matcher, "use"));
+        assertFalse(matches(matcher, "orders"));
+        assertFalse(matches(matcher, "ab"));
+        assertFalse(matches(matcher, "xy"));
+    }
+    
+    @Test
+    public void testLiteral() {
+        KeyMatcher matcher = KeyMatcher.compile(Arrays.asList("a.b", "key"));
+        assertTrue(matches(matcher, "a.b"));
+        assertTrue(matches(matcher, "axb"));
+        assertTrue(matches(matcher, "key"));
+        assertFalse(matches(matcher, "key1"));
+    }
+    
+    @Test
+    public void testGlob() {
+        KeyMatcher matcher = KeyMatcher.compile(Arrays.asList("glob:session:*", "glob:h?llo", "glob:k[a-c]y", "glob:n[^0-9]", "glob:q\\*"));
+        assertTrue(matches(matcher, "session:"));
+        assertTrue(matches(matcher, "session:1\n2"));
+        assertTrue(matches(matcher, "hello"));
+        assertTrue(matches(matcher, "hallo"));
+        assertTrue(matches(matcher, "kby"));
+        assertTrue(matches(matcher, "nx"));
+        assertTrue(matches(matcher, "q*"));
+        assertFalse(matches(matcher, "sessio"));
+        assertFalse(matches(matcher, "hllo"));
+        assertFalse(matches(matcher, "kdy"));
+        assertFalse(matches(matcher, "n1"));
+        assertFalse(matches(matcher, "qa"));
+    }
+    
+    private static boolean matches(KeyMatcher matcher, String key) {
+        return matcher.matches(key.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,139 @@
+package com.moilioncircle.redis.rdb.cli.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.moilioncircle.redis.rdb.cli.conf.Configure;
+
+/**
+ * @author Baoyi Chen
+ */
+public class KeySetTest {
+
+    private File dir;
+    private Configure configure;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("key-set").toFile();
+        Properties properties = new Properties();
+        properties.setProperty("temp_file_path", dir.getPath());
+        configure = Configure.bind(properties);
+    }
+
+    @After
+    public void after() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        KeySet set = load("a\nab\r\n\n\nabc\r\nb\nab\n\r\nx\ry\nlast");
+        // duplicated ab and the empty lines are not counted
+        assertEquals(6, set.size());
+        assertTrue(contains(set, "a"));
+        assertTrue(contains(set, "ab"));
+        assertTrue(contains(set, "abc"));
+        assertTrue(contains(set, "b"));
+        assertTrue(contains(set, "x\ry"));
+        assertTrue(contains(set, "last"));
+
+        assertFalse(contains(set, ""));
+        assertFalse(contains(set, "\r"));
+        assertFalse(contains(set, "ab\r"));
+        assertFalse(contains(set, "abcd"));
+        assertFalse(contains(set, "bc"));
+        assertFalse(contains(set, "x"));
+        assertFalse(contains(set, "las"));
+        assertFalse(contains(set, "lastx"));
+        assertFalse(contains(set, "a\nab"));
+    }
+
+    @Test
+    public void testTerminated() throws IOException {
+        KeySet set = load("k1\r\nk2\r\n");
+        assertEquals(2, set.size());
+        assertTrue(contains(set, "k1"));
+        assertTrue(contains(set, "k2"));
+        assertFalse(contains(set, "k2\r"));
+
+        set = load("k1\nk2\n");
+        assertEquals(2, set.size());
+        assertTrue(contains(set, "k2"));
+
+        set = load("k1\nk2\r");
+        assertEquals(2, set.size());
+        assertTrue(contains(set, "k2"));
+        assertFalse(contains(set, "k2\r"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        KeySet set = load("");
+        assertEquals(0, set.size());
+        assertFalse(contains(set, "a"));
+
+        set = load("\n\r\n\n");
+        assertEquals(0, set.size());
+        assertFalse(contains(set, "a"));
+    }
+
+    @Test
+    public void testMany() throws IOException {
+        int n = 100000;
+        StringBuilder builder = new StringBuilder();
+        // key:1 is a prefix of key:10 ... key:19999, every key is listed twice
+        for (int i = 0; i < n; i++) builder.append("key:").append(i).append(i % 2 == 0 ? "\n" : "\r\n");
+        for (int i = n - 1; i >= 0; i--) builder.append("key:").append(i).append('\n');
+        KeySet set = load(builder.toString());
+        assertEquals(n, set.size());
+        for (int i = 0; i < n; i++) assertTrue(contains(set, "key:" + i));
+        for (int i = n; i < 2 * n; i++) assertFalse(contains(set, "key:" + i));
+        assertFalse(contains(set, "key:"));
+        assertFalse(contains(set, "key:0\r"));
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+        // sparse file, the key cross spans the first 1GB segment of the mapping
+        File file = new File(dir, "segments.txt");
+        long boundary = 1L << 30;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write("head\n".getBytes(UTF_8));
+            raf.seek(boundary - 4);
+            raf.write("\ncross\nlast".getBytes(UTF_8));
+        }
+        KeySet set = KeySet.valueOf(file, configure);
+        // head, the line of zeros, cross and last
+        assertEquals(4, set.size());
+        assertTrue(contains(set, "head"));
+        assertTrue(contains(set, "cross"));
+        assertTrue(contains(set, "last"));
+        assertFalse(contains(set, "cros"));
+        assertFalse(contains(set, "crossl"));
+    }
+
+    private KeySet load(String content) throws IOException {
+        File file = File.createTempFile("keys", ".txt", dir);
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+        return KeySet.valueOf(file, configure);
+    }
+
+    private static boolean contains(KeySet set, String key) {
+        return set.contains(key.getBytes(UTF_8));
+    }
+}